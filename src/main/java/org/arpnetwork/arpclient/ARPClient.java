@@ -19,8 +19,13 @@ package org.arpnetwork.arpclient;
 import android.content.Context;
 import android.graphics.Matrix;
 import android.graphics.SurfaceTexture;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
@@ -33,43 +38,73 @@ import android.view.View;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
 
-import com.google.gson.Gson;
-
+import org.arpnetwork.arpclient.abr.QualityController;
 import org.arpnetwork.arpclient.data.AVPacket;
 import org.arpnetwork.arpclient.data.ConnectResponsePacket;
 import org.arpnetwork.arpclient.data.Quality;
 import org.arpnetwork.arpclient.data.ErrorInfo;
-import org.arpnetwork.arpclient.data.Result;
+import org.arpnetwork.arpclient.data.Message;
 import org.arpnetwork.arpclient.data.TouchSetting;
 import org.arpnetwork.arpclient.data.TouchSettingPacket;
 import org.arpnetwork.arpclient.data.VideoInfo;
 import org.arpnetwork.arpclient.data.VideoInfoPacket;
+import org.arpnetwork.arpclient.metrics.Counter;
+import org.arpnetwork.arpclient.metrics.Gauge;
+import org.arpnetwork.arpclient.metrics.LatencyHistogram;
+import org.arpnetwork.arpclient.metrics.Metrics;
+import org.arpnetwork.arpclient.metrics.MetricsRegistry;
+import org.arpnetwork.arpclient.metrics.MetricsSnapshot;
+import org.arpnetwork.arpclient.play.DecodeMode;
+import org.arpnetwork.arpclient.play.DecodePriority;
 import org.arpnetwork.arpclient.play.MediaPlayer;
 import org.arpnetwork.arpclient.protocol.DeviceProtocol;
+import org.arpnetwork.arpclient.protocol.ProtocolDispatcher;
+import org.arpnetwork.arpclient.session.ManagedSession;
+import org.arpnetwork.arpclient.session.SessionManager;
+import org.arpnetwork.arpclient.session.SessionState;
+import org.arpnetwork.arpclient.session.SessionStateMachine;
+import org.arpnetwork.arpclient.socket.ReconnectPolicy;
+import org.arpnetwork.arpclient.socket.SharedEventLoopGroup;
+import org.arpnetwork.arpclient.touch.InputLatencyTracker;
 import org.arpnetwork.arpclient.touch.TouchHandler;
 import org.arpnetwork.arpclient.util.PreferenceManager;
+import org.arpnetwork.arpclient.util.Teardown;
+
+import java.util.concurrent.Executor;
+
+import io.netty.buffer.ByteBuf;
+
+public class ARPClient implements ManagedSession {
+    private static final int TEARDOWN_TIMEOUT = 2000;
+    private static final int RESUME_WINDOW = 5000;
+    private static final int QUALITY_SAMPLE_INTERVAL = 1000;
 
-public class ARPClient {
     private MediaPlayer mMediaPlayer;
     private TextureView mSurfaceView;
     private TouchHandler mTouchHandler;
     private DeviceProtocol mDeviceProtocol;
+    private InputLatencyTracker mInputLatencyTracker;
+    private MetricsRegistry mMetrics;
+    private Counter mReconnects;
+    private Counter mQualityChanges;
+    private volatile QualityController mQualityController;
+    private volatile int mQuality;
 
     private ARPClientListener mListener;
+    private volatile ConnectionHealthListener mConnectionHealthListener;
     private Handler mHandler;
     private Context mContext;
-    private Gson mGson;
 
     private String mPackageName;
     private String mHost;
     private int mPort;
     private String mSession;
 
-    private boolean mConnected;
-    private boolean mDisconnected;
-    private boolean mReconnected;
-    private boolean mClosed;
-    private boolean mError;
+    private final SessionStateMachine mState = new SessionStateMachine();
+    // last teardown, may still be stopping decoders that render to the surface
+    private volatile Teardown mTeardown;
+    private boolean mResumeEnabled;
+    private boolean mNetworkCallbackRegistered;
 
     private Size mDisplaySize;
 
@@ -93,12 +128,25 @@ public class ARPClient {
         void onError(int code, String msg);
     }
 
+    public interface ConnectionHealthListener {
+        /**
+         * Health of the connection changed, called on the main thread.
+         *
+         * @param health   from 0 to 100, degraded at 60 and below
+         * @param rtt      smoothed round trip time in microseconds, -1 if unknown
+         * @param lossRate share of the recent heartbeat probes lost
+         */
+        void onConnectionHealth(int health, long rtt, float lossRate);
+    }
+
     public static void init(Context context) {
         PreferenceManager.init(context);
+        SharedEventLoopGroup.acquire();
     }
 
     public static void fini() {
         PreferenceManager.fini();
+        SharedEventLoopGroup.release();
     }
 
     /**
@@ -116,10 +164,17 @@ public class ARPClient {
         mMediaPlayer = new MediaPlayer();
         mTouchHandler = new TouchHandler(mTouchHandlerListener);
         mDeviceProtocol = new DeviceProtocol(mProtocolProxyListener);
+        mMediaPlayer.setClockSync(mDeviceProtocol.getClockSync());
+        initMetrics();
+        mInputLatencyTracker = new InputLatencyTracker(mDeviceProtocol.getClockSync(),
+                mMetrics.histogram(Metrics.TOUCH_LATENCY));
+        mTouchHandler.setInputLatencyTracker(mInputLatencyTracker);
+        mMediaPlayer.setInputLatencyTracker(mInputLatencyTracker);
+        mDeviceProtocol.setReconnectPolicy(new ReconnectPolicy());
+        registerPacketHandlers(mDeviceProtocol.getProtocolDispatcher());
         mListener = listener;
         mContext = context;
-        mHandler = new Handler();
-        mGson = new Gson();
+        mHandler = new Handler(Looper.getMainLooper());
     }
 
     /**
@@ -178,8 +233,8 @@ public class ARPClient {
      * Effective only in five seconds after disconnection
      */
     public void reconnect() {
-        if (mDisconnected && !mClosed) {
-            mReconnected = true;
+        if (mState.isIn(SessionState.mask(SessionState.SUSPENDED) | SessionState.mask(SessionState.DISCONNECTED))) {
+            mReconnects.increment();
             open();
         }
     }
@@ -191,15 +246,112 @@ public class ARPClient {
     /**
      * Close socket, stop player
      * Can be reconnect in five seconds
+     * Never blocks, the socket and decoders are torn down in the background.
+     * In resume mode the player is kept for the five seconds instead.
      */
     public void disconnect() {
+        if (!mResumeEnabled || !suspend()) {
+            disconnect(null);
+        }
+    }
+
+    /**
+     * Tear down unless torn down already, closed if a stop request was sent.
+     *
+     * @param surfaceTexture released once the decoders rendering to it are stopped, may be null
+     */
+    private void disconnect(SurfaceTexture surfaceTexture) {
+        int to = mState.is(SessionState.STOPPING) ? SessionState.CLOSED : SessionState.DISCONNECTED;
+        if (mState.moveTo(to) != SessionStateMachine.INVALID) {
+            teardown(surfaceTexture);
+        } else if (surfaceTexture != null) {
+            mMediaPlayer.setSurface(null);
+            releaseAfterTeardown(surfaceTexture);
+        }
+    }
+
+    /**
+     * Called by the thread winning the transition to a torn down state only.
+     */
+    private void teardown(SurfaceTexture surfaceTexture) {
         mMediaPlayer.setSurface(null);
         mDeviceProtocol.close();
         mMediaPlayer.removeCallbacks();
+        mTouchHandler.reset();
         mHandler.removeCallbacksAndMessages(null);
-        mDisconnected = true;
+        unregisterNetworkCallback();
+
+        Teardown teardown = new Teardown();
+        mMediaPlayer.stop(teardown);
+        mTeardown = teardown;
+        teardown.start(TEARDOWN_TIMEOUT, null, mMainExecutor);
+        if (surfaceTexture != null) {
+            releaseAfterTeardown(surfaceTexture);
+        }
+    }
+
+    /**
+     * Release the surface once the last teardown stopped the decoders rendering to it,
+     * as when the view is destroyed after {@link #disconnect()}.
+     */
+    private void releaseAfterTeardown(final SurfaceTexture surfaceTexture) {
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                surfaceTexture.release();
+            }
+        };
+        Teardown teardown = mTeardown;
+        if (teardown != null) {
+            teardown.whenDone(release, mMainExecutor);
+        } else {
+            release.run();
+        }
+    }
+
+    /**
+     * Set resume mode, off by default.
+     * When on, the decoders, audio output and surface are kept for five seconds after
+     * the connection was lost or {@link #disconnect()} was called. A reconnect within
+     * that time resumes on them and only waits for the next key frame of remote device.
+     *
+     * @param enabled true to keep the player across reconnects
+     */
+    public void setResumeEnabled(boolean enabled) {
+        mResumeEnabled = enabled;
+    }
+
+    /**
+     * Set adaptive quality, off by default.
+     * When on, the quality starts at {@link #setQuality(int)} and is stepped down
+     * mid-session when frames drop, queue up or arrive with high jitter,
+     * and back up after the stream stayed clean for a while.
+     *
+     * @param enabled true to adapt the quality to the network
+     */
+    public void setAdaptiveQuality(boolean enabled) {
+        mQualityController = enabled ? new QualityController(Quality.LOW, Quality.HIGH, Quality.get()) : null;
+    }
 
-        mMediaPlayer.stop();
+    /**
+     * Set how a lost connection is reconnected automatically, within five seconds
+     * on a default policy. The player keeps going across the reconnect and
+     * {@link ARPClientListener#onError} is only called once the policy gives up.
+     *
+     * @param policy Reconnect policy, null to report a lost connection right away
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        mDeviceProtocol.setReconnectPolicy(policy);
+    }
+
+    /**
+     * Set listener of connection health. The health is judged by heartbeats,
+     * which are sent more often while it is low.
+     *
+     * @param listener Connection health listener, null to remove
+     */
+    public void setConnectionHealthListener(ConnectionHealthListener listener) {
+        mConnectionHealthListener = listener;
     }
 
     /**
@@ -207,22 +359,63 @@ public class ARPClient {
      * Once the method was called, remote device can not be reconnected
      */
     public void stop() {
-        if (!mClosed && !mDisconnected) {
-            if (mConnected) {
+        if (mState.moveTo(SessionState.CLOSED, SessionState.mask(SessionState.SUSPENDED))
+                != SessionStateMachine.INVALID) {
+            teardown(null);
+            return;
+        }
+        int previous = mState.moveTo(SessionState.STOPPING);
+        if (previous != SessionStateMachine.INVALID) {
+            if (previous == SessionState.CONNECTED) {
                 mDeviceProtocol.sendStopReq();
-                mConnected = false;
             }
             mHandler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    disconnect();
+                    disconnect(null);
                 }
             }, 500);
-            mClosed = true;
-            mDisconnected = true;
         }
     }
 
+    /**
+     * @return State of the session, see {@link SessionState}
+     */
+    public int getSessionState() {
+        return mState.get();
+    }
+
+    /**
+     * Set listener of session state transitions, to trace the session timeline.
+     * Called on the thread making the transition, the main thread mostly.
+     *
+     * @param listener State listener, null to remove
+     */
+    public void setOnSessionStateChangedListener(SessionStateMachine.OnStateChangedListener listener) {
+        mState.setOnStateChangedListener(listener);
+    }
+
+    /**
+     * Set how the decoders are driven, takes effect on next start or reconnect
+     *
+     * @param decodeMode see {@link DecodeMode}
+     */
+    public void setDecodeMode(int decodeMode) {
+        mMediaPlayer.setDecodeMode(decodeMode);
+    }
+
+    /**
+     * Lower the decoding of a session in the background, full by default.
+     * Takes effect at once and is kept across reconnects, see {@link SessionManager}
+     * to schedule several sessions.
+     *
+     * @param priority see {@link DecodePriority}
+     */
+    @Override
+    public void setDecodePriority(int priority) {
+        mMediaPlayer.setDecodePriority(priority);
+    }
+
     /**
      * Set the orientation to adjust touch
      *
@@ -232,57 +425,227 @@ public class ARPClient {
         mTouchHandler.setLandscape(isLandscape);
     }
 
+    /**
+     * Set how long touch moves may wait to be sent together with later ones
+     *
+     * @param delay delay in milliseconds, 0 to send every touch event at once
+     */
+    public void setTouchFlushDelay(int delay) {
+        mTouchHandler.setFlushDelay(delay);
+    }
+
+    /**
+     * @return Touch samples received, including historical ones of batched moves
+     */
+    public long getTouchEventCount() {
+        return mTouchHandler.getEventCount();
+    }
+
+    /**
+     * @return Touch messages sent to remote device
+     */
+    public long getTouchMessageCount() {
+        return mTouchHandler.getMessageCount();
+    }
+
+    /**
+     * Latency from touch input to render of the first frame captured after the touch
+     * reached remote device, in microseconds. Use {@link LatencyHistogram#getPercentile(double)}
+     * for p50, p95 and p99.
+     *
+     * @return Input-to-photon latency histogram
+     */
+    public LatencyHistogram getInputLatency() {
+        return mInputLatencyTracker.getHistogram();
+    }
+
+    /**
+     * Metrics of this client, see {@link Metrics} for names.
+     * Take a {@link MetricsRegistry#snapshot()} from any thread at any time,
+     * it does not block the socket or codec threads.
+     *
+     * @return Metrics registry
+     */
+    public MetricsRegistry getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return Remote device clock minus local clock in microseconds
+     */
+    public long getClockOffset() {
+        return mDeviceProtocol.getClockSync().getOffset();
+    }
+
+    /**
+     * @return Estimated one-way network delay in microseconds, -1 if unknown
+     */
+    public long getOneWayDelay() {
+        return mDeviceProtocol.getClockSync().getOneWayDelay();
+    }
+
+    /**
+     * @return Latency from capture on remote device to render of the last video frame
+     * in microseconds, -1 if unknown
+     */
+    public long getVideoLatency() {
+        return mMediaPlayer.getVideoLatency();
+    }
+
+    /**
+     * @return Video pts minus audio pts of the last rendered frame in microseconds,
+     * positive when video is ahead
+     */
+    public long getAVSkew() {
+        return mMediaPlayer.getAVSkew();
+    }
+
+    private void initMetrics() {
+        mMetrics = new MetricsRegistry();
+        mDeviceProtocol.setMetrics(mMetrics);
+        mMediaPlayer.setMetrics(mMetrics);
+        mReconnects = mMetrics.counter(Metrics.RECONNECTS);
+        mQualityChanges = mMetrics.counter(Metrics.VIDEO_QUALITY_CHANGES);
+        mMetrics.gauge(Metrics.SESSION_STATE, new Gauge() {
+            @Override
+            public long get() {
+                return mState.get();
+            }
+        });
+        mMetrics.gauge(Metrics.VIDEO_QUALITY, new Gauge() {
+            @Override
+            public long get() {
+                return mQuality;
+            }
+        });
+        mMetrics.gauge(Metrics.TOUCH_EVENTS, new Gauge() {
+            @Override
+            public long get() {
+                return mTouchHandler.getEventCount();
+            }
+        });
+        mMetrics.gauge(Metrics.TOUCH_MESSAGES, new Gauge() {
+            @Override
+            public long get() {
+                return mTouchHandler.getMessageCount();
+            }
+        });
+    }
+
     private void setSurface(Surface surface) {
         mMediaPlayer.setSurface(surface);
-        if (mConnected) {
+        if (mState.is(SessionState.CONNECTED)) {
             mMediaPlayer.startVideo();
         }
     }
 
     private void open() {
-        mMediaPlayer.initThreadWithListener(mMediaPlayerListener);
-        mClosed = false;
-        mDisconnected = false;
+        int previous = mState.moveTo(SessionState.CONNECTING);
+        if (previous == SessionStateMachine.INVALID) {
+            return;
+        }
+
+        if (previous == SessionState.SUSPENDED) {
+            mHandler.removeCallbacks(mResumeTimeoutRunnable);
+            mMediaPlayer.resume(mMediaPlayerListener);
+        } else {
+            mMediaPlayer.initThreadWithListener(mMediaPlayerListener);
+        }
+        registerNetworkCallback();
         mDeviceProtocol.open(mHost, mPort, mSession, mPackageName);
     }
 
-    private void handleConnect() {
-        mMediaPlayer.startAudio();
-        mReconnected = false;
-        mConnected = true;
-        mDeviceProtocol.sendConnectReq();
-        mDeviceProtocol.sendTimestamp();
+    /**
+     * Retry at once when a network becomes available while reconnecting
+     */
+    private void registerNetworkCallback() {
+        if (!mNetworkCallbackRegistered) {
+            ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkRequest request = new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build();
+            cm.registerNetworkCallback(request, mNetworkCallback);
+            mNetworkCallbackRegistered = true;
+        }
     }
 
-    private int handleProtocolPacket(String data) {
-        if (!TextUtils.isEmpty(data)) {
-            Result result = mGson.fromJson(data, Result.class);
-
-            switch (result.id) {
-                case TouchSettingPacket.ID:
-                    return handleTouchSettingPacket(data);
-
-                case VideoInfoPacket.ID:
-                    return handleVideoInfoPacket(data);
+    private void unregisterNetworkCallback() {
+        if (mNetworkCallbackRegistered) {
+            ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            cm.unregisterNetworkCallback(mNetworkCallback);
+            mNetworkCallbackRegistered = false;
+        }
+    }
 
-                case ConnectResponsePacket.ID:
-                    return handleConnectResponsePacket(data);
+    private void handleConnect() {
+        int previous = mState.moveTo(SessionState.CONNECTED);
+        if (previous == SessionStateMachine.INVALID) {
+            return;
+        }
 
-                default:
-                    break;
-            }
+        if (previous == SessionState.RECONNECTING) {
+            // decoders kept running, only wait for the next key frame
+            mMediaPlayer.resume(mMediaPlayerListener);
+        }
+        mMediaPlayer.startAudio();
+        QualityController qualityController = mQualityController;
+        if (qualityController != null) {
+            qualityController.reset();
+            mHandler.removeCallbacks(mQualityRunnable);
+            mHandler.postDelayed(mQualityRunnable, QUALITY_SAMPLE_INTERVAL);
         }
-        return 0;
     }
 
-    private int handleTouchSettingPacket(String data) {
-        TouchSettingPacket touchSettingPacket = null;
-        try {
-            touchSettingPacket = mGson.fromJson(data, TouchSettingPacket.class);
-        } catch (Exception e) {
-            return ErrorInfo.ERROR_PROTOCOL_TOUCH_SETTING;
-        }
+    private void updateQuality() {
+        QualityController qualityController = mQualityController;
+        if (!mState.is(SessionState.CONNECTED) || qualityController == null) {
+            return;
+        }
+
+        MetricsSnapshot snapshot = mMetrics.snapshot();
+        int quality = qualityController.update(
+                snapshot.getValue(Metrics.RX_BYTES + Metrics.typeName(Message.VIDEO)),
+                snapshot.getValue(Metrics.VIDEO_DROPPED),
+                snapshot.getValue(Metrics.VIDEO_LATE),
+                snapshot.getValue(Metrics.VIDEO_QUEUE_DEPTH),
+                snapshot.getValue(Metrics.VIDEO_JITTER));
+        if (quality != mQuality) {
+            // remote device answers with video info if the resolution changes
+            mDeviceProtocol.sendChangeQualityReq(quality);
+            mQuality = quality;
+            mQualityChanges.increment();
+        }
+        mHandler.postDelayed(mQualityRunnable, QUALITY_SAMPLE_INTERVAL);
+    }
 
+    private void registerPacketHandlers(ProtocolDispatcher dispatcher) {
+        dispatcher.register(TouchSettingPacket.ID, TouchSettingPacket.class,
+                ErrorInfo.ERROR_PROTOCOL_TOUCH_SETTING,
+                new ProtocolDispatcher.PacketHandler<TouchSettingPacket>() {
+                    @Override
+                    public int onPacket(TouchSettingPacket packet) {
+                        return handleTouchSettingPacket(packet);
+                    }
+                });
+        dispatcher.register(VideoInfoPacket.ID, VideoInfoPacket.class,
+                ErrorInfo.ERROR_PROTOCOL_VIDEO_INFO,
+                new ProtocolDispatcher.PacketHandler<VideoInfoPacket>() {
+                    @Override
+                    public int onPacket(VideoInfoPacket packet) {
+                        return handleVideoInfoPacket(packet);
+                    }
+                });
+        dispatcher.register(ConnectResponsePacket.ID, ConnectResponsePacket.class,
+                ErrorInfo.ERROR_CONNECTION_RESULT,
+                new ProtocolDispatcher.PacketHandler<ConnectResponsePacket>() {
+                    @Override
+                    public int onPacket(ConnectResponsePacket packet) {
+                        return handleConnectResponsePacket(packet);
+                    }
+                });
+    }
+
+    private int handleTouchSettingPacket(TouchSettingPacket touchSettingPacket) {
         if (touchSettingPacket.data == null) {
             return ErrorInfo.ERROR_PROTOCOL_TOUCH_SETTING;
         }
@@ -296,42 +659,70 @@ public class ARPClient {
         return 0;
     }
 
-    private int handleVideoInfoPacket(String data) {
-        VideoInfoPacket videoInfoPacket = null;
-        try {
-            videoInfoPacket = mGson.fromJson(data, VideoInfoPacket.class);
-        } catch (Exception e) {
-            return ErrorInfo.ERROR_PROTOCOL_VIDEO_INFO;
-        }
-
+    private int handleVideoInfoPacket(VideoInfoPacket videoInfoPacket) {
         final VideoInfo videoInfo = videoInfoPacket.data;
 
         if (videoInfo == null || videoInfo.width == 0 || videoInfo.height == 0) {
             return ErrorInfo.ERROR_PROTOCOL_VIDEO_INFO;
         }
 
+        QualityController qualityController = mQualityController;
+        if (qualityController != null && videoInfo.quality > 0) {
+            qualityController.setQuality(videoInfo.quality);
+            mQuality = videoInfo.quality;
+        }
         mMediaPlayer.setVideoSize(videoInfo.width, videoInfo.height);
         return 0;
     }
 
-    private int handleConnectResponsePacket(String data) {
-        ConnectResponsePacket responsePacket = null;
-        try {
-            responsePacket = mGson.fromJson(data, ConnectResponsePacket.class);
-        } catch (Exception e) {
-            return ErrorInfo.ERROR_CONNECTION_RESULT;
-        }
-
-        if (responsePacket == null || responsePacket.result != 0) {
+    private int handleConnectResponsePacket(ConnectResponsePacket responsePacket) {
+        if (responsePacket.result != 0) {
             return ErrorInfo.ERROR_CONNECTION_REFUSED_VERSION;
         }
 
         return 0;
     }
 
+    /**
+     * Close socket but keep the player for a reconnect within the resume window.
+     *
+     * @return false if not connected or erred
+     */
+    private boolean suspend() {
+        if (mState.moveTo(SessionState.SUSPENDED) == SessionStateMachine.INVALID) {
+            return false;
+        }
+
+        mDeviceProtocol.close();
+        mMediaPlayer.removeCallbacks();
+        mTouchHandler.reset();
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler.postDelayed(mResumeTimeoutRunnable, RESUME_WINDOW);
+        return true;
+    }
+
+    private void handleReconnecting() {
+        if (mState.moveTo(SessionState.RECONNECTING) != SessionStateMachine.INVALID) {
+            mTouchHandler.reset();
+            mHandler.removeCallbacks(mQualityRunnable);
+        }
+    }
+
+    /**
+     * Report the first error of an active session, later ones are ignored.
+     */
     private void handleError(int code, String msg) {
-        mConnected = false;
-        mError = true;
+        int previous = mState.moveTo(SessionState.ERROR);
+        if (previous == SessionStateMachine.INVALID) {
+            return;
+        }
+
+        boolean connectionLost = code == ErrorInfo.ERROR_NETWORK || code == ErrorInfo.ERROR_DISCONNECTED_BY_DEVICE;
+        // automatic reconnects already used up the resume window
+        boolean resumable = connectionLost && previous != SessionState.RECONNECTING;
+        if (mResumeEnabled && resumable) {
+            suspend();
+        }
         if (mListener != null) {
             mListener.onError(code, msg == null ? ErrorInfo.getErrorMessage(code) : msg);
         }
@@ -391,31 +782,68 @@ public class ARPClient {
             mHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    if (!mClosed && !mError) {
-                        handleError(code, msg);
-                    }
+                    handleError(code, msg);
                     stop();
                 }
             });
         }
     };
 
+    private final Runnable mQualityRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateQuality();
+        }
+    };
+
+    private final Runnable mResumeTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            disconnect(null);
+        }
+    };
+
+    private final Executor mMainExecutor = new Executor() {
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            mMainHandler.post(command);
+        }
+    };
+
+    private final ConnectivityManager.NetworkCallback mNetworkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            mDeviceProtocol.reconnectNow();
+        }
+    };
+
     private final TouchHandler.OnTouchInfoListener mTouchHandlerListener = new TouchHandler.OnTouchInfoListener() {
         @Override
-        public void onTouchInfo(String touchInfo) {
-            mDeviceProtocol.sendTouchEvent(touchInfo);
+        public void onTouchInfo(ByteBuf touchInfo) {
+            if (mState.is(SessionState.CONNECTED)) {
+                mDeviceProtocol.sendTouchEvent(touchInfo);
+            } else {
+                // dropped while reconnecting
+                touchInfo.release();
+            }
         }
     };
 
     private final DeviceProtocol.OnProtocolListener mProtocolProxyListener = new DeviceProtocol.OnProtocolListener() {
         @Override
         public void onConnected() {
+            // answered on the socket thread, a busy main thread must not hold up the handshake
+            QualityController qualityController = mQualityController;
+            mQuality = qualityController != null ? qualityController.getQuality() : Quality.get();
+            mDeviceProtocol.sendConnectReq(mQuality);
+            mDeviceProtocol.startClockSync();
+
             mHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    if (!mDisconnected) {
-                        handleConnect();
-                    }
+                    handleConnect();
                 }
             });
         }
@@ -425,13 +853,34 @@ public class ARPClient {
             mHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    if (!mClosed && !mError) {
-                        handleError(code, msg);
-                    }
+                    handleError(code, msg);
                 }
             });
         }
 
+        @Override
+        public void onReconnecting(int attempt) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    handleReconnecting();
+                }
+            });
+        }
+
+        @Override
+        public void onConnectionHealth(final int health, final long rtt, final float lossRate) {
+            final ConnectionHealthListener listener = mConnectionHealthListener;
+            if (listener != null) {
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onConnectionHealth(health, rtt, lossRate);
+                    }
+                });
+            }
+        }
+
         @Override
         public void onVideoPacket(AVPacket packet) {
             mMediaPlayer.putVideoPacket(packet);
@@ -442,14 +891,15 @@ public class ARPClient {
             mMediaPlayer.putAudioPacket(packet);
         }
 
-        @Override
-        public int onProtocolPacket(String data) {
-            return handleProtocolPacket(data);
-        }
-
         @Override
         public void onClosed() {
-            mListener.onClosed();
+            // not on mHandler, which is cleared while the socket closes
+            mMainExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onClosed();
+                }
+            });
         }
     };
 
@@ -469,11 +919,9 @@ public class ARPClient {
 
         @Override
         public boolean onSurfaceTextureDestroyed(SurfaceTexture surfaceTexture) {
-            disconnect();
-            if (surfaceTexture != null) {
-                surfaceTexture.release();
-            }
-            return true;
+            // released by ourselves once the video decoder let go of it
+            disconnect(surfaceTexture);
+            return false;
         }
 
         @Override
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.abr;
+
+/**
+ * Adaptive quality from client side measurements, sampled at a fixed interval.
+ * Congestion shows as dropped or late frames, a deep decode queue or high
+ * arrival jitter. A collapse of the received video throughput only counts
+ * together with a growing queue or rising jitter, since a still screen alone
+ * shrinks the stream to tiny frames.
+ * <p>
+ * Steps down after a couple of congested samples, so playback degrades
+ * instead of freezing, and steps up only after a long clean run. A step up
+ * that is followed by congestion soon after doubles the wait before the next
+ * one, so the quality does not flap on a link near its limit.
+ */
+public class QualityController {
+    private static final int DOWN_SAMPLES = 2;
+    private static final int UP_SAMPLES = 10;
+    private static final int MAX_UP_SAMPLES = 160;
+    private static final int MAX_QUEUE_DEPTH = 4;
+    private static final long MAX_JITTER = 80000; // us
+    private static final int MAX_LATE_FRAMES = 3;
+    // throughput below this fraction of its average at the quality counts as congested
+    private static final double MIN_THROUGHPUT_RATIO = 0.5;
+
+    private final int mMinQuality;
+    private final int mMaxQuality;
+    private int mQuality;
+
+    private long mLastBytes = -1;
+    private long mLastDropped;
+    private long mLastLate;
+    private long mLastQueueDepth;
+    private long mLastJitter;
+    private double mAverageThroughput;
+
+    private int mCongestedSamples;
+    private int mCleanSamples;
+    private int mUpSamples = UP_SAMPLES;
+    // samples since the last step up, -1 once it proved stable
+    private int mSinceUp = -1;
+
+    /**
+     * @param minQuality lowest quality, see {@link org.arpnetwork.arpclient.data.Quality}
+     * @param maxQuality highest quality
+     * @param quality    quality to start at
+     */
+    public QualityController(int minQuality, int maxQuality, int quality) {
+        mMinQuality = minQuality;
+        mMaxQuality = maxQuality;
+        mQuality = quality;
+    }
+
+    /**
+     * @return current quality
+     */
+    public synchronized int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * Follow a quality reported by remote device, without changing the counts
+     *
+     * @param quality quality of the stream
+     */
+    public synchronized void setQuality(int quality) {
+        if (quality >= mMinQuality && quality <= mMaxQuality && quality != mQuality) {
+            mQuality = quality;
+            mAverageThroughput = 0;
+        }
+    }
+
+    /**
+     * Start over after the stream was interrupted.
+     */
+    public synchronized void reset() {
+        mLastBytes = -1;
+        mCongestedSamples = 0;
+        mCleanSamples = 0;
+    }
+
+    /**
+     * Feed one sample, counts are cumulative and may restart from zero.
+     *
+     * @param videoBytes  received video bytes
+     * @param dropped     video frames dropped before decode
+     * @param late        video frames rendered late
+     * @param queueDepth  video packets waiting for the decoder
+     * @param jitter      arrival jitter in microseconds
+     * @return quality to request, same as {@link #getQuality()} unless changed
+     */
+    public synchronized int update(long videoBytes, long dropped, long late, long queueDepth, long jitter) {
+        if (mLastBytes < 0 || videoBytes < mLastBytes) {
+            // first sample, or the counts restarted
+            mLastBytes = videoBytes;
+            mLastDropped = dropped;
+            mLastLate = late;
+            mLastQueueDepth = queueDepth;
+            mLastJitter = jitter;
+            return mQuality;
+        }
+
+        long bytes = videoBytes - mLastBytes;
+        long droppedFrames = Math.max(0, dropped - mLastDropped);
+        long lateFrames = Math.max(0, late - mLastLate);
+        mLastBytes = videoBytes;
+        mLastDropped = dropped;
+        mLastLate = late;
+        boolean backingUp = queueDepth > mLastQueueDepth || jitter > mLastJitter;
+        mLastQueueDepth = queueDepth;
+        mLastJitter = jitter;
+
+        boolean congested = droppedFrames > 0
+                || lateFrames > MAX_LATE_FRAMES
+                || queueDepth > MAX_QUEUE_DEPTH
+                || jitter > MAX_JITTER
+                || (bytes < mAverageThroughput * MIN_THROUGHPUT_RATIO && backingUp);
+        if (!congested) {
+            mAverageThroughput = mAverageThroughput == 0 ? bytes : mAverageThroughput + (bytes - mAverageThroughput) / 8;
+        }
+        if (mSinceUp >= 0 && ++mSinceUp > mUpSamples) {
+            mSinceUp = -1;
+            mUpSamples = UP_SAMPLES;
+        }
+
+        if (congested) {
+            mCleanSamples = 0;
+            if (++mCongestedSamples >= DOWN_SAMPLES && mQuality > mMinQuality) {
+                if (mSinceUp >= 0) {
+                    // the last step up did not hold
+                    mUpSamples = Math.min(mUpSamples * 2, MAX_UP_SAMPLES);
+                    mSinceUp = -1;
+                }
+                changeQuality(mQuality - 1);
+            }
+        } else {
+            mCongestedSamples = 0;
+            if (++mCleanSamples >= mUpSamples && mQuality < mMaxQuality) {
+                mSinceUp = 0;
+                changeQuality(mQuality + 1);
+            }
+        }
+        return mQuality;
+    }
+
+    private void changeQuality(int quality) {
+        mQuality = quality;
+        mCongestedSamples = 0;
+        mCleanSamples = 0;
+        mAverageThroughput = 0;
+    }
+}
@@ -16,14 +16,40 @@
 
 package org.arpnetwork.arpclient.data;
 
+import io.netty.buffer.ByteBuf;
+
 public class AVPacket {
     public long pts;
-    public byte[] data;
+    public ByteBuf data;
     public int size;
 
-    public AVPacket(long pts, byte[] data, int size) {
+    AVPacketPool mPool;
+
+    public AVPacket(long pts, ByteBuf data) {
+        set(pts, data);
+    }
+
+    void set(long pts, ByteBuf data) {
         this.pts = pts;
         this.data = data;
-        this.size = size;
+        this.size = data.readableBytes();
+    }
+
+    /**
+     * Release the packet data after it was consumed by the codec or dropped,
+     * and give the packet back to its pool. Releasing twice does nothing.
+     */
+    public void release() {
+        ByteBuf buf = data;
+        if (buf == null) {
+            return;
+        }
+        data = null;
+        size = 0;
+        buf.release();
+
+        if (mPool != null) {
+            mPool.recycle(this);
+        }
     }
 }
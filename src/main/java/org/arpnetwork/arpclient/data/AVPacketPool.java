@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Bounded pool of {@link AVPacket}.
+ * Packets are acquired on the socket thread and recycled by the codec threads,
+ * so the free slots are claimed with CAS instead of a lock.
+ * Packet data comes from the pooled ByteBuf allocator, which is size-classed itself.
+ */
+public class AVPacketPool {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private static final AVPacketPool sDefault = new AVPacketPool(DEFAULT_CAPACITY);
+
+    private final AtomicReferenceArray<AVPacket> mSlots;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mOverflows = new AtomicLong();
+
+    /**
+     * @return Pool shared by all connections
+     */
+    public static AVPacketPool getDefault() {
+        return sDefault;
+    }
+
+    public AVPacketPool(int capacity) {
+        mSlots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Get a packet from pool, or create a new one if pool is empty.
+     *
+     * @param pts  Presentation timestamp
+     * @param data Packet data, owned by the packet until released
+     * @return Packet
+     */
+    public AVPacket acquire(long pts, ByteBuf data) {
+        for (int i = 0; i < mSlots.length(); i++) {
+            AVPacket packet = mSlots.get(i);
+            if (packet != null && mSlots.compareAndSet(i, packet, null)) {
+                mHits.incrementAndGet();
+                packet.set(pts, data);
+                return packet;
+            }
+        }
+
+        mMisses.incrementAndGet();
+        AVPacket packet = new AVPacket(pts, data);
+        packet.mPool = this;
+        return packet;
+    }
+
+    void recycle(AVPacket packet) {
+        for (int i = 0; i < mSlots.length(); i++) {
+            if (mSlots.get(i) == null && mSlots.compareAndSet(i, null, packet)) {
+                return;
+            }
+        }
+        mOverflows.incrementAndGet();
+    }
+
+    /**
+     * @return Count of packets served from pool
+     */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * @return Count of packets created because pool was empty
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return Count of released packets discarded because pool was full
+     */
+    public long getOverflowCount() {
+        return mOverflows.get();
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.data;
+
+/**
+ * Request remote device to switch the stream to another quality mid-session,
+ * answered with a {@link VideoInfoPacket} when the resolution changes.
+ */
+public class ChangeQualityReq extends ProtocolPacket<Integer> {
+    private static final int ID = 3;
+
+    public ChangeQualityReq(int quality) {
+        super(ID);
+
+        data = quality;
+    }
+}
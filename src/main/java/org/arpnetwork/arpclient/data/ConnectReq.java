@@ -20,11 +20,15 @@ public class ConnectReq extends ProtocolPacket<ConnectData> {
     private static final int ID = 1;
 
     public ConnectReq(String sessionId, String packageName) {
+        this(sessionId, packageName, Quality.get());
+    }
+
+    public ConnectReq(String sessionId, String packageName, int quality) {
         super(ID);
 
         data = new ConnectData();
         data.session = sessionId;
         data.packageName = packageName;
-        data.quality = Quality.get();
+        data.quality = quality;
     }
 }
@@ -19,8 +19,14 @@ package org.arpnetwork.arpclient.data;
 import java.nio.ByteBuffer;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.buffer.Unpooled;
 
-public class Message {
+/**
+ * Socket message. The data buffer is reference counted,
+ * the receiver of a message must release it after use.
+ */
+public class Message extends DefaultByteBufHolder {
     public static final int HEARTBEAT = -1;
     public static final int VIDEO = 0;
     public static final int AUDIO = 1;
@@ -30,15 +36,18 @@ public class Message {
     public static final int KEY = 6;
 
     private int mType;
-    private byte[] mData;
 
     public Message(int type) {
-        this(type, new byte[0]);
+        this(type, Unpooled.EMPTY_BUFFER);
     }
 
     public Message(int type, byte[] data) {
+        this(type, Unpooled.wrappedBuffer(data));
+    }
+
+    public Message(int type, ByteBuf data) {
+        super(data);
         mType = type;
-        mData = data;
     }
 
     /**
@@ -52,28 +61,39 @@ public class Message {
      * @return message data buffer
      */
     public ByteBuffer getDataBuffer() {
-        return ByteBuffer.wrap(mData);
+        return content().nioBuffer();
     }
 
-    public static Message readFrom(ByteBuf buf) {
-        int size = buf.readInt();
-        if (size == 0) {
+    @Override
+    public Message replace(ByteBuf content) {
+        return new Message(mType, content);
+    }
+
+    /**
+     * Read a message from a frame without the length field.
+     * The data of message is a retained slice of the frame.
+     *
+     * @param frame message frame
+     * @return message
+     */
+    public static Message readFrom(ByteBuf frame) {
+        if (!frame.isReadable()) {
             return new Message(HEARTBEAT);
         }
 
-        int type = buf.readByte();
-        ByteBuf body = buf.readBytes(size - 1);
-        return new Message(type, body.array());
+        int type = frame.readByte();
+        return new Message(type, frame.readRetainedSlice(frame.readableBytes()));
     }
 
     public void writeTo(ByteBuf buf) {
         if (mType == HEARTBEAT) {
             buf.writeInt(0); // heartbeat
         } else {
+            ByteBuf data = content();
             // size = (byte)type size + data size
-            buf.writeInt(1 + mData.length);
+            buf.writeInt(1 + data.readableBytes());
             buf.writeByte((byte) mType);
-            buf.writeBytes(mData);
+            buf.writeBytes(data, data.readerIndex(), data.readableBytes());
         }
     }
 }
@@ -62,13 +62,30 @@ public class TouchSetting {
      * @return
      */
     public Point getTransformedPoint(float originX, float originY, boolean isLandscape) {
-        int transformedX = (int) (originX / getPercentX());
-        int transformedY = (int) (originY / getPercentY());
+        return new Point(getTransformedX(originX, originY, isLandscape),
+                getTransformedY(originX, originY, isLandscape));
+    }
+
+    /**
+     * Get transformed x for touch command, without allocating a point.
+     *
+     * @see #getTransformedPoint(float, float, boolean)
+     */
+    public int getTransformedX(float originX, float originY, boolean isLandscape) {
         if (isLandscape) {
-            transformedX = (int) ((mTouchSize.getHeight() - originY) / getPercentY());
-            transformedY = (int) (originX / getPercentX());
+            return (int) ((mTouchSize.getHeight() - originY) / getPercentY());
         }
-        return new Point(transformedX, transformedY + 1 + statusBarHeight);
+        return (int) (originX / getPercentX());
+    }
+
+    /**
+     * Get transformed y for touch command, without allocating a point.
+     *
+     * @see #getTransformedPoint(float, float, boolean)
+     */
+    public int getTransformedY(float originX, float originY, boolean isLandscape) {
+        int transformedY = isLandscape ? (int) (originX / getPercentX()) : (int) (originY / getPercentY());
+        return transformedY + 1 + statusBarHeight;
     }
 
     /**
@@ -14,8 +14,11 @@
  * limitations under the License.
  */
 
-package org.arpnetwork.arpclient.data;
+package org.arpnetwork.arpclient.metrics;
 
-public class Result {
-    public int id;
+/**
+ * Value read when a snapshot is taken, must not block.
+ */
+public interface Gauge {
+    long get();
 }
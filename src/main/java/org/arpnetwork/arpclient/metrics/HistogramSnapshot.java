@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.metrics;
+
+/**
+ * Summary of a {@link LatencyHistogram} at snapshot time, -1 for empty percentiles.
+ */
+public class HistogramSnapshot {
+    public final long count;
+    public final long max;
+    public final long p50;
+    public final long p95;
+    public final long p99;
+
+    HistogramSnapshot(LatencyHistogram histogram) {
+        count = histogram.getCount();
+        max = histogram.getMax();
+        p50 = histogram.getPercentile(50);
+        p95 = histogram.getPercentile(95);
+        p99 = histogram.getPercentile(99);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", p50=" + p50 + ", p95=" + p95 + ", p99=" + p99 + ", max=" + max;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.metrics;
+
+import org.arpnetwork.arpclient.data.Message;
+
+/**
+ * Names of the metrics reported by ARPClient.
+ * Times are in microseconds.
+ */
+public class Metrics {
+    /**
+     * Prefix of received message counts, followed by {@link #typeName(int)}
+     */
+    public static final String RX_MESSAGES = "rx.messages.";
+    /**
+     * Prefix of received byte counts including framing, followed by {@link #typeName(int)}
+     */
+    public static final String RX_BYTES = "rx.bytes.";
+    /**
+     * Round trip time of TIME probes, which are sent along with the heartbeats
+     */
+    public static final String RTT = "net.rtt";
+    /**
+     * Health of the connection from 0 to 100, see {@link org.arpnetwork.arpclient.protocol.HeartbeatMonitor}
+     */
+    public static final String NET_HEALTH = "net.health";
+    /**
+     * Percentage of the recent heartbeat probes lost
+     */
+    public static final String NET_LOSS = "net.loss";
+
+    public static final String VIDEO_QUEUE_DEPTH = "video.queue_depth";
+    public static final String VIDEO_DROPPED = "video.dropped";
+    public static final String VIDEO_LATE = "video.late";
+    /**
+     * Arrival jitter of video packets
+     */
+    public static final String VIDEO_JITTER = "video.jitter";
+    /**
+     * Quality of the stream, see {@link org.arpnetwork.arpclient.data.Quality}
+     */
+    public static final String VIDEO_QUALITY = "video.quality";
+    /**
+     * Quality changes requested by adaptive quality
+     */
+    public static final String VIDEO_QUALITY_CHANGES = "video.quality_changes";
+    /**
+     * Time from queueing an input buffer to its output buffer being available
+     */
+    public static final String VIDEO_DECODE_LATENCY = "video.decode_latency";
+    /**
+     * Time from a size change to the first frame of the new size
+     */
+    public static final String VIDEO_SWITCH_TIME = "video.switch_time";
+    /**
+     * Time between the last frame of the old size and the first frame of the new size
+     */
+    public static final String VIDEO_SWITCH_GAP = "video.switch_gap";
+
+    public static final String AUDIO_QUEUE_DEPTH = "audio.queue_depth";
+    public static final String AUDIO_DROPPED = "audio.dropped";
+    public static final String AUDIO_DECODE_LATENCY = "audio.decode_latency";
+
+    public static final String TOUCH_EVENTS = "touch.events";
+    public static final String TOUCH_MESSAGES = "touch.messages";
+    public static final String TOUCH_LATENCY = "touch.latency";
+
+    /**
+     * State of the session, see {@link org.arpnetwork.arpclient.session.SessionState}
+     */
+    public static final String SESSION_STATE = "session.state";
+    public static final String RECONNECTS = "session.reconnects";
+    /**
+     * Automatic reconnect attempts after losing the connection
+     */
+    public static final String RECONNECT_ATTEMPTS = "session.reconnect_attempts";
+    /**
+     * Lost connections recovered by automatic reconnects
+     */
+    public static final String RECONNECT_RECOVERED = "session.reconnect_recovered";
+    /**
+     * Lost connections given up on, success rate is recovered over recovered plus failed
+     */
+    public static final String RECONNECT_FAILED = "session.reconnect_failed";
+    /**
+     * Time from losing the connection to being connected again
+     */
+    public static final String RECONNECT_TIME = "session.time_to_recover";
+
+    private Metrics() {
+    }
+
+    /**
+     * @param type see {@link Message}
+     * @return name of message type in metric names
+     */
+    public static String typeName(int type) {
+        switch (type) {
+            case Message.HEARTBEAT:
+                return "heartbeat";
+            case Message.VIDEO:
+                return "video";
+            case Message.AUDIO:
+                return "audio";
+            case Message.TOUCH:
+                return "touch";
+            case Message.PROTOCOL:
+                return "protocol";
+            case Message.TIME:
+                return "time";
+            case Message.KEY:
+                return "key";
+            default:
+                return String.valueOf(type);
+        }
+    }
+}
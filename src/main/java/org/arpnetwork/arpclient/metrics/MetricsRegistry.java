@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named counters, gauges and histograms of a session.
+ * Metrics are registered once and updated without locks,
+ * snapshots only read them and never block the threads updating them.
+ */
+public class MetricsRegistry {
+    private final ConcurrentMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> mGauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> mHistograms = new ConcurrentHashMap<>();
+
+    /**
+     * @param name metric name, see {@link Metrics}
+     * @return counter of the name, created if absent
+     */
+    public Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            Counter existing = mCounters.putIfAbsent(name, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @param name metric name, see {@link Metrics}
+     * @return histogram of the name, created if absent
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = mHistograms.putIfAbsent(name, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Register a gauge, replacing any of the same name.
+     *
+     * @param name  metric name, see {@link Metrics}
+     * @param gauge value source
+     */
+    public void gauge(String name, Gauge gauge) {
+        mGauges.put(name, gauge);
+    }
+
+    /**
+     * @return current values of all metrics
+     */
+    public MetricsSnapshot snapshot() {
+        TreeMap<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+
+        TreeMap<String, HistogramSnapshot> histograms = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : mHistograms.entrySet()) {
+            histograms.put(entry.getKey(), new HistogramSnapshot(entry.getValue()));
+        }
+        return new MetricsSnapshot(values, histograms);
+    }
+}
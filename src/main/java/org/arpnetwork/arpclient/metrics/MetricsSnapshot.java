@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Values of all metrics at one point in time, sorted by name.
+ */
+public class MetricsSnapshot {
+    private final Map<String, Long> mValues;
+    private final Map<String, HistogramSnapshot> mHistograms;
+
+    MetricsSnapshot(TreeMap<String, Long> values, TreeMap<String, HistogramSnapshot> histograms) {
+        mValues = Collections.unmodifiableMap(values);
+        mHistograms = Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * @return counter and gauge values by name
+     */
+    public Map<String, Long> getValues() {
+        return mValues;
+    }
+
+    /**
+     * @return histogram summaries by name
+     */
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return mHistograms;
+    }
+
+    /**
+     * @param name counter or gauge name, see {@link Metrics}
+     * @return value, 0 if unknown
+     */
+    public long getValue(String name) {
+        Long value = mValues.get(name);
+        return value != null ? value : 0;
+    }
+
+    /**
+     * @param name histogram name, see {@link Metrics}
+     * @return summary, null if unknown
+     */
+    public HistogramSnapshot getHistogram(String name) {
+        return mHistograms.get(name);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> entry : mValues.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, HistogramSnapshot> entry : mHistograms.entrySet()) {
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+}
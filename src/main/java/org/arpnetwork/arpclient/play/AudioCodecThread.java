@@ -16,15 +16,14 @@
 
 package org.arpnetwork.arpclient.play;
 
-import android.media.AudioFormat;
-import android.media.AudioManager;
-import android.media.AudioTrack;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
 import android.support.annotation.RequiresApi;
 
+import org.arpnetwork.arpclient.protocol.ClockSync;
+
 import java.nio.ByteBuffer;
 
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN)
@@ -32,14 +31,39 @@ public class AudioCodecThread extends MediaCodecThread {
 
     private static final String MIME_TYPE = "audio/mp4a-latm"; // AAC
     private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
     private static final int CAPACITY = 10;
+    private static final int BYTES_PER_FRAME = 4; // 16 bit stereo
+
+    private AudioSink.Factory mAudioSinkFactory = AudioTrackSink.FACTORY;
+    private AudioSink mAudioSink;
+    private int mSampleRate = SAMPLE_RATE;
+    private long mFramesWritten;
 
-    private AudioTrack mAudioTrack;
+    private PlaybackClock mPlaybackClock;
 
     public AudioCodecThread() {
         super(CAPACITY);
     }
 
+    /**
+     * Set factory of audio sinks before start, {@link android.media.AudioTrack} by default.
+     *
+     * @param audioSinkFactory Audio sink factory
+     */
+    void setAudioSinkFactory(AudioSink.Factory audioSinkFactory) {
+        mAudioSinkFactory = audioSinkFactory;
+    }
+
+    /**
+     * Set playback clock driven by audio position.
+     *
+     * @param playbackClock Clock shared with video
+     */
+    public void setPlaybackClock(PlaybackClock playbackClock) {
+        mPlaybackClock = playbackClock;
+    }
+
     @Override
     protected String mimeType() {
         return MIME_TYPE;
@@ -47,46 +71,51 @@ public class AudioCodecThread extends MediaCodecThread {
 
     @Override
     protected MediaFormat createMediaFormat() {
-        return makeAACCodecSpecificData(MediaCodecInfo.CodecProfileLevel.AACObjectLC, SAMPLE_RATE, 2);
+        return makeAACCodecSpecificData(MediaCodecInfo.CodecProfileLevel.AACObjectLC, SAMPLE_RATE, CHANNEL_COUNT);
     }
 
     @Override
     protected void onStart() {
-        int bufferSize = AudioTrack.getMinBufferSize(
-                SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
-        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
-                SAMPLE_RATE,
-                AudioFormat.CHANNEL_OUT_STEREO,
-                AudioFormat.ENCODING_PCM_16BIT,
-                bufferSize,
-                AudioTrack.MODE_STREAM);
-        setAudioTrackVolume(mAudioTrack, 1.0f);
-        mAudioTrack.play();
+        mAudioSink = mAudioSinkFactory.create(SAMPLE_RATE, CHANNEL_COUNT);
+        mAudioSink.play();
+        mFramesWritten = 0;
     }
 
     @Override
     protected void onStop() {
-        mAudioTrack.stop();
-        mAudioTrack.release();
-        mAudioTrack = null;
+        mAudioSink.release();
+        mAudioSink = null;
     }
 
     @Override
     protected void onFormatChanged(MediaFormat mediaFormat) {
-        mAudioTrack.setPlaybackRate(mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE));
+        mSampleRate = mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        mAudioSink.setPlaybackRate(mSampleRate);
     }
 
     @Override
     protected boolean onRender(MediaCodec.BufferInfo info, ByteBuffer buffer) {
-        final byte[] chunk = new byte[info.size];
-        buffer.get(chunk); // Read the buffer all at once
-        buffer.clear();    // ** MUST DO!!! OTHERWISE THE NEXT TIME YOU GET THIS SAME BUFFER BAD THINGS WILL HAPPEN
-
-        mAudioTrack.write(chunk, info.offset, info.offset + info.size); // AudioTrack write data
+        buffer.limit(info.offset + info.size);
+        buffer.position(info.offset);
+        mAudioSink.write(buffer);
+        buffer.clear();
 
+        updatePlaybackClock(info);
         return true;
     }
 
+    private void updatePlaybackClock(MediaCodec.BufferInfo info) {
+        int frames = info.size / BYTES_PER_FRAME;
+        mFramesWritten += frames;
+
+        if (mPlaybackClock != null) {
+            long played = mAudioSink.getPlaybackHeadPosition();
+            long pending = Math.max(mFramesWritten - played, 0);
+            long endPts = info.presentationTimeUs + frames * 1000000L / mSampleRate;
+            mPlaybackClock.updateAudioPosition(endPts - pending * 1000000L / mSampleRate, ClockSync.now());
+        }
+    }
+
     /**
      * The code profile, Sample rate, channel Count is used to
      * produce the AAC Codec SpecificData.
@@ -135,13 +164,4 @@ public class AudioCodecThread extends MediaCodecThread {
 
         return format;
     }
-
-    @SuppressWarnings("deprecation")
-    private static void setAudioTrackVolume(AudioTrack audioTrack, float volume) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            audioTrack.setVolume(volume);
-        } else {
-            audioTrack.setStereoVolume(volume, volume);
-        }
-    }
 }
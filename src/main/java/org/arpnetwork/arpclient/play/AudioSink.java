@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Output of decoded PCM audio, 16 bit interleaved.
+ */
+interface AudioSink {
+    interface Factory {
+        /**
+         * @param sampleRate   Sample rate in Hz
+         * @param channelCount Channel count
+         * @return New sink, not playing yet
+         */
+        AudioSink create(int sampleRate, int channelCount);
+    }
+
+    void play();
+
+    /**
+     * Write PCM data, blocking until all is written.
+     *
+     * @param buffer PCM data from position to limit
+     * @return Bytes written, or a negative error code
+     */
+    int write(ByteBuffer buffer);
+
+    /**
+     * @return Frames played since play
+     */
+    long getPlaybackHeadPosition();
+
+    void setPlaybackRate(int sampleRate);
+
+    /**
+     * Stop playing and release resources.
+     */
+    void release();
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Audio sink backed by {@link AudioTrack}.
+ */
+class AudioTrackSink implements AudioSink {
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public AudioSink create(int sampleRate, int channelCount) {
+            return new AudioTrackSink(sampleRate, channelCount);
+        }
+    };
+
+    private AudioTrack mAudioTrack;
+
+    AudioTrackSink(int sampleRate, int channelCount) {
+        int channelConfig = channelCount == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int bufferSize = AudioTrack.getMinBufferSize(
+                sampleRate, channelConfig, AudioFormat.ENCODING_PCM_16BIT);
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
+                sampleRate,
+                channelConfig,
+                AudioFormat.ENCODING_PCM_16BIT,
+                bufferSize,
+                AudioTrack.MODE_STREAM);
+        mAudioTrack.setVolume(1.0f);
+    }
+
+    @Override
+    public void play() {
+        mAudioTrack.play();
+    }
+
+    @Override
+    public int write(ByteBuffer buffer) {
+        return mAudioTrack.write(buffer, buffer.remaining(), AudioTrack.WRITE_BLOCKING);
+    }
+
+    @Override
+    public long getPlaybackHeadPosition() {
+        // head position is an unsigned 32-bit frame count
+        return mAudioTrack.getPlaybackHeadPosition() & 0xffffffffL;
+    }
+
+    @Override
+    public void setPlaybackRate(int sampleRate) {
+        mAudioTrack.setPlaybackRate(sampleRate);
+    }
+
+    @Override
+    public void release() {
+        mAudioTrack.stop();
+        mAudioTrack.release();
+        mAudioTrack = null;
+    }
+}
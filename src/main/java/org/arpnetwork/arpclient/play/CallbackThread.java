@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import android.os.Handler;
+
+/**
+ * Thread running the callbacks of a decoder in {@link DecodeMode#ASYNC},
+ * a {@link android.os.HandlerThread} on device.
+ * Tasks run one at a time in the order posted.
+ */
+interface CallbackThread {
+    interface Factory {
+        /**
+         * @param name Thread name
+         * @return New started thread
+         */
+        CallbackThread create(String name);
+    }
+
+    /**
+     * @return Handler of the thread, null if it has no looper
+     */
+    Handler getHandler();
+
+    void post(Runnable task);
+
+    void postDelayed(Runnable task, long delayMillis);
+
+    /**
+     * Remove pending posts of the task.
+     */
+    void removeCallbacks(Runnable task);
+
+    /**
+     * Drop pending tasks and wait for the thread to end.
+     */
+    void quit();
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+/**
+ * How much of the video stream is decoded, lowered for sessions in the background
+ * The default priority is full
+ */
+public class DecodePriority {
+    /**
+     * Every frame is decoded and rendered.
+     */
+    public static final int FULL = 0;
+
+    /**
+     * Non-reference frames are dropped and at most {@link #REDUCED_FPS} frames rendered.
+     */
+    public static final int REDUCED = 1;
+
+    /**
+     * Only key frames are decoded, the picture is refreshed once per group of pictures.
+     */
+    public static final int KEY_FRAMES = 2;
+
+    /**
+     * No decoder is held and video packets are dropped.
+     * Decoding starts over from the next key frame once the priority is raised.
+     */
+    public static final int NONE = 3;
+
+    public static final int REDUCED_FPS = 10;
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers when each pts was queued to the decoder, to measure decode latency
+ * when its output comes out on another thread. Slots are picked by hashing the pts
+ * and only get overwritten by a later frame, long after the decoder gave the earlier one back.
+ */
+class DecodeTimer {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    // pts and queue time of each slot
+    private final AtomicLongArray mPts = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray mTimes = new AtomicLongArray(SLOTS);
+
+    DecodeTimer() {
+        reset();
+    }
+
+    /**
+     * @param pts  pts of the queued input
+     * @param time local time in microseconds
+     */
+    void onQueued(long pts, long time) {
+        int slot = slotOf(pts);
+        mTimes.set(slot, time);
+        mPts.set(slot, pts);
+    }
+
+    /**
+     * @param pts  pts of the output
+     * @param time local time in microseconds
+     * @return time since the pts was queued, -1 if unknown or already measured
+     */
+    long onDecoded(long pts, long time) {
+        int slot = slotOf(pts);
+        long queueTime = mTimes.get(slot);
+        if (!mPts.compareAndSet(slot, pts, EMPTY)) {
+            return -1;
+        }
+        return time - queueTime;
+    }
+
+    void reset() {
+        for (int i = 0; i < SLOTS; i++) {
+            mPts.set(i, EMPTY);
+        }
+    }
+
+    private static int slotOf(long pts) {
+        int hash = (int) (pts ^ (pts >>> 32));
+        return (hash * 0x9e3779b9) >>> (32 - SLOT_BITS);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The part of {@link MediaCodec} used by {@link MediaCodecThread},
+ * so the decode pipeline can run with other implementations off-device.
+ * Return values and INFO_* codes follow MediaCodec.
+ */
+interface Decoder {
+    interface Factory {
+        /**
+         * @param mimeType Mime type of the stream
+         * @return New decoder
+         * @throws IOException if no decoder for the type
+         */
+        Decoder create(String mimeType) throws IOException;
+
+        /**
+         * @return true if the decoders support {@link #setCallback}
+         */
+        boolean supportsCallback();
+    }
+
+    interface Callback {
+        void onInputBufferAvailable(int index);
+
+        void onOutputBufferAvailable(int index, MediaCodec.BufferInfo info);
+
+        void onOutputFormatChanged(MediaFormat format);
+
+        void onError(Exception e);
+    }
+
+    /**
+     * Switch to async mode, must be called before configure.
+     *
+     * @param callback Callback for buffer events
+     * @param thread   Thread to call back on
+     */
+    void setCallback(Callback callback, CallbackThread thread);
+
+    void configure(MediaFormat format, Surface surface);
+
+    void start();
+
+    void stop();
+
+    void release();
+
+    int dequeueInputBuffer(long timeoutUs);
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index, boolean render);
+
+    void releaseOutputBuffer(int index, long renderTimestampNs);
+
+    MediaFormat getOutputFormat();
+
+    /**
+     * @param maxWidth  largest width the stream may switch to
+     * @param maxHeight largest height the stream may switch to
+     * @return true if the decoder follows resolution changes of the stream in place,
+     * when configured with these as {@link MediaFormat#KEY_MAX_WIDTH} and
+     * {@link MediaFormat#KEY_MAX_HEIGHT}
+     */
+    boolean supportsAdaptivePlayback(int maxWidth, int maxHeight);
+}
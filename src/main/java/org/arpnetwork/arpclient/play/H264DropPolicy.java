@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import org.arpnetwork.arpclient.data.AVPacket;
+import org.arpnetwork.arpclient.util.SpscRingBuffer;
+
+/**
+ * Drop H.264 frames without breaking the reference chain.
+ * When the backlog exceeds the budget, skip to the next IDR frame if one is queued,
+ * otherwise drop only non-reference frames and let the decoder catch up.
+ * A lowered priority drops non-reference frames, or all but key frames, regardless of the backlog.
+ */
+class H264DropPolicy extends PacketDropPolicy {
+    private boolean mSkipToKeyFrame;
+    private volatile int mPriority = DecodePriority.FULL;
+
+    H264DropPolicy(int budget) {
+        super(budget);
+    }
+
+    @Override
+    synchronized void setPriority(int priority) {
+        if (mPriority == DecodePriority.KEY_FRAMES && priority != DecodePriority.KEY_FRAMES) {
+            // frames after the last key frame refer to ones never decoded
+            requestKeyFrame();
+        }
+        mPriority = priority;
+    }
+
+    @Override
+    boolean shouldDrop(AVPacket packet, SpscRingBuffer<AVPacket> backlog) {
+        if (takeKeyFrameRequest()) {
+            mSkipToKeyFrame = true;
+        }
+
+        int frameType = NalUnit.getFrameType(packet.data);
+        if (frameType == NalUnit.FRAME_UNKNOWN) {
+            return super.shouldDrop(packet, backlog);
+        }
+
+        // parameter sets are needed by the next key frame
+        if (frameType == NalUnit.FRAME_CONFIG) {
+            return false;
+        }
+
+        if (mSkipToKeyFrame) {
+            if (frameType == NalUnit.FRAME_KEY) {
+                mSkipToKeyFrame = false;
+                return false;
+            }
+            drop(REASON_SKIP_TO_KEY_FRAME);
+            return true;
+        }
+
+        int priority = mPriority;
+        if ((priority == DecodePriority.KEY_FRAMES && frameType != NalUnit.FRAME_KEY)
+                || (priority == DecodePriority.REDUCED && frameType == NalUnit.FRAME_NON_REFERENCE)) {
+            drop(REASON_PRIORITY);
+            return true;
+        }
+
+        if (backlog.size() <= mBudget) {
+            return false;
+        }
+
+        if (frameType != NalUnit.FRAME_KEY && hasKeyFrame(backlog)) {
+            mSkipToKeyFrame = true;
+            drop(REASON_SKIP_TO_KEY_FRAME);
+            return true;
+        }
+
+        if (frameType == NalUnit.FRAME_NON_REFERENCE) {
+            drop(REASON_NON_REFERENCE);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    void reset() {
+        mSkipToKeyFrame = false;
+    }
+
+    private static boolean hasKeyFrame(SpscRingBuffer<AVPacket> backlog) {
+        AVPacket packet;
+        for (int i = 0; (packet = backlog.peek(i)) != null; i++) {
+            if (NalUnit.getFrameType(packet.data) == NalUnit.FRAME_KEY) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Callback thread backed by a {@link HandlerThread}.
+ */
+class HandlerCallbackThread implements CallbackThread {
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public CallbackThread create(String name) {
+            return new HandlerCallbackThread(name);
+        }
+    };
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    HandlerCallbackThread(String name) {
+        mThread = new HandlerThread(name);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @Override
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        mHandler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+
+    @Override
+    public void quit() {
+        mThread.quit();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+        }
+    }
+}
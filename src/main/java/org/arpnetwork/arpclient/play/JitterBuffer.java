@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+/**
+ * Schedule video frames to absorb network jitter with as little delay as possible.
+ * <p>
+ * The transit time of a frame is its arrival time minus its pts. The smallest
+ * transit in the recent window is the base delay of the path, frames are rendered
+ * at pts + base transit + target delay. The target follows the inter-arrival jitter
+ * (RFC 3550), rising at once when jitter grows and falling slowly, and is capped to
+ * a few frames for interactive use.
+ * All times are in microseconds on the local clock.
+ */
+public class JitterBuffer {
+    private static final int DEFAULT_MAX_DELAY_FRAMES = 2;
+    private static final int JITTER_FACTOR = 3;
+    private static final int DECAY = 32;
+    private static final int WINDOW = 90;
+    private static final long DEFAULT_FRAME_INTERVAL = 33333;
+
+    private final int mMaxDelayFrames;
+    private final long[] mTransits = new long[WINDOW];
+    private int mTransitCount;
+    private int mTransitIndex;
+
+    private long mLastPts;
+    private long mLastTransit;
+    private long mFrameInterval = DEFAULT_FRAME_INTERVAL;
+    private long mJitter;
+
+    private volatile long mBaseTransit;
+    private volatile long mTargetDelay;
+    private volatile boolean mStarted;
+
+    public JitterBuffer() {
+        this(DEFAULT_MAX_DELAY_FRAMES);
+    }
+
+    /**
+     * @param maxDelayFrames Upper bound of target delay in frame intervals
+     */
+    public JitterBuffer(int maxDelayFrames) {
+        mMaxDelayFrames = maxDelayFrames;
+    }
+
+    /**
+     * Called by the socket thread for each video packet.
+     *
+     * @param pts         Packet pts
+     * @param arrivalTime Local arrival time
+     */
+    public synchronized void onPacketArrived(long pts, long arrivalTime) {
+        long transit = arrivalTime - pts;
+
+        if (mStarted) {
+            long ptsDelta = pts - mLastPts;
+            if (ptsDelta > 0) {
+                mFrameInterval += (ptsDelta - mFrameInterval) / 16;
+            }
+            long d = Math.abs(transit - mLastTransit);
+            mJitter += (d - mJitter) / 16;
+        }
+        mLastPts = pts;
+        mLastTransit = transit;
+
+        mBaseTransit = addTransit(transit);
+
+        long target = Math.min(JITTER_FACTOR * mJitter, mMaxDelayFrames * mFrameInterval);
+        long current = mTargetDelay;
+        mTargetDelay = target > current ? target : current - (current - target) / DECAY;
+        mStarted = true;
+    }
+
+    /**
+     * @return true once a packet arrived
+     */
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * Called by the render thread for each decoded frame.
+     *
+     * @param pts Frame pts
+     * @return Local time to render the frame, or -1 before any packet arrived
+     */
+    public long getRenderTime(long pts) {
+        if (!mStarted) {
+            return -1;
+        }
+        return pts + mBaseTransit + mTargetDelay;
+    }
+
+    /**
+     * @return Current target delay beyond the base transit
+     */
+    public long getTargetDelay() {
+        return mTargetDelay;
+    }
+
+    /**
+     * @return Smoothed inter-arrival jitter
+     */
+    public synchronized long getJitter() {
+        return mJitter;
+    }
+
+    /**
+     * @return Smoothed frame interval
+     */
+    public synchronized long getFrameInterval() {
+        return mFrameInterval;
+    }
+
+    /**
+     * Forget all history, such as after the stream restarts.
+     */
+    public synchronized void reset() {
+        mStarted = false;
+        mTransitCount = 0;
+        mTransitIndex = 0;
+        mFrameInterval = DEFAULT_FRAME_INTERVAL;
+        mJitter = 0;
+        mBaseTransit = 0;
+        mTargetDelay = 0;
+    }
+
+    private long addTransit(long transit) {
+        mTransits[mTransitIndex] = transit;
+        mTransitIndex = (mTransitIndex + 1) % WINDOW;
+        if (mTransitCount < WINDOW) {
+            mTransitCount++;
+        }
+
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < mTransitCount; i++) {
+            min = Math.min(min, mTransits[i]);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.RequiresApi;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decoder backed by {@link MediaCodec}.
+ */
+class MediaCodecDecoder implements Decoder {
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public Decoder create(String mimeType) throws IOException {
+            return new MediaCodecDecoder(MediaCodec.createDecoderByType(mimeType), mimeType);
+        }
+
+        @Override
+        public boolean supportsCallback() {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        }
+    };
+
+    private final MediaCodec mMediaCodec;
+    private final String mMimeType;
+
+    MediaCodecDecoder(MediaCodec mediaCodec, String mimeType) {
+        mMediaCodec = mediaCodec;
+        mMimeType = mimeType;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    @Override
+    public void setCallback(final Callback callback, CallbackThread thread) {
+        mMediaCodec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                callback.onInputBufferAvailable(index);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index,
+                                                @NonNull MediaCodec.BufferInfo info) {
+                callback.onOutputBufferAvailable(index, info);
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+                callback.onError(e);
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+                callback.onOutputFormatChanged(format);
+            }
+        }, thread.getHandler());
+    }
+
+    @Override
+    public void configure(MediaFormat format, Surface surface) {
+        mMediaCodec.configure(format, surface, null, 0);
+    }
+
+    @Override
+    public void start() {
+        mMediaCodec.start();
+    }
+
+    @Override
+    public void stop() {
+        mMediaCodec.stop();
+    }
+
+    @Override
+    public void release() {
+        mMediaCodec.release();
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return mMediaCodec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mMediaCodec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        mMediaCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs) {
+        return mMediaCodec.dequeueOutputBuffer(info, timeoutUs);
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return mMediaCodec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        mMediaCodec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        mMediaCodec.releaseOutputBuffer(index, renderTimestampNs);
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return mMediaCodec.getOutputFormat();
+    }
+
+    @Override
+    public boolean supportsAdaptivePlayback(int maxWidth, int maxHeight) {
+        try {
+            MediaCodecInfo.CodecCapabilities capabilities =
+                    mMediaCodec.getCodecInfo().getCapabilitiesForType(mMimeType);
+            MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
+            return capabilities.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_AdaptivePlayback)
+                    && videoCapabilities != null
+                    && videoCapabilities.isSizeSupported(maxWidth, maxHeight);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
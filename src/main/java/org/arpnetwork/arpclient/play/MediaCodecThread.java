@@ -18,39 +18,86 @@ package org.arpnetwork.arpclient.play;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
 import android.util.Log;
 import android.view.Surface;
 
 import org.arpnetwork.arpclient.data.AVPacket;
 import org.arpnetwork.arpclient.data.ErrorInfo;
+import org.arpnetwork.arpclient.metrics.LatencyHistogram;
+import org.arpnetwork.arpclient.protocol.ClockSync;
+import org.arpnetwork.arpclient.util.SpscRingBuffer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 abstract class MediaCodecThread implements Runnable {
     private static final String TAG = MediaCodecThread.class.getSimpleName();
     private static final int MAX_PACKETS = 15;
+    private static final long MAX_HOLD_TIME = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Render time meaning the output buffer should be dropped.
+     */
+    protected static final long DROP_FRAME = Long.MIN_VALUE;
+    /**
+     * Render time meaning the output buffer is not rendered by choice, not counted as late.
+     */
+    protected static final long SKIP_FRAME = Long.MIN_VALUE + 1;
 
     private Thread mCodecThread;
-    private MediaCodec mMediaCodec;
+    private Decoder.Factory mDecoderFactory = MediaCodecDecoder.FACTORY;
+    private CallbackThread.Factory mCallbackThreadFactory = HandlerCallbackThread.FACTORY;
+    private Decoder mDecoder;
+    // created ahead of start, guarded by this
+    private Decoder mPreparedDecoder;
+    private boolean mReleased;
     private RenderThread mRenderThread;
+    private AsyncEngine mAsyncEngine;
 
-    private int mPacketQueueCapacity;
-    private boolean mStopped;
+    private int mDecodeMode = DecodeMode.SYNC;
+    private PacketDropPolicy mDropPolicy;
+    private volatile boolean mStopped;
+    private volatile boolean mPutting;
+    // packets are queued while stopped, until started
+    private volatile boolean mHolding;
 
-    private LinkedBlockingQueue<AVPacket> mPacketQueue = new LinkedBlockingQueue<AVPacket>();
+    // filled by the socket thread only, drained by the codec thread only
+    private SpscRingBuffer<AVPacket> mPacketQueue;
     private MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
 
-    private boolean mFirstRendered = false;
-    private MediaPlayer.MediaPlayerListener mListener;
+    private AtomicLong mLateFrames = new AtomicLong();
+    private DecodeTimer mDecodeTimer = new DecodeTimer();
+    private LatencyHistogram mDecodeLatency;
+
+    private volatile boolean mFirstRendered = false;
+    private volatile int mDecodePriority = DecodePriority.FULL;
+    private volatile MediaPlayer.MediaPlayerListener mListener;
 
     public MediaCodecThread() {
         this(MAX_PACKETS);
     }
 
+    /**
+     * @param capacity Packets kept for codec, older packets are dropped when exceeded
+     */
     public MediaCodecThread(int capacity) {
-        mPacketQueueCapacity = capacity;
+        this(capacity, new PacketDropPolicy(capacity));
+    }
+
+    /**
+     * @param capacity   Packets kept for codec before dropping
+     * @param dropPolicy Policy to choose packets to drop
+     */
+    public MediaCodecThread(int capacity, PacketDropPolicy dropPolicy) {
+        mDropPolicy = dropPolicy;
+        // leave room for bursts, the codec thread drains down to capacity
+        mPacketQueue = new SpscRingBuffer<>(capacity * 2);
         mCodecThread = new Thread(this);
         mStopped = true;
     }
@@ -59,28 +106,114 @@ abstract class MediaCodecThread implements Runnable {
         mListener = listener;
     }
 
+    /**
+     * Set factory of decoders before start, {@link MediaCodec} by default.
+     *
+     * @param decoderFactory Decoder factory
+     */
+    void setDecoderFactory(Decoder.Factory decoderFactory) {
+        mDecoderFactory = decoderFactory;
+    }
+
+    /**
+     * Set factory of the threads decoder callbacks run on before start,
+     * {@link HandlerCallbackThread} by default.
+     *
+     * @param callbackThreadFactory Callback thread factory
+     */
+    void setCallbackThreadFactory(CallbackThread.Factory callbackThreadFactory) {
+        mCallbackThreadFactory = callbackThreadFactory;
+    }
+
+    /**
+     * Set decode mode before start.
+     * Async mode needs Android M, decoders without callbacks always decode in sync mode.
+     *
+     * @param decodeMode see {@link DecodeMode}
+     */
+    public void setDecodeMode(int decodeMode) {
+        mDecodeMode = decodeMode;
+    }
+
+    /**
+     * Lower or restore how much of the stream is decoded, at any time.
+     *
+     * @param priority see {@link DecodePriority}
+     */
+    public void setDecodePriority(int priority) {
+        mDecodePriority = priority;
+        mDropPolicy.setPriority(priority);
+    }
+
+    /**
+     * @return see {@link DecodePriority}
+     */
+    protected int getDecodePriority() {
+        return mDecodePriority;
+    }
+
+    /**
+     * Set histogram to record the time from queueing each input to its output.
+     *
+     * @param histogram Decode latency histogram in microseconds
+     */
+    public void setDecodeLatencyHistogram(LatencyHistogram histogram) {
+        mDecodeLatency = histogram;
+    }
+
+    /**
+     * Create the decoder ahead of {@link #start(Surface)}, which then only configures it.
+     * Creating a decoder is slow, call off the socket and main threads.
+     */
+    public synchronized void prepare() {
+        if (mDecoder != null || mPreparedDecoder != null || mReleased) return;
+
+        try {
+            mPreparedDecoder = mDecoderFactory.create(mimeType());
+        } catch (IOException ignored) {
+        }
+    }
+
     public void start() {
         start(null);
     }
 
+    /**
+     * Queue packets put before {@link #start(Surface)} instead of dropping them,
+     * for a thread switched in while the previous one still lets go of the surface.
+     */
+    public void holdPackets() {
+        mHolding = true;
+    }
+
     /**
      * Start media codec thread
      *
      * @param surface For video render
      */
     public synchronized void start(Surface surface) {
-        if (mMediaCodec != null) return;
+        if (mDecoder != null) return;
 
+        mReleased = false;
+        mHolding = false;
+        if (mDecodeMode == DecodeMode.ASYNC && mDecoderFactory.supportsCallback()) {
+            mAsyncEngine = new AsyncEngine();
+        }
         initDecoder(surface);
 
-        if (mMediaCodec != null) {
+        if (mDecoder != null) {
             mStopped = false;
             onStart();
 
-            mRenderThread = new RenderThread();
-            mRenderThread.start();
+            if (mAsyncEngine == null) {
+                mRenderThread = new RenderThread();
+                mRenderThread.start();
 
-            mCodecThread.start();
+                mCodecThread.start();
+            }
+        } else if (mAsyncEngine != null) {
+            mAsyncEngine.quit();
+            mAsyncEngine = null;
         }
     }
 
@@ -88,49 +221,131 @@ abstract class MediaCodecThread implements Runnable {
      * Stop media codec thread
      */
     public synchronized void stop() {
+        mReleased = true;
+        mHolding = false;
+        if (mPreparedDecoder != null) {
+            mPreparedDecoder.release();
+            mPreparedDecoder = null;
+        }
         if (!mStopped) {
             mStopped = true;
-            mRenderThread.interrupt();
-            mCodecThread.interrupt();
-            try {
-                mRenderThread.join();
-                mCodecThread.join();
-            } catch (InterruptedException e) {
+            if (mAsyncEngine != null) {
+                mAsyncEngine.quit();
+            } else {
+                mRenderThread.interrupt();
+                mCodecThread.interrupt();
+                try {
+                    mRenderThread.join();
+                    mCodecThread.join();
+                } catch (InterruptedException e) {
+                }
+            }
+            // wait for the socket thread leaving putPacket, the queue is ours then
+            while (mPutting) {
+                Thread.yield();
             }
-            mPacketQueue.clear();
+            clearPacketQueue();
+            mDropPolicy.reset();
+            mDecodeTimer.reset();
             releaseDecoder();
 
             onStop();
+        } else {
+            // packets held for a start that never came
+            while (mPutting) {
+                Thread.yield();
+            }
+            clearPacketQueue();
         }
     }
 
     /**
      * Enqueue media packet for codec
+     * Must be called from one thread only.
      *
      * @param packet Media packet for codec
      */
-    public synchronized void putPacket(AVPacket packet) {
-        if (mMediaCodec != null) {
-            try {
-                mPacketQueue.put(packet);
-            } catch (InterruptedException e) {
+    public void putPacket(AVPacket packet) {
+        mPutting = true;
+        boolean stopped = mStopped && !mHolding;
+        boolean queued = !stopped && mPacketQueue.offer(packet);
+        if (queued && mAsyncEngine != null) {
+            mAsyncEngine.requestFeed();
+        }
+        mPutting = false;
+
+        if (!queued) {
+            if (!stopped) {
+                mDropPolicy.onQueueFull();
             }
+            packet.release();
         }
     }
 
+    /**
+     * Keep the decoder but skip to the next key frame, after the stream was interrupted.
+     * The first frame rendered afterwards is reported again.
+     */
+    public void requestKeyFrame() {
+        mDropPolicy.requestKeyFrame();
+        mFirstRendered = false;
+    }
+
+    /**
+     * @return true if started and not stopped since
+     */
+    synchronized boolean isStarted() {
+        return mDecoder != null;
+    }
+
+    /**
+     * Take over the screen from another thread without reporting the first frame again.
+     */
+    void setFirstRendered() {
+        mFirstRendered = true;
+    }
+
+    /**
+     * @param reason See {@link PacketDropPolicy}
+     * @return Count of packets dropped for the reason
+     */
+    long getDroppedCount(int reason) {
+        return mDropPolicy.getDroppedCount(reason);
+    }
+
+    /**
+     * @return Count of all dropped packets
+     */
+    public long getDroppedCount() {
+        return mDropPolicy.getDroppedCount();
+    }
+
+    /**
+     * @return Packets waiting for codec
+     */
+    public int getQueueDepth() {
+        return mPacketQueue.size();
+    }
+
+    /**
+     * @return Count of decoded frames dropped for being late
+     */
+    public long getLateFrameCount() {
+        return mLateFrames.get();
+    }
+
     @Override
     public void run() {
         while (!mStopped) {
             try {
                 AVPacket packet = mPacketQueue.take();
-                while (mPacketQueue.size() > mPacketQueueCapacity) {
-                    packet = mPacketQueue.take();
+                if (mDropPolicy.shouldDrop(packet, mPacketQueue)) {
+                    packet.release();
+                    continue;
                 }
 
                 queueInputBuffer(packet);
-                synchronized (mRenderThread) {
-                    mRenderThread.notify();
-                }
+                mRenderThread.onInputQueued();
             } catch (InterruptedException ignored) {
             } catch (Exception ignored) {
             }
@@ -141,6 +356,12 @@ abstract class MediaCodecThread implements Runnable {
 
     protected abstract MediaFormat createMediaFormat();
 
+    /**
+     * Called with a new decoder before it is configured with {@link #createMediaFormat()}.
+     */
+    protected void onDecoderCreated(Decoder decoder) {
+    }
+
     protected void onStart() {
     }
 
@@ -154,77 +375,181 @@ abstract class MediaCodecThread implements Runnable {
         return false;
     }
 
+    /**
+     * Get the time to render an output buffer, on the {@link System#nanoTime()} clock.
+     * Output buffers are held until then.
+     *
+     * @param info Output buffer info
+     * @return Render time in nanoseconds, or {@link #DROP_FRAME} if it is too late to render
+     */
+    protected long getRenderTime(MediaCodec.BufferInfo info) {
+        return System.nanoTime();
+    }
+
     private void releaseDecoder() {
         try {
-            if (mMediaCodec != null) {
-                mMediaCodec.stop();
-                mMediaCodec.release();
+            if (mDecoder != null) {
+                mDecoder.stop();
+                mDecoder.release();
             }
         } catch (IllegalStateException e) {
         } finally {
-            mMediaCodec = null;
+            mDecoder = null;
+            mAsyncEngine = null;
         }
     }
 
     private void initDecoder(Surface surface) {
-        try {
-            mMediaCodec = MediaCodec.createDecoderByType(mimeType());
-        } catch (IOException ignored) {
+        if (mPreparedDecoder != null) {
+            mDecoder = mPreparedDecoder;
+            mPreparedDecoder = null;
+        } else {
+            try {
+                mDecoder = mDecoderFactory.create(mimeType());
+            } catch (IOException ignored) {
+            }
         }
 
-        if (mMediaCodec != null) {
+        if (mDecoder != null) {
+            onDecoderCreated(mDecoder);
             MediaFormat mediaFormat = createMediaFormat();
             if (mediaFormat != null) {
-                mMediaCodec.configure(mediaFormat, surface, null, 0);
-                mMediaCodec.start();
+                if (mAsyncEngine != null) {
+                    // callbacks must be set before configure
+                    mAsyncEngine.attach(mDecoder);
+                }
+                mDecoder.configure(mediaFormat, surface);
+                mDecoder.start();
             }
         }
     }
 
+    private void clearPacketQueue() {
+        AVPacket packet;
+        while ((packet = mPacketQueue.poll()) != null) {
+            packet.release();
+        }
+    }
+
     private void queueInputBuffer(AVPacket packet) {
-        int inputBufferIndex = mMediaCodec.dequeueInputBuffer(-1);
+        int inputBufferIndex;
+        try {
+            inputBufferIndex = mDecoder.dequeueInputBuffer(-1);
+        } catch (RuntimeException e) {
+            packet.release();
+            throw e;
+        }
+
         if (inputBufferIndex >= 0) {
-            ByteBuffer inputBuffer = mMediaCodec.getInputBuffer(inputBufferIndex);
-            inputBuffer.clear();
-            inputBuffer.put(packet.data, 0, packet.size);
-            mMediaCodec.queueInputBuffer(inputBufferIndex, 0, packet.size, packet.pts, 0);
+            fillInputBuffer(inputBufferIndex, packet);
         } else {
+            packet.release();
             Log.e(TAG, "queueInputBuffer. inputBufferIndex = " + inputBufferIndex);
         }
     }
 
+    private void fillInputBuffer(int index, AVPacket packet) {
+        try {
+            ByteBuffer inputBuffer = mDecoder.getInputBuffer(index);
+            inputBuffer.clear();
+            inputBuffer.put(packet.data.nioBuffer());
+            if (mDecodeLatency != null) {
+                mDecodeTimer.onQueued(packet.pts, ClockSync.now());
+            }
+            mDecoder.queueInputBuffer(index, 0, packet.size, packet.pts, 0);
+        } finally {
+            packet.release();
+        }
+    }
+
     private boolean render() {
         while (!mStopped) {
             // Get output buffer index
             try {
-                int outputBufferIndex = mMediaCodec.dequeueOutputBuffer(mBufferInfo, 15);
+                int outputBufferIndex = mDecoder.dequeueOutputBuffer(mBufferInfo, 15);
                 if (outputBufferIndex >= 0) {
-                    ByteBuffer outputBuffer = mMediaCodec.getOutputBuffer(outputBufferIndex);
-                    boolean rendered = onRender(mBufferInfo, outputBuffer);
-                    mMediaCodec.releaseOutputBuffer(outputBufferIndex, !rendered);
-                    if (!mFirstRendered && mListener != null) {
-                        mListener.onFirstFrameShow();
-                        mFirstRendered = true;
-                    }
+                    recordDecodeLatency(mBufferInfo);
+                    long renderTime = waitForRenderTime(mBufferInfo);
+                    renderOutputBuffer(outputBufferIndex, mBufferInfo, renderTime);
                 } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    onFormatChanged(mMediaCodec.getOutputFormat());
+                    onFormatChanged(mDecoder.getOutputFormat());
                 }
             } catch (Exception e) {
-                if (mListener != null) {
-                    mListener.onError(ErrorInfo.ERROR_MEDIA, ErrorInfo.getErrorMessage(ErrorInfo.ERROR_MEDIA));
-                }
+                notifyError();
                 break;
             }
         }
         return true;
     }
 
+    private void recordDecodeLatency(MediaCodec.BufferInfo info) {
+        if (mDecodeLatency != null) {
+            mDecodeLatency.record(mDecodeTimer.onDecoded(info.presentationTimeUs, ClockSync.now()));
+        }
+    }
+
+    private long waitForRenderTime(MediaCodec.BufferInfo info) {
+        long renderTime = getRenderTime(info);
+        if (renderTime == DROP_FRAME || renderTime == SKIP_FRAME) {
+            return renderTime;
+        }
+
+        long now = System.nanoTime();
+        renderTime = Math.min(Math.max(renderTime, now), now + MAX_HOLD_TIME);
+        if (renderTime > now) {
+            LockSupport.parkNanos(renderTime - now);
+        }
+        return renderTime;
+    }
+
+    private void renderOutputBuffer(int index, MediaCodec.BufferInfo info, long renderTime) {
+        if (renderTime == DROP_FRAME || renderTime == SKIP_FRAME) {
+            mDecoder.releaseOutputBuffer(index, false);
+            if (renderTime == DROP_FRAME) {
+                mLateFrames.incrementAndGet();
+            }
+            return;
+        }
+
+        ByteBuffer outputBuffer = mDecoder.getOutputBuffer(index);
+        boolean rendered = onRender(info, outputBuffer);
+        if (rendered) {
+            mDecoder.releaseOutputBuffer(index, false);
+        } else {
+            mDecoder.releaseOutputBuffer(index, renderTime);
+        }
+        if (!mFirstRendered && mListener != null) {
+            mListener.onFirstFrameShow();
+            mFirstRendered = true;
+        }
+    }
+
+    private void notifyError() {
+        if (mListener != null) {
+            mListener.onError(ErrorInfo.ERROR_MEDIA, ErrorInfo.getErrorMessage(ErrorInfo.ERROR_MEDIA));
+        }
+    }
+
     private class RenderThread extends Thread {
+        private boolean mInputQueued;
+
+        /**
+         * Start rendering once the first input is queued, even if it was queued before waiting.
+         */
+        synchronized void onInputQueued() {
+            if (!mInputQueued) {
+                mInputQueued = true;
+                notify();
+            }
+        }
+
         @Override
         public void run() {
             synchronized (this) {
                 try {
-                    wait();
+                    while (!mInputQueued) {
+                        wait();
+                    }
                 } catch (InterruptedException e) {
                     return;
                 }
@@ -232,4 +557,164 @@ abstract class MediaCodecThread implements Runnable {
             render();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Decode with decoder callbacks on a dedicated {@link CallbackThread}.
+     * Free input buffers are filled from the packet queue as soon as either side is ready,
+     * output buffers wait on the callback thread for their render time instead of blocking it.
+     * All state except the feed request flag is confined to the callback thread.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    private class AsyncEngine implements Decoder.Callback {
+        private static final int MAX_BUFFERS = 32;
+
+        private final CallbackThread mThread;
+        private final AtomicBoolean mFeedRequested = new AtomicBoolean();
+
+        private final int[] mFreeInputs = new int[MAX_BUFFERS];
+        private int mFreeInputHead;
+        private int mFreeInputCount;
+
+        // held output buffers in render order
+        private final int[] mOutputIndexes = new int[MAX_BUFFERS];
+        private final long[] mOutputPts = new long[MAX_BUFFERS];
+        private final int[] mOutputSizes = new int[MAX_BUFFERS];
+        private final long[] mOutputRenderTimes = new long[MAX_BUFFERS];
+        private int mOutputHead;
+        private int mOutputCount;
+
+        private final Runnable mFeedRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mFeedRequested.set(false);
+                feed();
+            }
+        };
+
+        private final Runnable mReleaseRunnable = new Runnable() {
+            @Override
+            public void run() {
+                releaseDueOutputs();
+            }
+        };
+
+        AsyncEngine() {
+            mThread = mCallbackThreadFactory.create(mimeType());
+        }
+
+        void attach(Decoder decoder) {
+            decoder.setCallback(this, mThread);
+        }
+
+        /**
+         * Called by the socket thread after a packet was queued.
+         */
+        void requestFeed() {
+            if (mFeedRequested.compareAndSet(false, true)) {
+                mThread.post(mFeedRunnable);
+            }
+        }
+
+        void quit() {
+            mThread.quit();
+        }
+
+        @Override
+        public void onInputBufferAvailable(int index) {
+            if (mFreeInputCount < MAX_BUFFERS) {
+                mFreeInputs[(mFreeInputHead + mFreeInputCount) % MAX_BUFFERS] = index;
+                mFreeInputCount++;
+            }
+            feed();
+        }
+
+        @Override
+        public void onOutputBufferAvailable(int index, MediaCodec.BufferInfo info) {
+            if (mStopped) {
+                return;
+            }
+
+            recordDecodeLatency(info);
+            long renderTime = getRenderTime(info);
+            if (renderTime == DROP_FRAME || mOutputCount == MAX_BUFFERS) {
+                renderOutput(index, info, renderTime);
+                return;
+            }
+
+            long now = System.nanoTime();
+            renderTime = Math.min(Math.max(renderTime, now), now + MAX_HOLD_TIME);
+
+            int slot = (mOutputHead + mOutputCount) % MAX_BUFFERS;
+            mOutputIndexes[slot] = index;
+            mOutputPts[slot] = info.presentationTimeUs;
+            mOutputSizes[slot] = info.size;
+            mOutputRenderTimes[slot] = renderTime;
+            mOutputCount++;
+            releaseDueOutputs();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            Log.e(TAG, "onError", e);
+            notifyError();
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaFormat format) {
+            onFormatChanged(format);
+        }
+
+        private void feed() {
+            while (!mStopped && mFreeInputCount > 0) {
+                AVPacket packet = mPacketQueue.poll();
+                if (packet == null) {
+                    return;
+                }
+                if (mDropPolicy.shouldDrop(packet, mPacketQueue)) {
+                    packet.release();
+                    continue;
+                }
+
+                int index = mFreeInputs[mFreeInputHead];
+                mFreeInputHead = (mFreeInputHead + 1) % MAX_BUFFERS;
+                mFreeInputCount--;
+                try {
+                    fillInputBuffer(index, packet);
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "feed", e);
+                }
+            }
+        }
+
+        private void releaseDueOutputs() {
+            mThread.removeCallbacks(mReleaseRunnable);
+            long now = System.nanoTime();
+            while (mOutputCount > 0) {
+                long renderTime = mOutputRenderTimes[mOutputHead];
+                if (renderTime > now) {
+                    mThread.postDelayed(mReleaseRunnable, TimeUnit.NANOSECONDS.toMillis(renderTime - now));
+                    return;
+                }
+
+                mBufferInfo.offset = 0;
+                mBufferInfo.size = mOutputSizes[mOutputHead];
+                mBufferInfo.presentationTimeUs = mOutputPts[mOutputHead];
+                mBufferInfo.flags = 0;
+                renderOutput(mOutputIndexes[mOutputHead], mBufferInfo, renderTime);
+                mOutputHead = (mOutputHead + 1) % MAX_BUFFERS;
+                mOutputCount--;
+            }
+        }
+
+        private void renderOutput(int index, MediaCodec.BufferInfo info, long renderTime) {
+            if (mStopped) {
+                return;
+            }
+            try {
+                renderOutputBuffer(index, info, renderTime);
+            } catch (IllegalStateException e) {
+                notifyError();
+            }
+        }
+    }
+}
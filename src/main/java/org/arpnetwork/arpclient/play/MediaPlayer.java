@@ -20,19 +20,59 @@ import android.os.Handler;
 import android.view.Surface;
 
 import org.arpnetwork.arpclient.data.AVPacket;
+import org.arpnetwork.arpclient.metrics.Gauge;
+import org.arpnetwork.arpclient.metrics.Metrics;
+import org.arpnetwork.arpclient.metrics.MetricsRegistry;
+import org.arpnetwork.arpclient.protocol.ClockSync;
+import org.arpnetwork.arpclient.touch.InputLatencyTracker;
+import org.arpnetwork.arpclient.util.Teardown;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class MediaPlayer {
-    private VideoCodecThread mVideoThread;
-    private AudioCodecThread mAudioThread;
+    // creates replacement decoders off the socket thread, idle thread exits after a while
+    private static final Executor sPrepareExecutor = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "arp-decoder-prepare");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
-    private Surface mSurface;
+    private volatile VideoCodecThread mVideoThread;
+    private volatile AudioCodecThread mAudioThread;
+    // thread of a new size waiting for its first key frame, switched in on the socket thread
+    private volatile VideoCodecThread mPendingVideoThread;
+    // thread switched out, letting go of the surface on the prepare executor
+    private volatile VideoCodecThread mStoppingVideoThread;
+    // thread released for DecodePriority.NONE, until raised again
+    private VideoCodecThread mReleasedVideoThread;
+    private int mVideoWidth;
+    private int mVideoHeight;
+
+    private volatile Surface mSurface;
+    private ClockSync mClockSync;
+    private InputLatencyTracker mInputLatencyTracker;
+    private MetricsRegistry mMetrics = new MetricsRegistry();
+    private JitterBuffer mJitterBuffer;
+    private PlaybackClock mPlaybackClock;
 
     private Handler mHandler;
 
     private MediaPlayerListener mListener;
+    private int mDecodeMode = DecodeMode.SYNC;
+    private volatile int mDecodePriority = DecodePriority.FULL;
 
     public MediaPlayer() {
         mHandler = new Handler();
+        mJitterBuffer = new JitterBuffer();
+        mPlaybackClock = new PlaybackClock();
     }
 
     public interface MediaPlayerListener {
@@ -50,6 +90,138 @@ public class MediaPlayer {
         mSurface = surface;
     }
 
+    /**
+     * Set remote clock estimate to map packet pts to local time
+     *
+     * @param clockSync Remote clock estimate
+     */
+    public void setClockSync(ClockSync clockSync) {
+        mClockSync = clockSync;
+    }
+
+    /**
+     * Set tracker to match rendered frames with touch input
+     *
+     * @param tracker Input latency tracker
+     */
+    public void setInputLatencyTracker(InputLatencyTracker tracker) {
+        mInputLatencyTracker = tracker;
+    }
+
+    /**
+     * Set registry to report decoder metrics to, threads created afterwards report to it
+     *
+     * @param metrics Metrics registry
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        mMetrics = metrics;
+        metrics.gauge(Metrics.VIDEO_QUEUE_DEPTH, new Gauge() {
+            @Override
+            public long get() {
+                VideoCodecThread videoThread = mVideoThread;
+                return videoThread != null ? videoThread.getQueueDepth() : 0;
+            }
+        });
+        metrics.gauge(Metrics.VIDEO_DROPPED, new Gauge() {
+            @Override
+            public long get() {
+                VideoCodecThread videoThread = mVideoThread;
+                return videoThread != null ? videoThread.getDroppedCount() : 0;
+            }
+        });
+        metrics.gauge(Metrics.VIDEO_LATE, new Gauge() {
+            @Override
+            public long get() {
+                VideoCodecThread videoThread = mVideoThread;
+                return videoThread != null ? videoThread.getLateFrameCount() : 0;
+            }
+        });
+        metrics.gauge(Metrics.VIDEO_JITTER, new Gauge() {
+            @Override
+            public long get() {
+                return mJitterBuffer.getJitter();
+            }
+        });
+        metrics.gauge(Metrics.AUDIO_QUEUE_DEPTH, new Gauge() {
+            @Override
+            public long get() {
+                AudioCodecThread audioThread = mAudioThread;
+                return audioThread != null ? audioThread.getQueueDepth() : 0;
+            }
+        });
+        metrics.gauge(Metrics.AUDIO_DROPPED, new Gauge() {
+            @Override
+            public long get() {
+                AudioCodecThread audioThread = mAudioThread;
+                return audioThread != null ? audioThread.getDroppedCount() : 0;
+            }
+        });
+    }
+
+    /**
+     * @return Latency from capture to render of the last video frame in microseconds,
+     * -1 if unknown
+     */
+    public long getVideoLatency() {
+        VideoCodecThread videoThread = mVideoThread;
+        return videoThread != null ? videoThread.getLatency() : -1;
+    }
+
+    /**
+     * @return Video pts minus audio pts of the last rendered frame in microseconds,
+     * positive when video is ahead
+     */
+    public long getAVSkew() {
+        return mPlaybackClock.getSkew();
+    }
+
+    /**
+     * @return Jitter buffer scheduling video frames
+     */
+    public JitterBuffer getJitterBuffer() {
+        return mJitterBuffer;
+    }
+
+    /**
+     * Set decode mode for codec threads created afterwards
+     *
+     * @param decodeMode see {@link DecodeMode}
+     */
+    public void setDecodeMode(int decodeMode) {
+        mDecodeMode = decodeMode;
+    }
+
+    /**
+     * Lower or restore how much of the video is decoded, kept across size switches.
+     * The decoder is released at {@link DecodePriority#NONE} and created again once raised.
+     *
+     * @param priority see {@link DecodePriority}
+     */
+    public synchronized void setDecodePriority(int priority) {
+        int previous = mDecodePriority;
+        mDecodePriority = priority;
+        if (priority == DecodePriority.NONE) {
+            if (previous != DecodePriority.NONE) {
+                releaseVideoThread();
+            }
+            return;
+        }
+        if (previous == DecodePriority.NONE) {
+            // created with the priority
+            restoreVideoThread();
+            return;
+        }
+
+        VideoCodecThread videoThread = mVideoThread;
+        if (videoThread != null) {
+            videoThread.setDecodePriority(priority);
+        }
+        VideoCodecThread pendingVideoThread = mPendingVideoThread;
+        if (pendingVideoThread != null) {
+            pendingVideoThread.setDecodePriority(priority);
+        }
+    }
+
     /**
      * Init video decode thread with call back
      *
@@ -58,6 +230,30 @@ public class MediaPlayer {
     public void initThreadWithListener(MediaPlayerListener listener) {
         mListener = listener;
         mAudioThread = new AudioCodecThread();
+        mAudioThread.setDecodeMode(mDecodeMode);
+        mAudioThread.setPlaybackClock(mPlaybackClock);
+        mAudioThread.setDecodeLatencyHistogram(mMetrics.histogram(Metrics.AUDIO_DECODE_LATENCY));
+    }
+
+    /**
+     * Resume on a new connection with the decode threads of the previous one kept running.
+     * Timing restarts and video waits for the next key frame of the new stream.
+     *
+     * @param listener MediaPlayerListener
+     */
+    public void resume(MediaPlayerListener listener) {
+        mListener = listener;
+        mJitterBuffer.reset();
+        mPlaybackClock.reset();
+
+        VideoCodecThread videoThread = mVideoThread;
+        if (videoThread != null) {
+            videoThread.setListener(listener);
+            videoThread.requestKeyFrame();
+        }
+        if (mAudioThread == null) {
+            initThreadWithListener(listener);
+        }
     }
 
     /**
@@ -69,27 +265,41 @@ public class MediaPlayer {
 
     /**
      * Start video decode thread.
+     * During a size switch the new thread is started once the old one let go of the surface.
      */
     public void startVideo() {
-        if (mSurface != null && mVideoThread != null) {
-            mVideoThread.start(mSurface);
+        VideoCodecThread videoThread = mVideoThread;
+        if (mSurface != null && videoThread != null && mStoppingVideoThread == null) {
+            videoThread.start(mSurface);
         }
     }
 
     /**
-     * Stop video decode thread.
+     * Stop decode threads.
+     * They are detached right away, the blocking stop of them is added to teardown.
+     * Detached threads no longer report to the listener.
+     *
+     * @param teardown Teardown to stop the threads
      */
-    public void stop() {
-        if (mVideoThread != null) {
-            mVideoThread.stop();
-            mVideoThread = null;
-        }
+    public synchronized void stop(Teardown teardown) {
+        detachVideoThread(teardown);
+        dropPendingVideoThread();
+        mReleasedVideoThread = null;
 
-        if (mAudioThread != null) {
-            mAudioThread.stop();
+        final AudioCodecThread audioThread = mAudioThread;
+        if (audioThread != null) {
+            audioThread.setListener(null);
             mAudioThread = null;
+            teardown.add(new Runnable() {
+                @Override
+                public void run() {
+                    audioThread.stop();
+                }
+            });
         }
 
+        mJitterBuffer.reset();
+        mPlaybackClock.reset();
         mListener = null;
     }
 
@@ -106,38 +316,237 @@ public class MediaPlayer {
      * @param packet
      */
     public void putVideoPacket(AVPacket packet) {
-        mVideoThread.putPacket(packet);
+        if (mPendingVideoThread != null && isSwitchPoint(packet)) {
+            switchVideoThread();
+        }
+
+        VideoCodecThread videoThread = mVideoThread;
+        if (videoThread != null) {
+            mJitterBuffer.onPacketArrived(packet.pts, ClockSync.now());
+            videoThread.putPacket(packet);
+        } else {
+            packet.release();
+        }
     }
 
     public void putAudioPacket(AVPacket packet) {
-        mAudioThread.putPacket(packet);
+        AudioCodecThread audioThread = mAudioThread;
+        if (audioThread != null) {
+            audioThread.putPacket(packet);
+        } else {
+            packet.release();
+        }
     }
 
     /**
-     * Change video size setting.
+     * Change video size setting, called on the socket thread before the stream switches.
+     * The decoder follows in place if it supports adaptive playback up to the size.
+     * Otherwise a new decoder is created in the background and swapped in at the
+     * next key frame, while the current one keeps showing frames of the old size.
      *
      * @param videoW video width
      * @param videoH video height
      */
-    public void setVideoSize(final int videoW, final int videoH) {
-        if (mVideoThread == null) {
+    public synchronized void setVideoSize(final int videoW, final int videoH) {
+        mVideoWidth = videoW;
+        mVideoHeight = videoH;
+        if (mDecodePriority == DecodePriority.NONE) {
+            // created with the size once raised
+            return;
+        }
+
+        VideoCodecThread videoThread = mVideoThread;
+        if (videoThread == null) {
             initVideoThread(videoW, videoH);
-        } else {
-            if (videoW != mVideoThread.getWidth() || videoH != mVideoThread.getHeight()) {
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        mVideoThread.stop();
-                        initVideoThread(videoW, videoH);
-                    }
-                });
+            return;
+        }
+
+        VideoCodecThread pendingVideoThread = mPendingVideoThread;
+        if (pendingVideoThread != null) {
+            if (videoW == pendingVideoThread.getWidth() && videoH == pendingVideoThread.getHeight()) {
+                return;
             }
+            dropPendingVideoThread();
+        }
+        if (videoW == videoThread.getWidth() && videoH == videoThread.getHeight()
+                || videoThread.setVideoSize(videoW, videoH)) {
+            return;
+        }
+
+        final VideoCodecThread newVideoThread = createVideoThread(videoW, videoH);
+        newVideoThread.beginSwitch();
+        mPendingVideoThread = newVideoThread;
+        sPrepareExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                newVideoThread.prepare();
+            }
+        });
+    }
+
+    /**
+     * Config and key frames start the stream of a new size.
+     */
+    private static boolean isSwitchPoint(AVPacket packet) {
+        int frameType = NalUnit.getFrameType(packet.data);
+        return frameType == NalUnit.FRAME_KEY || frameType == NalUnit.FRAME_CONFIG;
+    }
+
+    /**
+     * Swap in the thread of the new size, packets go to it from now on and are held until
+     * it starts. The old decoder must let go of the surface first, which blocks on its threads,
+     * so the handoff is done on the prepare executor rather than the shared socket thread.
+     */
+    private synchronized void switchVideoThread() {
+        final VideoCodecThread newVideoThread = mPendingVideoThread;
+        if (newVideoThread == null) {
+            return;
+        }
+        mPendingVideoThread = null;
+        final VideoCodecThread videoThread = mVideoThread;
+        if (videoThread == null) {
+            mVideoThread = newVideoThread;
+            startVideo();
+            return;
+        }
+
+        videoThread.setListener(null);
+        newVideoThread.holdPackets();
+        mStoppingVideoThread = videoThread;
+        mVideoThread = newVideoThread;
+        sPrepareExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                videoThread.stop();
+                newVideoThread.takeOver(videoThread);
+                if (mStoppingVideoThread == videoThread) {
+                    mStoppingVideoThread = null;
+                }
+                startHeldVideoThread(newVideoThread);
+            }
+        });
+    }
+
+    /**
+     * Called on the prepare executor once the surface was let go of.
+     */
+    private void startHeldVideoThread(VideoCodecThread videoThread) {
+        // not started if detached meanwhile, stop and start are serialized on the thread
+        synchronized (videoThread) {
+            Surface surface = mSurface;
+            if (mVideoThread == videoThread && surface != null) {
+                videoThread.start(surface);
+            }
+        }
+    }
+
+    /**
+     * Release the decoder for {@link DecodePriority#NONE}, packets are dropped until restored.
+     */
+    private void releaseVideoThread() {
+        dropPendingVideoThread();
+        final VideoCodecThread videoThread = mVideoThread;
+        if (videoThread == null) {
+            return;
+        }
+
+        videoThread.setListener(null);
+        mReleasedVideoThread = videoThread;
+        mStoppingVideoThread = videoThread;
+        mVideoThread = null;
+        sPrepareExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                videoThread.stop();
+                if (mStoppingVideoThread == videoThread) {
+                    mStoppingVideoThread = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Create a decoder again after {@link #releaseVideoThread()}, started after the old one
+     * let go of the surface. It decodes from the next key frame on.
+     */
+    private void restoreVideoThread() {
+        VideoCodecThread releasedVideoThread = mReleasedVideoThread;
+        mReleasedVideoThread = null;
+        if (mVideoThread != null || mVideoWidth == 0) {
+            return;
+        }
+
+        final VideoCodecThread videoThread = createVideoThread(mVideoWidth, mVideoHeight);
+        videoThread.requestKeyFrame();
+        if (releasedVideoThread != null && releasedVideoThread.hasRendered()) {
+            videoThread.takeOver(releasedVideoThread);
+        }
+        videoThread.holdPackets();
+        mVideoThread = videoThread;
+        sPrepareExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                startHeldVideoThread(videoThread);
+            }
+        });
+    }
+
+    private void dropPendingVideoThread() {
+        final VideoCodecThread pendingVideoThread = mPendingVideoThread;
+        if (pendingVideoThread != null) {
+            mPendingVideoThread = null;
+            sPrepareExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // after its prepare, so the decoder created by it is released
+                    pendingVideoThread.stop();
+                }
+            });
+        }
+    }
+
+    private void detachVideoThread(Teardown teardown) {
+        final VideoCodecThread stoppingVideoThread = mStoppingVideoThread;
+        if (stoppingVideoThread != null) {
+            teardown.add(new Runnable() {
+                @Override
+                public void run() {
+                    // returns once the switch let go of the surface
+                    stoppingVideoThread.stop();
+                }
+            });
+        }
+
+        final VideoCodecThread videoThread = mVideoThread;
+        if (videoThread != null) {
+            videoThread.setListener(null);
+            mVideoThread = null;
+            teardown.add(new Runnable() {
+                @Override
+                public void run() {
+                    videoThread.stop();
+                }
+            });
         }
     }
 
     private void initVideoThread(int videoW, int videoH) {
-        mVideoThread = new VideoCodecThread(videoW, videoH);
-        mVideoThread.setListener(mListener);
+        mVideoThread = createVideoThread(videoW, videoH);
         startVideo();
     }
+
+    private VideoCodecThread createVideoThread(int videoW, int videoH) {
+        VideoCodecThread videoThread = new VideoCodecThread(videoW, videoH);
+        videoThread.setListener(mListener);
+        videoThread.setDecodeMode(mDecodeMode);
+        videoThread.setDecodePriority(mDecodePriority);
+        videoThread.setClockSync(mClockSync);
+        videoThread.setJitterBuffer(mJitterBuffer);
+        videoThread.setPlaybackClock(mPlaybackClock);
+        videoThread.setInputLatencyTracker(mInputLatencyTracker);
+        videoThread.setDecodeLatencyHistogram(mMetrics.histogram(Metrics.VIDEO_DECODE_LATENCY));
+        videoThread.setSwitchHistograms(mMetrics.histogram(Metrics.VIDEO_SWITCH_TIME),
+                mMetrics.histogram(Metrics.VIDEO_SWITCH_GAP));
+        return videoThread;
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * H.264 NAL unit parsing for Annex B byte streams.
+ */
+class NalUnit {
+    static final int TYPE_SLICE = 1;
+    static final int TYPE_SLICE_DPC = 4;
+    static final int TYPE_IDR = 5;
+    static final int TYPE_SEI = 6;
+    static final int TYPE_SPS = 7;
+    static final int TYPE_PPS = 8;
+
+    static final int FRAME_UNKNOWN = 0;
+    static final int FRAME_KEY = 1;
+    static final int FRAME_REFERENCE = 2;
+    static final int FRAME_NON_REFERENCE = 3;
+    static final int FRAME_CONFIG = 4;
+
+    private NalUnit() {
+    }
+
+    /**
+     * Get frame type from the NAL units of a packet.
+     * Scanning stops at the first slice, parameter sets and SEI come before it.
+     *
+     * @param data Packet data with start codes
+     * @return One of FRAME_* types
+     */
+    static int getFrameType(ByteBuf data) {
+        int frameType = FRAME_UNKNOWN;
+        int end = data.writerIndex();
+        int zeros = 0;
+
+        for (int i = data.readerIndex(); i < end; i++) {
+            byte b = data.getByte(i);
+            if (b == 0) {
+                zeros++;
+                continue;
+            }
+
+            if (b == 1 && zeros >= 2 && i + 1 < end) {
+                int header = data.getByte(++i) & 0xff;
+                int type = header & 0x1f;
+                int refIdc = (header >> 5) & 0x03;
+
+                if (type == TYPE_IDR) {
+                    return FRAME_KEY;
+                } else if (type >= TYPE_SLICE && type <= TYPE_SLICE_DPC) {
+                    return refIdc == 0 ? FRAME_NON_REFERENCE : FRAME_REFERENCE;
+                } else if (type == TYPE_SPS || type == TYPE_PPS) {
+                    frameType = FRAME_CONFIG;
+                }
+            }
+            zeros = 0;
+        }
+        return frameType;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import org.arpnetwork.arpclient.data.AVPacket;
+import org.arpnetwork.arpclient.util.SpscRingBuffer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decide which packets to drop when the codec falls behind.
+ * Every packet is independent by default, the oldest ones are dropped
+ * while the backlog exceeds the budget.
+ */
+class PacketDropPolicy {
+    static final int REASON_BACKLOG = 0;
+    static final int REASON_NON_REFERENCE = 1;
+    static final int REASON_SKIP_TO_KEY_FRAME = 2;
+    /**
+     * Dropped by a lowered {@link DecodePriority}, by choice rather than to catch up
+     */
+    static final int REASON_PRIORITY = 3;
+    /**
+     * Dropped on arrival, the queue was full
+     */
+    static final int REASON_QUEUE_FULL = 4;
+    private static final int REASON_COUNT = 5;
+
+    protected final int mBudget;
+
+    private final AtomicLongArray mDropped = new AtomicLongArray(REASON_COUNT);
+    private volatile boolean mKeyFrameRequested;
+
+    /**
+     * @param budget Packets allowed to wait in queue before dropping
+     */
+    PacketDropPolicy(int budget) {
+        mBudget = budget;
+    }
+
+    /**
+     * Called by the codec thread for each packet taken from queue.
+     *
+     * @param packet  Packet taken
+     * @param backlog Packets waiting behind it
+     * @return true if the packet should be dropped
+     */
+    boolean shouldDrop(AVPacket packet, SpscRingBuffer<AVPacket> backlog) {
+        if (backlog.size() > mBudget) {
+            drop(REASON_BACKLOG);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reset state after queue was cleared.
+     */
+    void reset() {
+    }
+
+    /**
+     * Lower or restore how much of the stream is decoded.
+     * Packets of unknown streams can not be told apart and are all decoded.
+     * Can be called from any thread, takes effect on the next packet.
+     *
+     * @param priority See {@link DecodePriority}
+     */
+    void setPriority(int priority) {
+    }
+
+    /**
+     * Called by the thread putting packets when one was dropped for a full queue.
+     * Packets queued after it may depend on it, so the codec skips to the next key frame.
+     */
+    void onQueueFull() {
+        drop(REASON_QUEUE_FULL);
+        requestKeyFrame();
+    }
+
+    /**
+     * Drop packets until the next key frame, when the stream was interrupted.
+     * Can be called from any thread, takes effect on the next packet.
+     */
+    void requestKeyFrame() {
+        mKeyFrameRequested = true;
+    }
+
+    /**
+     * @return true once after {@link #requestKeyFrame()} was called
+     */
+    protected boolean takeKeyFrameRequest() {
+        if (mKeyFrameRequested) {
+            mKeyFrameRequested = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param reason One of REASON_*
+     * @return Count of packets dropped for the reason
+     */
+    long getDroppedCount(int reason) {
+        return mDropped.get(reason);
+    }
+
+    /**
+     * @return Count of packets dropped to catch up, not counting those dropped by priority
+     */
+    long getDroppedCount() {
+        long count = 0;
+        for (int i = 0; i < REASON_COUNT; i++) {
+            if (i != REASON_PRIORITY) {
+                count += mDropped.get(i);
+            }
+        }
+        return count;
+    }
+
+    protected void drop(int reason) {
+        mDropped.incrementAndGet(reason);
+    }
+}
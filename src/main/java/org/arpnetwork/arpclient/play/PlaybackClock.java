@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+/**
+ * Playback clock shared by audio and video.
+ * Audio is the master: the audio thread anchors the clock with the pts playing
+ * on the AudioTrack, and the clock runs on the local clock in between.
+ * Without recent audio the clock is unavailable and video falls back to the
+ * schedule of the jitter buffer on the monotonic clock.
+ * All times are in microseconds.
+ */
+public class PlaybackClock {
+    private static final long AUDIO_TIMEOUT = 500000;
+
+    private long mAnchorPts;
+    private long mAnchorTime = -1;
+
+    private volatile long mSkew;
+
+    /**
+     * Called by the audio thread after writing to AudioTrack.
+     *
+     * @param pts  Pts playing at the time
+     * @param time Local time
+     */
+    public synchronized void updateAudioPosition(long pts, long time) {
+        mAnchorPts = pts;
+        mAnchorTime = time;
+    }
+
+    /**
+     * @param time Local time
+     * @return Audio pts playing at the time, or -1 if there is no recent audio
+     */
+    public synchronized long getAudioPosition(long time) {
+        if (mAnchorTime < 0 || time - mAnchorTime > AUDIO_TIMEOUT) {
+            return -1;
+        }
+        return mAnchorPts + (time - mAnchorTime);
+    }
+
+    /**
+     * @param skew Video pts minus audio pts of the last rendered frame
+     */
+    void setSkew(long skew) {
+        mSkew = skew;
+    }
+
+    /**
+     * @return Video pts minus audio pts of the last rendered frame,
+     * positive when video is ahead
+     */
+    public long getSkew() {
+        return mSkew;
+    }
+
+    public synchronized void reset() {
+        mAnchorTime = -1;
+        mSkew = 0;
+    }
+}
@@ -16,21 +16,52 @@
 
 package org.arpnetwork.arpclient.play;
 
+import android.media.MediaCodec;
 import android.media.MediaFormat;
 
+import org.arpnetwork.arpclient.metrics.LatencyHistogram;
+import org.arpnetwork.arpclient.protocol.ClockSync;
+import org.arpnetwork.arpclient.touch.InputLatencyTracker;
+
+import java.nio.ByteBuffer;
+
 class VideoCodecThread extends MediaCodecThread {
     private static final String MIME_TYPE = "video/avc"; // H.264
+    private static final int CAPACITY = 15;
     public static final int WIDTH = 720;
     public static final int HEIGHT = 1280;
+    // largest size switched to in place, in the orientation of the stream
+    private static final int MAX_LONG_SIDE = 1920;
+    private static final int MAX_SHORT_SIDE = 1080;
+
+    private volatile int mWidth;
+    private volatile int mHeight;
+    private int mMaxWidth;
+    private int mMaxHeight;
+    private boolean mAdaptivePlayback;
+
+    private static final long LATE_THRESHOLD = 40000;
+    // least time between rendered frames at reduced priority, in µs
+    private static final long REDUCED_FRAME_INTERVAL = 1000000 / DecodePriority.REDUCED_FPS;
+
+    private ClockSync mClockSync;
+    private JitterBuffer mJitterBuffer;
+    private PlaybackClock mPlaybackClock;
+    private InputLatencyTracker mInputLatencyTracker;
+    private volatile long mLatency = -1;
 
-    private int mWidth;
-    private int mHeight;
+    private LatencyHistogram mSwitchTime;
+    private LatencyHistogram mSwitchGap;
+    private volatile long mSwitchStart = -1;
+    private volatile boolean mSwitchFormatChanged;
+    private volatile long mLastRenderTime = -1;
 
     public VideoCodecThread() {
         this(WIDTH, HEIGHT);
     }
 
     public VideoCodecThread(int width, int height) {
+        super(CAPACITY, new H264DropPolicy(CAPACITY));
         mWidth = width;
         mHeight = height;
     }
@@ -49,17 +80,200 @@ class VideoCodecThread extends MediaCodecThread {
         return mHeight;
     }
 
+    /**
+     * Switch to a new size in place, if the decoder was configured for adaptive playback
+     * up to the size, or is not started yet. Frames of the new size follow the next key frame.
+     *
+     * @return false if a new decoder is needed for the size
+     */
+    public synchronized boolean setVideoSize(int width, int height) {
+        if (isStarted() && (!mAdaptivePlayback || width > mMaxWidth || height > mMaxHeight)) {
+            return false;
+        }
+
+        mWidth = width;
+        mHeight = height;
+        if (isStarted()) {
+            beginSwitch();
+        }
+        return true;
+    }
+
+    /**
+     * Start timing a size switch, completed by the first frame rendered in the new format.
+     */
+    public void beginSwitch() {
+        mSwitchFormatChanged = false;
+        mSwitchStart = ClockSync.now();
+    }
+
+    /**
+     * Take over rendering from the thread of the previous size,
+     * the gap is measured from its last rendered frame.
+     *
+     * @param previous Stopped thread of the previous size
+     */
+    public void takeOver(VideoCodecThread previous) {
+        mLastRenderTime = previous.mLastRenderTime;
+        setFirstRendered();
+    }
+
+    /**
+     * @return true once a frame was rendered
+     */
+    boolean hasRendered() {
+        return mLastRenderTime >= 0;
+    }
+
+    /**
+     * Set histograms to record size switches in microseconds.
+     *
+     * @param switchTime Time from the switch request to the first frame of the new size
+     * @param switchGap  Time between the last frame of the old size and the first of the new
+     */
+    public void setSwitchHistograms(LatencyHistogram switchTime, LatencyHistogram switchGap) {
+        mSwitchTime = switchTime;
+        mSwitchGap = switchGap;
+    }
+
+    /**
+     * Set remote clock estimate to measure latency of frames.
+     *
+     * @param clockSync Remote clock estimate
+     */
+    public void setClockSync(ClockSync clockSync) {
+        mClockSync = clockSync;
+    }
+
+    /**
+     * Set jitter buffer to schedule render time of frames.
+     *
+     * @param jitterBuffer Jitter buffer fed by arriving packets
+     */
+    public void setJitterBuffer(JitterBuffer jitterBuffer) {
+        mJitterBuffer = jitterBuffer;
+    }
+
+    /**
+     * Set playback clock to synchronize video to audio.
+     *
+     * @param playbackClock Clock driven by audio
+     */
+    public void setPlaybackClock(PlaybackClock playbackClock) {
+        mPlaybackClock = playbackClock;
+    }
+
+    /**
+     * Set tracker to match rendered frames with touch input.
+     *
+     * @param tracker Input latency tracker
+     */
+    public void setInputLatencyTracker(InputLatencyTracker tracker) {
+        mInputLatencyTracker = tracker;
+    }
+
+    /**
+     * @return Time from capture on remote device to render of the last frame
+     * in microseconds, -1 if unknown
+     */
+    public long getLatency() {
+        return mLatency;
+    }
+
     @Override
     protected String mimeType() {
         return MIME_TYPE;
     }
 
+    @Override
+    protected void onDecoderCreated(Decoder decoder) {
+        if (mWidth <= mHeight) {
+            mMaxWidth = Math.max(mWidth, MAX_SHORT_SIDE);
+            mMaxHeight = Math.max(mHeight, MAX_LONG_SIDE);
+        } else {
+            mMaxWidth = Math.max(mWidth, MAX_LONG_SIDE);
+            mMaxHeight = Math.max(mHeight, MAX_SHORT_SIDE);
+        }
+        mAdaptivePlayback = decoder.supportsAdaptivePlayback(mMaxWidth, mMaxHeight);
+    }
+
     @Override
     protected MediaFormat createMediaFormat() {
-        MediaFormat mediaFormat = MediaFormat.createVideoFormat(MIME_TYPE, mWidth, mHeight);
+        MediaFormat mediaFormat = new MediaFormat();
+        mediaFormat.setString(MediaFormat.KEY_MIME, MIME_TYPE);
+        mediaFormat.setInteger(MediaFormat.KEY_WIDTH, mWidth);
+        mediaFormat.setInteger(MediaFormat.KEY_HEIGHT, mHeight);
+        if (mAdaptivePlayback) {
+            mediaFormat.setInteger(MediaFormat.KEY_MAX_WIDTH, mMaxWidth);
+            mediaFormat.setInteger(MediaFormat.KEY_MAX_HEIGHT, mMaxHeight);
+        }
         // add the following setting to fix crash bugs on Galaxy Nexus
         // http://stackoverflow.com/questions/15105843/mediacodec-jelly-bean
         mediaFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 0);
         return mediaFormat;
     }
+
+    @Override
+    protected void onFormatChanged(MediaFormat mediaFormat) {
+        if (mSwitchStart >= 0) {
+            mSwitchFormatChanged = true;
+        }
+    }
+
+    @Override
+    protected long getRenderTime(MediaCodec.BufferInfo info) {
+        long lastRenderTime = mLastRenderTime;
+        if (getDecodePriority() == DecodePriority.REDUCED && lastRenderTime >= 0
+                && ClockSync.now() - lastRenderTime < REDUCED_FRAME_INTERVAL) {
+            return SKIP_FRAME;
+        }
+
+        long now = System.nanoTime();
+
+        PlaybackClock playbackClock = mPlaybackClock;
+        long audioPosition = playbackClock != null ? playbackClock.getAudioPosition(now / 1000) : -1;
+        if (audioPosition >= 0) {
+            long skew = info.presentationTimeUs - audioPosition;
+            playbackClock.setSkew(skew);
+            if (skew < -LATE_THRESHOLD) {
+                return DROP_FRAME;
+            }
+            return now + Math.max(skew, 0) * 1000;
+        }
+
+        JitterBuffer jitterBuffer = mJitterBuffer;
+        if (jitterBuffer != null && jitterBuffer.isStarted()) {
+            return jitterBuffer.getRenderTime(info.presentationTimeUs) * 1000;
+        }
+        return now;
+    }
+
+    @Override
+    protected boolean onRender(MediaCodec.BufferInfo info, ByteBuffer buffer) {
+        // pts is the capture time on remote device clock
+        ClockSync clockSync = mClockSync;
+        long now = ClockSync.now();
+        if (clockSync != null && clockSync.isSynchronized()) {
+            mLatency = now - clockSync.toLocalTime(info.presentationTimeUs);
+        }
+        if (mInputLatencyTracker != null) {
+            mInputLatencyTracker.onFrameRendered(info.presentationTimeUs, now);
+        }
+        if (mSwitchFormatChanged) {
+            recordSwitch(now);
+        }
+        mLastRenderTime = now;
+        return false;
+    }
+
+    private void recordSwitch(long now) {
+        mSwitchFormatChanged = false;
+        if (mSwitchTime != null) {
+            mSwitchTime.record(now - mSwitchStart);
+            if (mLastRenderTime >= 0) {
+                mSwitchGap.record(now - mLastRenderTime);
+            }
+        }
+        mSwitchStart = -1;
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.protocol;
+
+/**
+ * Estimate the remote device clock from timestamp exchanges, NTP style.
+ * Each sample gives a round trip time and the offset at the middle of it,
+ * the sample with the smallest round trip in the recent window is the least
+ * affected by queuing delay and is taken as the estimate.
+ * All times are in microseconds.
+ */
+public class ClockSync {
+    private static final int WINDOW = 8;
+
+    private final long[] mOffsets = new long[WINDOW];
+    private final long[] mRoundTrips = new long[WINDOW];
+    private int mCount;
+    private int mIndex;
+
+    private volatile long mOffset;
+    private volatile long mRoundTrip = -1;
+
+    /**
+     * Add a timestamp exchange.
+     *
+     * @param sendTime    Local time the request was sent
+     * @param remoteTime  Remote time the request was answered
+     * @param receiveTime Local time the answer was received
+     * @return false if the sample was rejected
+     */
+    public synchronized boolean addSample(long sendTime, long remoteTime, long receiveTime) {
+        long roundTrip = receiveTime - sendTime;
+        if (roundTrip < 0) {
+            return false;
+        }
+
+        mOffsets[mIndex] = remoteTime - (sendTime + roundTrip / 2);
+        mRoundTrips[mIndex] = roundTrip;
+        mIndex = (mIndex + 1) % WINDOW;
+        if (mCount < WINDOW) {
+            mCount++;
+        }
+
+        int best = 0;
+        for (int i = 1; i < mCount; i++) {
+            if (mRoundTrips[i] < mRoundTrips[best]) {
+                best = i;
+            }
+        }
+        mOffset = mOffsets[best];
+        mRoundTrip = mRoundTrips[best];
+        return true;
+    }
+
+    /**
+     * Clear all samples.
+     */
+    public synchronized void reset() {
+        mCount = 0;
+        mIndex = 0;
+        mOffset = 0;
+        mRoundTrip = -1;
+    }
+
+    /**
+     * @return true if at least one sample was taken
+     */
+    public boolean isSynchronized() {
+        return mRoundTrip >= 0;
+    }
+
+    /**
+     * @return Sample count in window
+     */
+    public synchronized int getSampleCount() {
+        return mCount;
+    }
+
+    /**
+     * @return Remote clock minus local clock
+     */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * @return Round trip time of the chosen sample, -1 if not synchronized
+     */
+    public long getRoundTripTime() {
+        return mRoundTrip;
+    }
+
+    /**
+     * @return Estimated one-way delay, -1 if not synchronized
+     */
+    public long getOneWayDelay() {
+        long roundTrip = mRoundTrip;
+        return roundTrip < 0 ? -1 : roundTrip / 2;
+    }
+
+    /**
+     * @param remoteTime Time of remote clock, such as packet pts
+     * @return Time of local clock
+     */
+    public long toLocalTime(long remoteTime) {
+        return remoteTime - mOffset;
+    }
+
+    /**
+     * @return Local clock in microseconds, the same clock used for timestamp exchanges
+     */
+    public static long now() {
+        return System.nanoTime() / 1000;
+    }
+}
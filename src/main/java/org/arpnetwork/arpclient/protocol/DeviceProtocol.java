@@ -16,35 +16,71 @@
 
 package org.arpnetwork.arpclient.protocol;
 
-import android.os.Handler;
-
 import com.google.gson.Gson;
 
 import org.arpnetwork.arpclient.data.AVPacket;
+import org.arpnetwork.arpclient.data.AVPacketPool;
+import org.arpnetwork.arpclient.data.ChangeQualityReq;
 import org.arpnetwork.arpclient.data.ConnectReq;
 import org.arpnetwork.arpclient.data.ErrorInfo;
 import org.arpnetwork.arpclient.data.Message;
 import org.arpnetwork.arpclient.data.StopReq;
+import org.arpnetwork.arpclient.metrics.Counter;
+import org.arpnetwork.arpclient.metrics.Gauge;
+import org.arpnetwork.arpclient.metrics.LatencyHistogram;
+import org.arpnetwork.arpclient.metrics.Metrics;
+import org.arpnetwork.arpclient.metrics.MetricsRegistry;
 import org.arpnetwork.arpclient.socket.NettyConnection;
+import org.arpnetwork.arpclient.socket.ReconnectPolicy;
 
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
 
+/**
+ * Protocol of remote device, driven on the event loop of the socket.
+ * Heartbeats and clock sync are timed on the event loop as well, so they
+ * keep going however busy the thread the protocol was created on is.
+ * Listener methods are called on the event loop.
+ */
 public class DeviceProtocol implements NettyConnection.ConnectionListener {
-    private static final int HEARTBEAT_INTERVAL = 5000;
-    private static final int HEARTBEAT_TIMEOUT = 15000;
+    private static final int HEALTH_STEP = 5;
+    private static final int CLOCK_SYNC_FAST_INTERVAL = 1000;
+    private static final int CLOCK_SYNC_INTERVAL = 5000;
+    private static final int CLOCK_SYNC_FAST_SAMPLES = 4;
+    private static final int MESSAGE_TYPES = Message.KEY - Message.HEARTBEAT + 1;
+    // thread safe, shared by all sessions along with its type adapters
+    private static final Gson sGson = new Gson();
 
-    private Gson mGson;
     private NettyConnection mConnection;
     private OnProtocolListener mListener;
+    private ProtocolDispatcher mProtocolDispatcher;
+    private ClockSync mClockSync = new ClockSync();
+    private HeartbeatMonitor mHeartbeatMonitor = new HeartbeatMonitor();
+
+    // indexed by message type minus HEARTBEAT, updated on the socket thread
+    private Counter[] mReceivedMessages = new Counter[MESSAGE_TYPES];
+    private Counter[] mReceivedBytes = new Counter[MESSAGE_TYPES];
+    private LatencyHistogram mRoundTrip;
+    private Counter mReconnectAttempts;
+    private Counter mReconnectRecovered;
+    private Counter mReconnectFailed;
+    private LatencyHistogram mReconnectTime;
+    // local time the next heartbeat is due and health last reported, on the socket thread
+    private long mNextHeartbeatTime;
+    private int mReportedHealth = -1;
+    // time the connection was lost while reconnecting, -1 otherwise, on the socket thread
+    private long mLostTime = -1;
 
     private String mSession;
     private String mPackageName;
 
-    private Handler mSendHeartbeatHandler = new Handler();
-    private Handler mReceivedHeartbeatHandler = new Handler();
+    // scheduled on the event loop, cancelled from any thread
+    private volatile ScheduledFuture<?> mSendHeartbeatFuture;
+    private volatile ScheduledFuture<?> mClockSyncFuture;
 
     public interface OnProtocolListener {
         /**
@@ -60,6 +96,23 @@ public class DeviceProtocol implements NettyConnection.ConnectionListener {
          */
         void onError(int code, String msg);
 
+        /**
+         * Connection lost and being reconnected,
+         * followed by {@link #onConnected()} once back or {@link #onError} on giving up
+         *
+         * @param attempt Attempt number, from 1
+         */
+        void onReconnecting(int attempt);
+
+        /**
+         * Health of the connection changed, judged by heartbeat probes
+         *
+         * @param health   From 0 to {@link HeartbeatMonitor#MAX_HEALTH}
+         * @param rtt      Smoothed round trip time in microseconds, -1 if unknown
+         * @param lossRate Share of the recent probes lost
+         */
+        void onConnectionHealth(int health, long rtt, float lossRate);
+
         /**
          * Received audio packet
          * @param packet audio packet
@@ -73,14 +126,6 @@ public class DeviceProtocol implements NettyConnection.ConnectionListener {
          */
         void onVideoPacket(AVPacket packet);
 
-        /**
-         * Received protocol packet
-         *
-         * @param data Protocol json string
-         * @return Protocol packet error
-         */
-        int onProtocolPacket(String data);
-
         /**
          * Socket closed
          */
@@ -90,7 +135,57 @@ public class DeviceProtocol implements NettyConnection.ConnectionListener {
     public DeviceProtocol(OnProtocolListener listener) {
         mConnection = new NettyConnection(this);
         mListener = listener;
-        mGson = new Gson();
+        mProtocolDispatcher = new ProtocolDispatcher(sGson);
+        setMetrics(new MetricsRegistry());
+    }
+
+    /**
+     * Set registry to report traffic and round trip time to, before open
+     *
+     * @param metrics Metrics registry
+     */
+    public void setMetrics(MetricsRegistry metrics) {
+        for (int i = 0; i < MESSAGE_TYPES; i++) {
+            String typeName = Metrics.typeName(Message.HEARTBEAT + i);
+            mReceivedMessages[i] = metrics.counter(Metrics.RX_MESSAGES + typeName);
+            mReceivedBytes[i] = metrics.counter(Metrics.RX_BYTES + typeName);
+        }
+        mRoundTrip = metrics.histogram(Metrics.RTT);
+        mReconnectAttempts = metrics.counter(Metrics.RECONNECT_ATTEMPTS);
+        mReconnectRecovered = metrics.counter(Metrics.RECONNECT_RECOVERED);
+        mReconnectFailed = metrics.counter(Metrics.RECONNECT_FAILED);
+        mReconnectTime = metrics.histogram(Metrics.RECONNECT_TIME);
+        metrics.gauge(Metrics.NET_HEALTH, new Gauge() {
+            @Override
+            public long get() {
+                return mHeartbeatMonitor.getHealth();
+            }
+        });
+        metrics.gauge(Metrics.NET_LOSS, new Gauge() {
+            @Override
+            public long get() {
+                return Math.round(mHeartbeatMonitor.getLossRate() * 100);
+            }
+        });
+    }
+
+    /**
+     * Protocol packets received are handled by the types registered to the dispatcher,
+     * errors returned by the handlers are reported by {@link OnProtocolListener#onError}.
+     *
+     * @return Dispatcher of protocol packets
+     */
+    public ProtocolDispatcher getProtocolDispatcher() {
+        return mProtocolDispatcher;
+    }
+
+    /**
+     * Reconnect automatically when the connection is lost
+     *
+     * @param policy Reconnect policy, null to report the loss as an error
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        mConnection.setReconnectPolicy(policy);
     }
 
     /**
@@ -107,10 +202,18 @@ public class DeviceProtocol implements NettyConnection.ConnectionListener {
         mPackageName = packageName;
     }
 
+    /**
+     * Make a pending reconnect attempt now instead of after the backoff
+     */
+    public void reconnectNow() {
+        mConnection.reconnectNow();
+    }
+
     /**
      * Close socket connection
      */
     public void close() {
+        cancelTimers();
         mConnection.close();
     }
 
@@ -118,15 +221,71 @@ public class DeviceProtocol implements NettyConnection.ConnectionListener {
      * Send a connection request to remote device after socket connected
      */
     public void sendConnectReq() {
-        sendRequest(mGson.toJson(new ConnectReq(mSession, mPackageName)), Message.PROTOCOL);
+        sendRequest(sGson.toJson(new ConnectReq(mSession, mPackageName)), Message.PROTOCOL);
+    }
+
+    /**
+     * Send a connection request asking for the given quality
+     *
+     * @param quality See {@link org.arpnetwork.arpclient.data.Quality}
+     */
+    public void sendConnectReq(int quality) {
+        sendRequest(sGson.toJson(new ConnectReq(mSession, mPackageName, quality)), Message.PROTOCOL);
+    }
+
+    /**
+     * Ask remote device to switch the stream to another quality
+     *
+     * @param quality See {@link org.arpnetwork.arpclient.data.Quality}
+     */
+    public void sendChangeQualityReq(int quality) {
+        sendRequest(sGson.toJson(new ChangeQualityReq(quality)), Message.PROTOCOL);
+    }
+
+    /**
+     * @return Health of the connection, judged by heartbeat probes
+     */
+    public HeartbeatMonitor getHeartbeatMonitor() {
+        return mHeartbeatMonitor;
+    }
+
+    /**
+     * @return Estimated clock of remote device
+     */
+    public ClockSync getClockSync() {
+        return mClockSync;
+    }
+
+    /**
+     * Start periodic timestamp exchanges with remote device,
+     * a few quick ones first for the estimate to settle.
+     * May be called from any thread once connected.
+     */
+    public void startClockSync() {
+        EventLoop eventLoop = mConnection.eventLoop();
+        if (!eventLoop.inEventLoop()) {
+            eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    startClockSync();
+                }
+            });
+            return;
+        }
+
+        cancel(mClockSyncFuture);
+        mClockSync.reset();
+        syncClock();
     }
 
     /**
      * Send a local timestamp to remote device
+     * The device answers with the timestamp echoed followed by its own,
+     * which also serves as a heartbeat probe.
      */
     public void sendTimestamp() {
         ByteBuffer buffer = ByteBuffer.allocate(8); // size of long
-        long time = System.nanoTime() / 1000;
+        long time = mHeartbeatMonitor.onProbeSent(ClockSync.now());
         buffer.putLong(time);
         Message msg = new Message((byte) Message.TIME, buffer.array());
         mConnection.write(msg);
@@ -135,10 +294,10 @@ public class DeviceProtocol implements NettyConnection.ConnectionListener {
     /**
      * Send touch event commands.
      *
-     * @param touchInfo event commands
+     * @param touchInfo ascii event commands, released once written
      */
-    public void sendTouchEvent(String touchInfo) {
-        sendRequest(touchInfo, Message.TOUCH);
+    public void sendTouchEvent(ByteBuf touchInfo) {
+        mConnection.write(new Message(Message.TOUCH, touchInfo));
     }
 
     public void sendKeyEvent(int keyCode) {
@@ -153,112 +312,193 @@ public class DeviceProtocol implements NettyConnection.ConnectionListener {
      * Once the stop request was sent, there is no way to reconnect to the same device
      */
     public void sendStopReq() {
-        sendRequest(mGson.toJson(new StopReq()), Message.PROTOCOL);
+        sendRequest(sGson.toJson(new StopReq()), Message.PROTOCOL);
     }
 
     @Override
     public void onConnected(NettyConnection conn) {
+        // timers of a connection replaced before it was closed
+        cancelTimers();
+        if (mLostTime >= 0) {
+            mReconnectRecovered.increment();
+            mReconnectTime.record(ClockSync.now() - mLostTime);
+            mLostTime = -1;
+        }
+        mHeartbeatMonitor.reset(ClockSync.now());
+        mReportedHealth = -1;
         mListener.onConnected();
         sendHeartbeat();
-        postReceivedHeartbeatHandler();
     }
 
     @Override
     public void onClosed(NettyConnection conn) {
-        mSendHeartbeatHandler.removeCallbacksAndMessages(null);
-        mReceivedHeartbeatHandler.removeCallbacksAndMessages(null);
+        cancelTimers();
+        mLostTime = -1;
         mListener.onClosed();
     }
 
     @Override
     public void onMessage(NettyConnection conn, Message msg) {
-        switch (msg.getType()) {
-            case Message.VIDEO:
-                AVPacket videoPacket = getPacket(msg.getDataBuffer());
-                mListener.onVideoPacket(videoPacket);
-                break;
-
-            case Message.AUDIO:
-                AVPacket audioPacket = getPacket(msg.getDataBuffer());
-                mListener.onAudioPacket(audioPacket);
-                break;
-
-            case Message.PROTOCOL:
-                int errorCode = mListener.onProtocolPacket(getString(msg.getDataBuffer()));
-                if (errorCode != 0) {
-                    mListener.onError(errorCode, null);
-                }
-                break;
-
-            case Message.TIME:
-                // FIXME
-                break;
-
-            case Message.HEARTBEAT:
-                receivedHeartbeat();
-                break;
-
-            default:
-                break;
+        countReceived(msg);
+        mHeartbeatMonitor.onReceived(ClockSync.now());
+        try {
+            switch (msg.getType()) {
+                case Message.VIDEO:
+                    AVPacket videoPacket = getPacket(msg.content());
+                    mListener.onVideoPacket(videoPacket);
+                    break;
+
+                case Message.AUDIO:
+                    AVPacket audioPacket = getPacket(msg.content());
+                    mListener.onAudioPacket(audioPacket);
+                    break;
+
+                case Message.PROTOCOL:
+                    int errorCode = mProtocolDispatcher.dispatch(msg.content());
+                    if (errorCode != 0) {
+                        mListener.onError(errorCode, null);
+                    }
+                    break;
+
+                case Message.TIME:
+                    receivedTimestamp(msg.content());
+                    break;
+
+                default:
+                    break;
+            }
+        } finally {
+            msg.release();
         }
     }
 
     @Override
     public void onError(int code, String msg) {
-        mSendHeartbeatHandler.removeCallbacksAndMessages(null);
-        mReceivedHeartbeatHandler.removeCallbacksAndMessages(null);
+        cancelTimers();
+        if (mLostTime >= 0) {
+            mReconnectFailed.increment();
+            mLostTime = -1;
+        }
         mListener.onError(code, msg);
     }
 
+    @Override
+    public void onReconnecting(NettyConnection conn, int attempt) {
+        cancelTimers();
+        if (attempt == 1) {
+            mLostTime = ClockSync.now();
+        }
+        mReconnectAttempts.increment();
+        mListener.onReconnecting(attempt);
+    }
+
+    private void cancelTimers() {
+        cancel(mSendHeartbeatFuture);
+        cancel(mClockSyncFuture);
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long delay) {
+        return mConnection.eventLoop().schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancel(ScheduledFuture<?> future) {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    private void countReceived(Message msg) {
+        int index = msg.getType() - Message.HEARTBEAT;
+        if (index >= 0 && index < MESSAGE_TYPES) {
+            // length field, then type and data unless heartbeat
+            int size = msg.getType() == Message.HEARTBEAT ? 4 : 5 + msg.content().readableBytes();
+            mReceivedMessages[index].increment();
+            mReceivedBytes[index].add(size);
+        }
+    }
+
     private void sendRequest(String request, int type) {
         byte[] bytes = request.getBytes();
         Message msg = new Message((byte) type, bytes);
         mConnection.write(msg);
     }
 
+    /**
+     * Send a heartbeat along with a probe, unless the connection is found dead.
+     * Heartbeats are sent more often as the connection degrades.
+     */
     private void sendHeartbeat() {
+        long now = ClockSync.now();
+        mHeartbeatMonitor.expire(now);
+        if (mHeartbeatMonitor.isDead(now)) {
+            mConnection.close(true);
+            return;
+        }
+
         Message msg = new Message((byte) Message.HEARTBEAT);
         mConnection.write(msg);
-        mSendHeartbeatHandler.postDelayed(new Runnable() {
+        sendTimestamp();
+        reportHealth();
+        scheduleHeartbeat(mHeartbeatMonitor.getInterval());
+    }
+
+    private void scheduleHeartbeat(int delay) {
+        mNextHeartbeatTime = ClockSync.now() + delay * 1000L;
+        mSendHeartbeatFuture = schedule(new Runnable() {
             @Override
             public void run() {
                 sendHeartbeat();
             }
-        }, HEARTBEAT_INTERVAL);
+        }, delay);
     }
 
-    private void receivedHeartbeat() {
-        mReceivedHeartbeatHandler.removeCallbacksAndMessages(null);
-        postReceivedHeartbeatHandler();
+    private void reportHealth() {
+        int health = mHeartbeatMonitor.getHealth();
+        if (mReportedHealth < 0 || Math.abs(health - mReportedHealth) >= HEALTH_STEP
+                || (health != mReportedHealth && health == HeartbeatMonitor.MAX_HEALTH)) {
+            mReportedHealth = health;
+            mListener.onConnectionHealth(health, mHeartbeatMonitor.getRoundTripTime(),
+                    mHeartbeatMonitor.getLossRate());
+        }
     }
 
-    private void postReceivedHeartbeatHandler() {
-        mReceivedHeartbeatHandler.postDelayed(new Runnable() {
+    private void syncClock() {
+        sendTimestamp();
+        int interval = mClockSync.getSampleCount() < CLOCK_SYNC_FAST_SAMPLES
+                ? CLOCK_SYNC_FAST_INTERVAL : CLOCK_SYNC_INTERVAL;
+        mClockSyncFuture = schedule(new Runnable() {
             @Override
             public void run() {
-                mConnection.close(true);
+                syncClock();
             }
-        }, HEARTBEAT_TIMEOUT);
+        }, interval);
     }
 
-    private static AVPacket getPacket(ByteBuffer data) {
-        long pts = data.getLong();
-        int size = data.capacity() - data.position();
-        byte[] packetData = new byte[size];
-        data.get(packetData);
-        return new AVPacket(pts, packetData, size);
+    private void receivedTimestamp(ByteBuf data) {
+        long receiveTime = ClockSync.now();
+        if (data.readableBytes() >= 16) { // two longs
+            long sendTime = data.readLong();
+            long remoteTime = data.readLong();
+            mClockSync.addSample(sendTime, remoteTime, receiveTime);
+            mRoundTrip.record(receiveTime - sendTime);
+            if (mHeartbeatMonitor.onProbeReply(sendTime, receiveTime)) {
+                // bring the next heartbeat forward once the connection degrades
+                int interval = mHeartbeatMonitor.getInterval();
+                if (receiveTime + interval * 1000L < mNextHeartbeatTime) {
+                    cancel(mSendHeartbeatFuture);
+                    scheduleHeartbeat(interval);
+                }
+            }
+        }
     }
 
-    private static String getString(ByteBuffer buffer) {
-        try {
-            Charset charset = Charset.forName("UTF-8");
-            CharsetDecoder decoder = charset.newDecoder();
-            CharBuffer charBuffer = decoder.decode(buffer.asReadOnlyBuffer());
-            // to avoid the space before json string
-            return charBuffer.toString().trim();
-        } catch (Exception ex) {
-            return "";
-        }
+    /**
+     * The packet holds a retained slice of the message data,
+     * and must be released after it was consumed.
+     */
+    private static AVPacket getPacket(ByteBuf data) {
+        long pts = data.readLong();
+        return AVPacketPool.getDefault().acquire(pts, data.retainedSlice());
     }
 }
 
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.protocol;
+
+/**
+ * Judge the health of the connection from heartbeat probes.
+ * Probes are timestamps the device echoes back, matched to their replies by
+ * the timestamp and answered in send order on the TCP stream. A probe not
+ * answered in time counts as lost.
+ * <p>
+ * The health score drops with the loss rate and the smoothed round trip time.
+ * Heartbeats are sent more often and the connection is declared dead sooner
+ * as the health drops, in about 2 seconds of silence on a degraded link.
+ * All times are in microseconds unless noted.
+ */
+public class HeartbeatMonitor {
+    public static final int MAX_HEALTH = 100;
+    /**
+     * Health at or above which heartbeats are at the slowest rate
+     */
+    public static final int HEALTHY = 90;
+    /**
+     * Health at or below which heartbeats are at the fastest rate
+     */
+    public static final int DEGRADED = 60;
+
+    // in milliseconds
+    private static final int HEALTHY_INTERVAL = 5000;
+    private static final int DEGRADED_INTERVAL = 500;
+    private static final int HEALTHY_TIMEOUT = 15000;
+    private static final int DEGRADED_TIMEOUT = 2000;
+
+    private static final long MIN_PROBE_TIMEOUT = 1000000;
+    private static final long GOOD_RTT = 100000;
+    private static final long BAD_RTT = 1000000;
+    private static final int MAX_LOSS_PENALTY = 60;
+    private static final int MAX_RTT_PENALTY = 40;
+    private static final int WINDOW = 16;
+
+    // send times of unanswered probes, oldest first
+    private final long[] mPending = new long[WINDOW];
+    private int mPendingStart;
+    private int mPendingCount;
+    // outcomes of the recent probes, true if lost
+    private final boolean[] mOutcomes = new boolean[WINDOW];
+    private int mOutcomeIndex;
+    private int mOutcomeCount;
+    private int mLostCount;
+
+    private long mLastSendTime;
+    private long mLastReceiveTime = -1;
+    private long mRoundTrip = -1;
+    private int mHealth = MAX_HEALTH;
+
+    /**
+     * Start over for a new connection.
+     *
+     * @param now Local time
+     */
+    public synchronized void reset(long now) {
+        mPendingStart = 0;
+        mPendingCount = 0;
+        mOutcomeIndex = 0;
+        mOutcomeCount = 0;
+        mLostCount = 0;
+        mLastReceiveTime = now;
+        mRoundTrip = -1;
+        mHealth = MAX_HEALTH;
+    }
+
+    /**
+     * A probe is about to be sent.
+     *
+     * @param now Local time
+     * @return Timestamp to send, unique among probes
+     */
+    public synchronized long onProbeSent(long now) {
+        long sendTime = Math.max(now, mLastSendTime + 1);
+        mLastSendTime = sendTime;
+        if (mPendingCount == WINDOW) {
+            removePending();
+            addOutcome(true);
+            updateHealth();
+        }
+        mPending[(mPendingStart + mPendingCount) % WINDOW] = sendTime;
+        mPendingCount++;
+        return sendTime;
+    }
+
+    /**
+     * A probe was answered.
+     *
+     * @param sendTime Timestamp echoed by the device
+     * @param now      Local time
+     * @return false if not an unanswered probe, as it was expired already
+     */
+    public synchronized boolean onProbeReply(long sendTime, long now) {
+        int index = -1;
+        for (int i = 0; i < mPendingCount; i++) {
+            if (mPending[(mPendingStart + i) % WINDOW] == sendTime) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return false;
+        }
+
+        // replies come in send order, earlier probes are not to be answered
+        for (int i = 0; i < index; i++) {
+            removePending();
+            addOutcome(true);
+        }
+        removePending();
+        addOutcome(false);
+
+        long roundTrip = now - sendTime;
+        mRoundTrip = mRoundTrip < 0 ? roundTrip : mRoundTrip + (roundTrip - mRoundTrip) / 8;
+        mLastReceiveTime = now;
+        updateHealth();
+        return true;
+    }
+
+    /**
+     * Anything was received from the device, proof of it being alive.
+     *
+     * @param now Local time
+     */
+    public synchronized void onReceived(long now) {
+        mLastReceiveTime = now;
+    }
+
+    /**
+     * Count probes unanswered for too long as lost.
+     *
+     * @param now Local time
+     */
+    public synchronized void expire(long now) {
+        long timeout = Math.max(MIN_PROBE_TIMEOUT, 4 * mRoundTrip);
+        boolean expired = false;
+        while (mPendingCount > 0 && now - mPending[mPendingStart] > timeout) {
+            removePending();
+            addOutcome(true);
+            expired = true;
+        }
+        if (expired) {
+            updateHealth();
+        }
+    }
+
+    /**
+     * @param now Local time
+     * @return true if nothing was received for longer than {@link #getTimeout()}
+     */
+    public synchronized boolean isDead(long now) {
+        return mLastReceiveTime >= 0 && now - mLastReceiveTime > getTimeout() * 1000L;
+    }
+
+    /**
+     * @return Health from 0 to {@link #MAX_HEALTH}
+     */
+    public synchronized int getHealth() {
+        return mHealth;
+    }
+
+    /**
+     * @return Smoothed round trip time, -1 if no probe was answered
+     */
+    public synchronized long getRoundTripTime() {
+        return mRoundTrip;
+    }
+
+    /**
+     * @return Share of the recent probes lost, from 0 to 1
+     */
+    public synchronized float getLossRate() {
+        return mOutcomeCount == 0 ? 0 : (float) mLostCount / mOutcomeCount;
+    }
+
+    /**
+     * @return Time until the next heartbeat in milliseconds
+     */
+    public synchronized int getInterval() {
+        return interpolate(DEGRADED_INTERVAL, HEALTHY_INTERVAL);
+    }
+
+    /**
+     * @return Time of silence after which the connection is dead in milliseconds
+     */
+    public synchronized int getTimeout() {
+        return interpolate(DEGRADED_TIMEOUT, HEALTHY_TIMEOUT);
+    }
+
+    private int interpolate(int degraded, int healthy) {
+        if (mHealth >= HEALTHY) {
+            return healthy;
+        } else if (mHealth <= DEGRADED) {
+            return degraded;
+        }
+        return degraded + (healthy - degraded) * (mHealth - DEGRADED) / (HEALTHY - DEGRADED);
+    }
+
+    private void updateHealth() {
+        // a single loss among the first probes must not count as a loss rate of one
+        int lossPenalty = mLostCount * 200 / Math.max(mOutcomeCount, WINDOW / 2);
+        int rttPenalty = 0;
+        if (mRoundTrip > GOOD_RTT) {
+            long excess = Math.min(mRoundTrip, BAD_RTT) - GOOD_RTT;
+            rttPenalty = (int) (excess * MAX_RTT_PENALTY / (BAD_RTT - GOOD_RTT));
+        }
+        mHealth = Math.max(0, MAX_HEALTH - Math.min(lossPenalty, MAX_LOSS_PENALTY) - rttPenalty);
+    }
+
+    private void removePending() {
+        mPendingStart = (mPendingStart + 1) % WINDOW;
+        mPendingCount--;
+    }
+
+    private void addOutcome(boolean lost) {
+        if (mOutcomeCount == WINDOW) {
+            if (mOutcomes[mOutcomeIndex]) {
+                mLostCount--;
+            }
+        } else {
+            mOutcomeCount++;
+        }
+        mOutcomes[mOutcomeIndex] = lost;
+        if (lost) {
+            mLostCount++;
+        }
+        mOutcomeIndex = (mOutcomeIndex + 1) % WINDOW;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.protocol;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Routes protocol packets to handlers registered by packet id.
+ * The id is peeked from the leading fields of the json, which is then read once
+ * by the type adapter of the packet, resolved at registration.
+ * Not thread-safe, dispatch on the socket thread only.
+ */
+public class ProtocolDispatcher {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Gson mGson;
+    private final Map<Integer, Route<?>> mRoutes = new HashMap<>();
+
+    private final CharsetDecoder mDecoder = UTF_8.newDecoder();
+    private CharBuffer mChars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    public interface PacketHandler<T> {
+        /**
+         * @param packet Parsed packet
+         * @return Protocol packet error, 0 if none
+         */
+        int onPacket(T packet);
+    }
+
+    public ProtocolDispatcher(Gson gson) {
+        mGson = gson;
+    }
+
+    /**
+     * Register a packet type, replacing an earlier registration of the id.
+     *
+     * @param id         Packet id
+     * @param type       Packet class
+     * @param parseError Protocol packet error if the packet can not be parsed
+     * @param handler    Handler called on the socket thread
+     */
+    public synchronized <T> void register(int id, Class<T> type, int parseError, PacketHandler<T> handler) {
+        mRoutes.put(id, new Route<>(mGson.getAdapter(type), parseError, handler));
+    }
+
+    /**
+     * @param data Json packet encoded in UTF-8, not consumed
+     * @return Protocol packet error, 0 if handled or of no registered type
+     */
+    public int dispatch(ByteBuf data) {
+        if (!decode(data)) {
+            return 0;
+        }
+
+        int id;
+        try {
+            id = peekId(newReader());
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+
+        Route<?> route;
+        synchronized (this) {
+            route = mRoutes.get(id);
+        }
+        return route != null ? route.dispatch(newReader()) : 0;
+    }
+
+    /**
+     * Decode into the reused char buffer.
+     *
+     * @return false if not valid UTF-8
+     */
+    private boolean decode(ByteBuf data) {
+        int length = data.readableBytes();
+        if (mChars.capacity() < length) {
+            // UTF-8 never decodes to more chars than bytes
+            mChars = CharBuffer.allocate(Math.max(length, mChars.capacity() * 2));
+        }
+        mChars.clear();
+        mDecoder.reset();
+        CoderResult result = mDecoder.decode(data.nioBuffer(), mChars, true);
+        if (result.isError() || mDecoder.flush(mChars).isError()) {
+            return false;
+        }
+        mChars.flip();
+        return true;
+    }
+
+    private JsonReader newReader() {
+        JsonReader reader = new JsonReader(new CharArrayReader(mChars.array(), 0, mChars.limit()));
+        // the device pads some packets with blanks
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * Read fields up to "id", skipping the values of others.
+     *
+     * @return packet id, -1 if none
+     */
+    private static int peekId(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return -1;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("id".equals(reader.nextName())) {
+                return reader.nextInt();
+            }
+            reader.skipValue();
+        }
+        return -1;
+    }
+
+    private static class Route<T> {
+        private final TypeAdapter<T> mAdapter;
+        private final int mParseError;
+        private final PacketHandler<T> mHandler;
+
+        Route(TypeAdapter<T> adapter, int parseError, PacketHandler<T> handler) {
+            mAdapter = adapter;
+            mParseError = parseError;
+            mHandler = handler;
+        }
+
+        int dispatch(JsonReader reader) {
+            T packet;
+            try {
+                packet = mAdapter.read(reader);
+            } catch (IOException | JsonParseException | IllegalStateException | NumberFormatException e) {
+                return mParseError;
+            }
+            return packet != null ? mHandler.onPacket(packet) : mParseError;
+        }
+    }
+}
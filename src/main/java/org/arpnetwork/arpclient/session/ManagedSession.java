@@ -0,0 +1,30 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.session;
+
+/**
+ * Session whose decoding is scheduled by a {@link SessionManager}.
+ */
+public interface ManagedSession {
+    /**
+     * Lower or restore how much of the video is decoded, called on any thread.
+     * At {@link org.arpnetwork.arpclient.play.DecodePriority#NONE} the decoder is released.
+     *
+     * @param priority see {@link org.arpnetwork.arpclient.play.DecodePriority}
+     */
+    void setDecodePriority(int priority);
+}
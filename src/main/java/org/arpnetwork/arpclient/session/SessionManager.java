@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.session;
+
+import org.arpnetwork.arpclient.play.DecodePriority;
+import org.arpnetwork.arpclient.socket.SharedEventLoopGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs several sessions side by side on the shared event loop and buffer pools,
+ * within a budget of decoders working beyond key frames and a budget of decoders at all.
+ * The focused session decodes in full, the ones focused most recently after it
+ * decode at reduced rate while the decoder budget lasts, then key frames only while
+ * the codec budget lasts, and the rest release their decoder until promoted.
+ */
+public class SessionManager {
+    private final int mDecoderBudget;
+    private final int mCodecBudget;
+    // most recently focused first, the focused session at the head
+    private final List<Entry> mEntries = new ArrayList<>();
+    private boolean mClosed;
+
+    /**
+     * Sessions beyond the decoder budget hold no decoder.
+     *
+     * @param decoderBudget sessions decoding more than key frames, including the focused one
+     */
+    public SessionManager(int decoderBudget) {
+        this(decoderBudget, decoderBudget);
+    }
+
+    /**
+     * @param decoderBudget sessions decoding more than key frames, including the focused one
+     * @param codecBudget   sessions holding a decoder, at least the decoder budget
+     */
+    public SessionManager(int decoderBudget, int codecBudget) {
+        if (decoderBudget < 1) {
+            throw new IllegalArgumentException("decoder budget must be at least 1");
+        }
+        if (codecBudget < decoderBudget) {
+            throw new IllegalArgumentException("codec budget must be at least the decoder budget");
+        }
+
+        mDecoderBudget = decoderBudget;
+        mCodecBudget = codecBudget;
+        SharedEventLoopGroup.acquire();
+    }
+
+    /**
+     * Manage a session, focused if it is the first one.
+     *
+     * @param session session to add, ignored if added already
+     */
+    public synchronized void add(ManagedSession session) {
+        if (indexOf(session) < 0) {
+            mEntries.add(new Entry(session));
+            rebalance();
+        }
+    }
+
+    /**
+     * Stop managing a session, its decoding is restored to full.
+     * The focus moves on to the session focused before, if it was focused.
+     *
+     * @param session session to remove
+     */
+    public synchronized void remove(ManagedSession session) {
+        int index = indexOf(session);
+        if (index >= 0) {
+            Entry entry = mEntries.remove(index);
+            entry.setPriority(DecodePriority.FULL);
+            rebalance();
+        }
+    }
+
+    /**
+     * Give a session the full decoder, the session is added if needed.
+     *
+     * @param session session in the foreground
+     */
+    public synchronized void setFocus(ManagedSession session) {
+        int index = indexOf(session);
+        Entry entry = index >= 0 ? mEntries.remove(index) : new Entry(session);
+        mEntries.add(0, entry);
+        rebalance();
+    }
+
+    /**
+     * @return the focused session, null if none
+     */
+    public synchronized ManagedSession getFocus() {
+        return mEntries.isEmpty() ? null : mEntries.get(0).mSession;
+    }
+
+    /**
+     * @param session managed session
+     * @return decode priority given to the session, see {@link DecodePriority}, -1 if not managed
+     */
+    public synchronized int getDecodePriority(ManagedSession session) {
+        int index = indexOf(session);
+        return index >= 0 ? mEntries.get(index).mPriority : -1;
+    }
+
+    /**
+     * @return number of managed sessions
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Release the shared event loop, sessions are left as they are and must be stopped by the caller.
+     */
+    public synchronized void close() {
+        if (!mClosed) {
+            mClosed = true;
+            mEntries.clear();
+            SharedEventLoopGroup.release();
+        }
+    }
+
+    private void rebalance() {
+        for (int i = 0; i < mEntries.size(); i++) {
+            int priority;
+            if (i == 0) {
+                priority = DecodePriority.FULL;
+            } else if (i < mDecoderBudget) {
+                priority = DecodePriority.REDUCED;
+            } else if (i < mCodecBudget) {
+                priority = DecodePriority.KEY_FRAMES;
+            } else {
+                priority = DecodePriority.NONE;
+            }
+            mEntries.get(i).setPriority(priority);
+        }
+    }
+
+    private int indexOf(ManagedSession session) {
+        for (int i = 0; i < mEntries.size(); i++) {
+            if (mEntries.get(i).mSession == session) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class Entry {
+        private final ManagedSession mSession;
+        // -1 until first set, so every session is told its priority once
+        private int mPriority = -1;
+
+        Entry(ManagedSession session) {
+            mSession = session;
+        }
+
+        void setPriority(int priority) {
+            if (mPriority != priority) {
+                mPriority = priority;
+                mSession.setDecodePriority(priority);
+            }
+        }
+    }
+}
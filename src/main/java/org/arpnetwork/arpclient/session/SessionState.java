@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.session;
+
+/**
+ * States of a session, see {@link SessionStateMachine} for the transitions.
+ */
+public class SessionState {
+    /**
+     * Not started yet
+     */
+    public static final int IDLE = 0;
+    /**
+     * Socket connecting and waiting for the handshake
+     */
+    public static final int CONNECTING = 1;
+    public static final int CONNECTED = 2;
+    /**
+     * Connection lost, reconnecting automatically with the player kept
+     */
+    public static final int RECONNECTING = 3;
+    /**
+     * Error reported, waiting to be stopped or disconnected
+     */
+    public static final int ERROR = 4;
+    /**
+     * Socket closed with the player kept for a reconnect within the resume window
+     */
+    public static final int SUSPENDED = 5;
+    /**
+     * Stop request sent, about to be closed
+     */
+    public static final int STOPPING = 6;
+    /**
+     * Torn down, can be reconnected
+     */
+    public static final int DISCONNECTED = 7;
+    /**
+     * Torn down after a stop request, can only be started again
+     */
+    public static final int CLOSED = 8;
+
+    static final int COUNT = 9;
+
+    /**
+     * States with a connection in progress or up
+     */
+    public static final int ACTIVE = mask(CONNECTING) | mask(CONNECTED) | mask(RECONNECTING);
+
+    private SessionState() {
+    }
+
+    /**
+     * @param state Session state
+     * @return Bit of the state, to be combined into a set of states
+     */
+    public static int mask(int state) {
+        return 1 << state;
+    }
+
+    /**
+     * @param state Session state
+     * @return Name of the state for logs and traces
+     */
+    public static String name(int state) {
+        switch (state) {
+            case IDLE:
+                return "idle";
+            case CONNECTING:
+                return "connecting";
+            case CONNECTED:
+                return "connected";
+            case RECONNECTING:
+                return "reconnecting";
+            case ERROR:
+                return "error";
+            case SUSPENDED:
+                return "suspended";
+            case STOPPING:
+                return "stopping";
+            case DISCONNECTED:
+                return "disconnected";
+            case CLOSED:
+                return "closed";
+            default:
+                return String.valueOf(state);
+        }
+    }
+}
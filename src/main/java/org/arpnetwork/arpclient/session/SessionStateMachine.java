@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.session;
+
+import org.arpnetwork.arpclient.protocol.ClockSync;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.arpnetwork.arpclient.session.SessionState.ACTIVE;
+import static org.arpnetwork.arpclient.session.SessionState.CLOSED;
+import static org.arpnetwork.arpclient.session.SessionState.CONNECTED;
+import static org.arpnetwork.arpclient.session.SessionState.CONNECTING;
+import static org.arpnetwork.arpclient.session.SessionState.DISCONNECTED;
+import static org.arpnetwork.arpclient.session.SessionState.ERROR;
+import static org.arpnetwork.arpclient.session.SessionState.IDLE;
+import static org.arpnetwork.arpclient.session.SessionState.RECONNECTING;
+import static org.arpnetwork.arpclient.session.SessionState.STOPPING;
+import static org.arpnetwork.arpclient.session.SessionState.SUSPENDED;
+import static org.arpnetwork.arpclient.session.SessionState.mask;
+
+/**
+ * Lifecycle of a session, moved by compare and set so that any thread may
+ * attempt a transition and exactly one of racing attempts wins.
+ * The winner carries out the work of the transition, such as a teardown.
+ * <p>
+ * Transitions, from left to right:
+ * <pre>
+ * IDLE, SUSPENDED, DISCONNECTED, CLOSED, ERROR -> CONNECTING
+ * CONNECTING, RECONNECTING                     -> CONNECTED
+ * CONNECTING, CONNECTED                        -> RECONNECTING
+ * CONNECTING, CONNECTED, RECONNECTING          -> ERROR
+ * CONNECTING, CONNECTED, RECONNECTING, ERROR   -> STOPPING, SUSPENDED
+ * all but STOPPING, DISCONNECTED, CLOSED       -> DISCONNECTED
+ * STOPPING, SUSPENDED                          -> CLOSED
+ * </pre>
+ */
+public class SessionStateMachine {
+    public static final int INVALID = -1;
+
+    // states each state can be entered from
+    private static final int[] SOURCES = new int[SessionState.COUNT];
+
+    static {
+        SOURCES[CONNECTING] = mask(IDLE) | mask(SUSPENDED) | mask(DISCONNECTED) | mask(CLOSED) | mask(ERROR);
+        SOURCES[CONNECTED] = mask(CONNECTING) | mask(RECONNECTING);
+        SOURCES[RECONNECTING] = mask(CONNECTING) | mask(CONNECTED);
+        SOURCES[ERROR] = ACTIVE;
+        SOURCES[STOPPING] = ACTIVE | mask(ERROR);
+        SOURCES[SUSPENDED] = ACTIVE | mask(ERROR);
+        SOURCES[DISCONNECTED] = ACTIVE | mask(IDLE) | mask(ERROR) | mask(SUSPENDED);
+        SOURCES[CLOSED] = mask(STOPPING) | mask(SUSPENDED);
+    }
+
+    private final AtomicInteger mState = new AtomicInteger(IDLE);
+    private volatile OnStateChangedListener mListener;
+
+    public interface OnStateChangedListener {
+        /**
+         * Called on the thread that made the transition, right after it.
+         *
+         * @param from Previous state, see {@link SessionState}
+         * @param to   New state
+         * @param time Local time of the transition in microseconds
+         */
+        void onStateChanged(int from, int to, long time);
+
+        /**
+         * A transition was refused, as another thread moved the state first
+         * or the request did not fit the state.
+         *
+         * @param state Current state
+         * @param to    Requested state
+         */
+        void onTransitionRejected(int state, int to);
+    }
+
+    /**
+     * @param listener Transition listener, null to remove
+     */
+    public void setOnStateChangedListener(OnStateChangedListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return Current state, see {@link SessionState}
+     */
+    public int get() {
+        return mState.get();
+    }
+
+    /**
+     * @param state Session state
+     * @return true if in the state
+     */
+    public boolean is(int state) {
+        return mState.get() == state;
+    }
+
+    /**
+     * @param states Set of states by {@link SessionState#mask(int)}
+     * @return true if in any of the states
+     */
+    public boolean isIn(int states) {
+        return (mask(mState.get()) & states) != 0;
+    }
+
+    /**
+     * Move to a state from any state it can be entered from.
+     *
+     * @param to Target state
+     * @return Previous state, {@link #INVALID} if refused
+     */
+    public int moveTo(int to) {
+        return moveTo(to, ~0);
+    }
+
+    /**
+     * Move to a state, from the given states only.
+     *
+     * @param to   Target state
+     * @param from Set of states by {@link SessionState#mask(int)}, narrowing the transition table
+     * @return Previous state, {@link #INVALID} if refused
+     */
+    public int moveTo(int to, int from) {
+        int sources = SOURCES[to] & from;
+        while (true) {
+            int state = mState.get();
+            if ((mask(state) & sources) == 0) {
+                OnStateChangedListener listener = mListener;
+                if (listener != null) {
+                    listener.onTransitionRejected(state, to);
+                }
+                return INVALID;
+            }
+            if (mState.compareAndSet(state, to)) {
+                OnStateChangedListener listener = mListener;
+                if (listener != null) {
+                    listener.onStateChanged(state, to, ClockSync.now());
+                }
+                return state;
+            }
+        }
+    }
+}
@@ -19,34 +19,76 @@ package org.arpnetwork.arpclient.socket;
 import org.arpnetwork.arpclient.data.ErrorInfo;
 import org.arpnetwork.arpclient.data.Message;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.MessageToByteEncoder;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
 
 public class NettyConnection {
     private static final int CONNECT_TIMEOUT = 10000;
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    // looks hosts up off the shared socket thread, idle thread exits after a while
+    private static final Executor sResolveExecutor = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "arp-resolve");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     private ConnectionListener mListener;
 
-    private EventLoopGroup mWorkerGroup;
-    private ChannelFuture mChannelFuture;
+    private Bootstrap mBootstrap;
+    private volatile ChannelFuture mChannelFuture;
+    // set once active, before the listener hears of it and maybe before connect returns
+    private volatile Channel mChannel;
+    private volatile ConnectionHandler mConnectionHandler;
     private GenericFutureListener<ChannelFuture> mChannelFutureListener;
 
-    private boolean mClientDisconnected;
+    private volatile boolean mClientDisconnected;
+
+    private volatile ReconnectPolicy mReconnectPolicy;
+    // resolved address of the last successful connect, reused to skip lookups
+    private volatile InetSocketAddress mResolvedAddress;
+    // token of the lookup in progress, cleared to cancel it, guarded by this
+    private Object mResolving;
+    private String mHost;
+    private int mPort;
+    // reconnect state, updated on the socket thread
+    private int mReconnectAttempt;
+    private long mReconnectStart;
+    private volatile ScheduledFuture<?> mReconnectFuture;
+    private final Random mRandom = new Random();
 
     public interface ConnectionListener {
         /**
@@ -65,6 +107,7 @@ public class NettyConnection {
 
         /**
          * Receive socket message
+         * The message is reference counted and must be released by the listener.
          *
          * @param conn
          * @param msg
@@ -78,6 +121,15 @@ public class NettyConnection {
          * @param msg  Error details
          */
         void onError(int code, String msg);
+
+        /**
+         * Connection lost and a reconnect is scheduled by the {@link ReconnectPolicy},
+         * followed by {@link #onConnected} once back, or {@link #onError} on giving up.
+         *
+         * @param conn
+         * @param attempt attempt number, from 1
+         */
+        void onReconnecting(NettyConnection conn, int attempt);
     }
 
     public NettyConnection(ConnectionListener listener) {
@@ -90,86 +142,281 @@ public class NettyConnection {
      * @param host socket ip
      * @param port socket port
      */
-    public void connect(String host, int port) {
-        mWorkerGroup = new NioEventLoopGroup();
+    public void connect(final String host, final int port) {
+        InetSocketAddress address = mResolvedAddress;
+        if (address != null && host.equals(mHost) && port == mPort) {
+            synchronized (this) {
+                mResolving = null;
+                connect(address);
+            }
+            return;
+        }
 
-        Bootstrap b = new Bootstrap();
-        b.group(mWorkerGroup);
-        b.channel(NioSocketChannel.class);
-        b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT);
-        b.option(ChannelOption.SO_KEEPALIVE, true);
-        b.option(ChannelOption.TCP_NODELAY, true);
-        b.handler(new ChannelInitializer<SocketChannel>() {
+        mResolvedAddress = null;
+        mHost = host;
+        mPort = port;
+        final Object token = new Object();
+        synchronized (this) {
+            mResolving = token;
+        }
+        // a blocking lookup on the shared socket thread would stall every session
+        sResolveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                onResolved(token, new InetSocketAddress(host, port));
+            }
+        });
+    }
+
+    private synchronized void onResolved(Object token, final InetSocketAddress address) {
+        if (mResolving != token) {
+            return;
+        }
+
+        mResolving = null;
+        if (!address.isUnresolved()) {
+            connect(address);
+            return;
+        }
+        SharedEventLoopGroup.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onError(ErrorInfo.ERROR_NETWORK, "unknown host " + address.getHostString());
+            }
+        });
+    }
+
+    /**
+     * @return address reused by the next connect to the same host, null if it is looked up again
+     */
+    InetSocketAddress getResolvedAddress() {
+        return mResolvedAddress;
+    }
 
+    /**
+     * Retry lost connections by the policy, in place of reporting the loss right away.
+     *
+     * @param policy Reconnect policy, null to disable
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    /**
+     * Skip the rest of the backoff and make the pending reconnect attempt now,
+     * on network changes for example. No-op unless an attempt is pending.
+     */
+    public void reconnectNow() {
+        final ScheduledFuture<?> reconnectFuture = mReconnectFuture;
+        final SocketAddress address = mResolvedAddress;
+        if (reconnectFuture == null || reconnectFuture.isDone() || address == null) {
+            return;
+        }
+
+        mBootstrap.config().group().execute(new Runnable() {
             @Override
-            public void initChannel(SocketChannel ch) {
-                ch.pipeline()
-                        .addLast("decoder", new MessageDecoder())
-                        .addLast("encoder", new MessageEncoder())
-                        .addLast(new ConnectionHandler(NettyConnection.this));
+            public void run() {
+                if (reconnectFuture.cancel(false) && !mClientDisconnected) {
+                    connect(address);
+                }
             }
         });
+    }
+
+    private void connect(SocketAddress address) {
+        EventLoopGroup group = SharedEventLoopGroup.get();
+        if (mBootstrap == null || mBootstrap.config().group() != group) {
+            mBootstrap = createBootstrap(group);
+        }
 
-        mChannelFuture = b.connect(host, port);
+        // events of earlier channels still closing are ignored by their handlers
+        final ConnectionHandler handler = new ConnectionHandler(this);
+        mConnectionHandler = handler;
+        mClientDisconnected = false;
+        mChannel = null;
+        mChannelFuture = mBootstrap.clone()
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    public void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast("frameDecoder", new FrameDecoder())
+                                .addLast("decoder", new MessageDecoder())
+                                .addLast("encoder", new MessageEncoder())
+                                .addLast(handler);
+                    }
+                })
+                .connect(address);
         mChannelFutureListener = new GenericFutureListener<ChannelFuture>() {
             @Override
             public void operationComplete(ChannelFuture future) {
                 Throwable cause = future.cause();
-                if (cause != null) {
-                    mListener.onError(ErrorInfo.ERROR_NETWORK, cause.getMessage());
+                if (cause == null) {
+                    mResolvedAddress = (InetSocketAddress) future.channel().remoteAddress();
+                } else if (mReconnectAttempt == 0 || !scheduleReconnect()) {
+                    giveUp(ErrorInfo.ERROR_NETWORK, cause.getMessage());
                 }
             }
         };
         mChannelFuture.addListener(mChannelFutureListener);
     }
 
+    /**
+     * Report the connection lost for good, the host is looked up again on the next connect
+     * in case it moved.
+     */
+    private void giveUp(int code, String msg) {
+        mResolvedAddress = null;
+        mListener.onError(code, msg);
+    }
+
+    /**
+     * Schedule the next reconnect attempt, called on the socket thread.
+     *
+     * @return false if the policy gives up
+     */
+    private boolean scheduleReconnect() {
+        ReconnectPolicy policy = mReconnectPolicy;
+        final SocketAddress address = mResolvedAddress;
+        if (policy == null || address == null || mClientDisconnected) {
+            mReconnectAttempt = 0;
+            return false;
+        }
+
+        long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        if (mReconnectAttempt == 0) {
+            mReconnectStart = now;
+        }
+        int attempt = ++mReconnectAttempt;
+        long delay = policy.getDelay(attempt, mRandom.nextDouble());
+        if (!policy.shouldRetry(attempt, now - mReconnectStart + delay)) {
+            mReconnectAttempt = 0;
+            return false;
+        }
+
+        mListener.onReconnecting(this, attempt);
+        mReconnectFuture = mBootstrap.config().group().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!mClientDisconnected) {
+                    connect(address);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
     /**
      * Close socket not for timeout reason
+     *
+     * @return future notified once the socket is closed, null if never connected
      */
-    public void close() {
-        close(false);
+    public ChannelFuture close() {
+        return close(false);
     }
 
     /**
-     * Close socket
+     * Close socket without blocking, a pending connect is cancelled.
+     * The listener is notified on the socket thread once closed.
      *
      * @param timeout if for timeout reason
+     * @return future notified once the socket is closed, null if never connected
      */
-    public void close(boolean timeout) {
+    public ChannelFuture close(boolean timeout) {
+        if (!timeout) {
+            synchronized (this) {
+                mResolving = null;
+            }
+        }
+        if (mChannelFuture == null) {
+            return null;
+        }
+
         mClientDisconnected = !timeout;
-        try {
-            mChannelFuture.removeListener(mChannelFutureListener);
-            mChannelFuture.sync().channel().close().sync();
-            mWorkerGroup.shutdownGracefully();
-        } catch (Exception e) {
+        ScheduledFuture<?> reconnectFuture = mReconnectFuture;
+        if (!timeout && reconnectFuture != null) {
+            reconnectFuture.cancel(false);
         }
+        mChannelFuture.removeListener(mChannelFutureListener);
+        return mChannelFuture.channel().close();
     }
 
     /**
      * Send socket message
+     * The message is released once written, or right away if it cannot be sent.
+     * Messages are dropped while not connected, as during the backoff or connect of a reconnect.
      *
      * @param msg
+     * @return false if dropped
+     */
+    public boolean write(Message msg) {
+        Channel channel = mChannel;
+        if (channel == null || !channel.isActive()) {
+            msg.release();
+            return false;
+        }
+
+        channel.writeAndFlush(msg);
+        return true;
+    }
+
+    /**
+     * Connection events and messages are delivered on this event loop,
+     * timers of the connection are scheduled on it as well.
+     *
+     * @return event loop of the socket
      */
-    public void write(Message msg) {
-        if (!mChannelFuture.isSuccess()) {
-            throw new IllegalStateException();
+    public EventLoop eventLoop() {
+        Channel channel = mChannel;
+        if (channel == null) {
+            ChannelFuture channelFuture = mChannelFuture;
+            if (channelFuture == null) {
+                throw new IllegalStateException();
+            }
+            channel = channelFuture.channel();
         }
 
-        mChannelFuture.channel().writeAndFlush(msg);
+        return channel.eventLoop();
+    }
+
+    /**
+     * Options are kept for reconnects as long as the shared event loop lives.
+     */
+    private Bootstrap createBootstrap(EventLoopGroup group) {
+        Bootstrap b = new Bootstrap();
+        b.group(group);
+        b.channel(NioSocketChannel.class);
+        b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT);
+        b.option(ChannelOption.SO_KEEPALIVE, true);
+        b.option(ChannelOption.TCP_NODELAY, true);
+        // Netty defaults to unpooled buffers on Android
+        b.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        return b;
     }
 
     private static class ConnectionHandler extends ChannelInboundHandlerAdapter {
 
         private WeakReference<NettyConnection> mConn;
+        // failure of the link, reported if not reconnected
+        private Throwable mCause;
 
         public ConnectionHandler(NettyConnection conn) {
             mConn = new WeakReference<>(conn);
         }
 
+        /**
+         * @return connection of the channel, null if gone or connected again since
+         */
+        private NettyConnection getConnection() {
+            NettyConnection conn = mConn.get();
+            return conn != null && conn.mConnectionHandler == this ? conn : null;
+        }
+
         @Override
         public void channelActive(ChannelHandlerContext ctx) throws Exception {
-            NettyConnection conn = mConn.get();
+            NettyConnection conn = getConnection();
             if (conn != null) {
+                conn.mReconnectAttempt = 0;
+                conn.mChannel = ctx.channel();
                 conn.mListener.onConnected(conn);
             }
 
@@ -178,12 +425,16 @@ public class NettyConnection {
 
         @Override
         public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-            NettyConnection conn = mConn.get();
+            NettyConnection conn = getConnection();
             if (conn != null) {
                 if (conn.mClientDisconnected) {
                     conn.mListener.onClosed(conn);
-                } else {
-                    conn.mListener.onError(ErrorInfo.ERROR_DISCONNECTED_BY_DEVICE, null);
+                } else if (!conn.scheduleReconnect()) {
+                    if (mCause != null) {
+                        conn.giveUp(ErrorInfo.ERROR_NETWORK, mCause.getMessage());
+                    } else {
+                        conn.giveUp(ErrorInfo.ERROR_DISCONNECTED_BY_DEVICE, null);
+                    }
                 }
             }
 
@@ -192,30 +443,48 @@ public class NettyConnection {
 
         @Override
         public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-            NettyConnection conn = mConn.get();
+            NettyConnection conn = getConnection();
             if (conn != null) {
                 conn.mListener.onMessage(conn, (Message) msg);
+            } else {
+                ReferenceCountUtil.release(msg);
             }
         }
 
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-            NettyConnection conn = mConn.get();
-            if (conn != null) {
+            NettyConnection conn = getConnection();
+            if (conn != null && cause instanceof IOException) {
+                // the link failed, as on a reset, the reconnect policy runs once inactive
+                mCause = cause;
+                ctx.close();
+            } else if (conn != null) {
                 conn.mListener.onError(ErrorInfo.ERROR_NETWORK, cause.getMessage());
                 conn.close();
+            } else {
+                ctx.close();
             }
         }
     }
 
-    private static class MessageDecoder extends ReplayingDecoder<Void> {
+    /**
+     * Split the stream into frames by the leading int length field,
+     * frames are retained slices of the pooled read buffer.
+     */
+    static class FrameDecoder extends LengthFieldBasedFrameDecoder {
+        FrameDecoder() {
+            super(MAX_FRAME_LENGTH, 0, 4, 0, 4);
+        }
+    }
+
+    static class MessageDecoder extends MessageToMessageDecoder<ByteBuf> {
         @Override
-        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-            out.add(Message.readFrom(in));
+        protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) {
+            out.add(Message.readFrom(frame));
         }
     }
 
-    private static class MessageEncoder extends MessageToByteEncoder<Message> {
+    static class MessageEncoder extends MessageToByteEncoder<Message> {
         @Override
         protected void encode(ChannelHandlerContext ctx, Message msg, ByteBuf out) {
             msg.writeTo(out);
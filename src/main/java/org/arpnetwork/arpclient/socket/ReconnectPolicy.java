@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.socket;
+
+/**
+ * When to retry a lost connection: exponential backoff with random jitter,
+ * bounded by a number of attempts and by the window in which remote device
+ * keeps the session for a reconnect.
+ */
+public class ReconnectPolicy {
+    private static final int DEFAULT_INITIAL_DELAY = 100;
+    private static final int DEFAULT_MAX_DELAY = 2000;
+    private static final double DEFAULT_MULTIPLIER = 2;
+    private static final double DEFAULT_JITTER = 0.2;
+    private static final int DEFAULT_MAX_ATTEMPTS = 8;
+    private static final int DEFAULT_WINDOW = 5000;
+
+    private long mInitialDelay = DEFAULT_INITIAL_DELAY;
+    private long mMaxDelay = DEFAULT_MAX_DELAY;
+    private double mMultiplier = DEFAULT_MULTIPLIER;
+    private double mJitter = DEFAULT_JITTER;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long mWindow = DEFAULT_WINDOW;
+
+    /**
+     * @param initialDelay delay before the first attempt in milliseconds
+     * @param maxDelay     delay cap in milliseconds
+     * @param multiplier   growth of the delay per attempt
+     */
+    public ReconnectPolicy setBackoff(long initialDelay, long maxDelay, double multiplier) {
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        mMultiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * @param jitter fraction of the delay to randomize by in both directions, 0 to 1
+     */
+    public ReconnectPolicy setJitter(double jitter) {
+        mJitter = jitter;
+        return this;
+    }
+
+    public ReconnectPolicy setMaxAttempts(int maxAttempts) {
+        mMaxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @param window time from losing the connection after which attempts stop,
+     *               in milliseconds, remote device drops the session after five seconds
+     */
+    public ReconnectPolicy setWindow(long window) {
+        mWindow = window;
+        return this;
+    }
+
+    /**
+     * @param attempt attempt number, from 1
+     * @param random  uniform random value in [0, 1)
+     * @return delay before the attempt in milliseconds
+     */
+    public long getDelay(int attempt, double random) {
+        double delay = Math.min(mInitialDelay * Math.pow(mMultiplier, attempt - 1), mMaxDelay);
+        delay *= 1 + mJitter * (2 * random - 1);
+        return Math.max(0, Math.round(delay));
+    }
+
+    /**
+     * @param attempt  attempt number, from 1
+     * @param attemptTime time of the attempt since the connection was lost in milliseconds
+     * @return true if the attempt should be made
+     */
+    public boolean shouldRetry(int attempt, long attemptTime) {
+        return attempt <= mMaxAttempts && attemptTime < mWindow;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.socket;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Process-wide single-threaded event loop shared by all connections.
+ * Created on first use, shut down when the last reference is released.
+ */
+public class SharedEventLoopGroup {
+    private static final String THREAD_NAME = "arp-socket";
+    private static final int SHUTDOWN_QUIET_PERIOD = 0;
+    private static final int SHUTDOWN_TIMEOUT = 2000;
+
+    private static EventLoopGroup sGroup;
+    private static int sRefCount;
+
+    private SharedEventLoopGroup() {
+    }
+
+    /**
+     * Hold the event loop, until {@link #release()}.
+     */
+    public static synchronized void acquire() {
+        sRefCount++;
+    }
+
+    /**
+     * Shut the event loop down if no longer held.
+     * Connections still open on it are closed.
+     */
+    public static synchronized void release() {
+        if (sRefCount > 0 && --sRefCount == 0 && sGroup != null) {
+            sGroup.shutdownGracefully(SHUTDOWN_QUIET_PERIOD, SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+            sGroup = null;
+        }
+    }
+
+    /**
+     * @return the shared event loop, created if needed
+     */
+    public static synchronized EventLoopGroup get() {
+        if (sGroup == null) {
+            // daemon, so it never keeps the process alive when not released
+            sGroup = new NioEventLoopGroup(1, new DefaultThreadFactory(THREAD_NAME, true));
+        }
+        return sGroup;
+    }
+}
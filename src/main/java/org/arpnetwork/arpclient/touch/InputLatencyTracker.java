@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.touch;
+
+import org.arpnetwork.arpclient.protocol.ClockSync;
+import org.arpnetwork.arpclient.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures input-to-photon latency without help from remote device.
+ * Every touch message sent is tagged with a sequence number and the local time
+ * of its oldest input. The first rendered frame captured after the message
+ * reached remote device, mapping its pts through the clock offset, is taken as
+ * the frame showing the touch, and the latency is its render time minus the input time.
+ * <p>
+ * Touches are sent on one thread and frames rendered on another.
+ */
+public class InputLatencyTracker {
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+    private static final long MAX_LATENCY = 1000000; // us
+
+    private final ClockSync mClockSync;
+    private final LatencyHistogram mHistogram;
+
+    private final long[] mInputTimes = new long[CAPACITY];
+    private final AtomicLong mHead = new AtomicLong(); // next sequence to match
+    private final AtomicLong mTail = new AtomicLong(); // next sequence to send
+
+    public InputLatencyTracker(ClockSync clockSync) {
+        this(clockSync, new LatencyHistogram());
+    }
+
+    /**
+     * @param clockSync Remote clock estimate
+     * @param histogram Histogram to record latencies to
+     */
+    public InputLatencyTracker(ClockSync clockSync, LatencyHistogram histogram) {
+        mClockSync = clockSync;
+        mHistogram = histogram;
+    }
+
+    /**
+     * Called on the touch thread when a touch message is sent.
+     *
+     * @param inputTime local time in microseconds of the oldest input of the message
+     * @return sequence number of the message, -1 if too many are waiting for a frame
+     */
+    public long onTouchSent(long inputTime) {
+        long tail = mTail.get();
+        if (tail - mHead.get() >= CAPACITY) {
+            return -1;
+        }
+        mInputTimes[(int) (tail & MASK)] = inputTime;
+        mTail.lazySet(tail + 1);
+        return tail;
+    }
+
+    /**
+     * Called on the render thread when a frame is rendered.
+     *
+     * @param pts        capture time on remote device clock in microseconds
+     * @param renderTime local time in microseconds
+     */
+    public void onFrameRendered(long pts, long renderTime) {
+        long head = mHead.get();
+        long tail = mTail.get();
+        if (head == tail) {
+            return;
+        }
+
+        boolean synced = mClockSync.isSynchronized();
+        long captureTime = mClockSync.toLocalTime(pts);
+        long oneWayDelay = mClockSync.getOneWayDelay();
+        while (head < tail) {
+            long inputTime = mInputTimes[(int) (head & MASK)];
+            long latency = renderTime - inputTime;
+            if (latency > MAX_LATENCY) {
+                // no frame came in time, the screen did not change
+                head++;
+                continue;
+            }
+            if (!synced || captureTime < inputTime + oneWayDelay) {
+                break;
+            }
+            mHistogram.record(latency);
+            head++;
+        }
+        mHead.lazySet(head);
+    }
+
+    /**
+     * @return Latency from touch input to render of the frame showing it in microseconds
+     */
+    public LatencyHistogram getHistogram() {
+        return mHistogram;
+    }
+}
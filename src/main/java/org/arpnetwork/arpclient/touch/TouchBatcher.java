@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.touch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Coalesces touch commands into as few messages as possible.
+ * Moves of the same pointer replace each other until flushed,
+ * downs and ups are sent right away together with the pending moves.
+ * <p>
+ * Not thread safe, to be used on the thread receiving touch events.
+ */
+class TouchBatcher {
+    private static final int MAX_POINTER_ID = 31;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final TouchHandler.OnTouchInfoListener mListener;
+    private final ByteBufAllocator mAllocator = PooledByteBufAllocator.DEFAULT;
+
+    private final int[] mX = new int[MAX_POINTER_ID + 1];
+    private final int[] mY = new int[MAX_POINTER_ID + 1];
+    private final int[] mPressure = new int[MAX_POINTER_ID + 1];
+    private final int[] mMajor = new int[MAX_POINTER_ID + 1];
+    private final int[] mMinor = new int[MAX_POINTER_ID + 1];
+    private int mPendingMask; // bit per pointer id with a pending move
+
+    private ByteBuf mBuf;
+    private long mInputTime = -1;
+    private InputLatencyTracker mTracker;
+
+    private final AtomicLong mEventCount = new AtomicLong();
+    private final AtomicLong mMessageCount = new AtomicLong();
+
+    TouchBatcher(TouchHandler.OnTouchInfoListener listener) {
+        mListener = listener;
+    }
+
+    void setInputLatencyTracker(InputLatencyTracker tracker) {
+        mTracker = tracker;
+    }
+
+    /**
+     * Count input samples, including the historical ones of batched events.
+     *
+     * @param count     number of samples
+     * @param inputTime local time of the oldest sample in microseconds
+     */
+    void addEvents(int count, long inputTime) {
+        mEventCount.addAndGet(count);
+        if (mInputTime < 0) {
+            mInputTime = inputTime;
+        }
+    }
+
+    void down(int id, int x, int y, int pressure, int major, int minor) {
+        writePending();
+        TouchEncoder.writeContact(buffer(), TouchEncoder.DOWN, id, x, y, pressure, major, minor);
+        TouchEncoder.writeCommit(mBuf);
+        flush();
+    }
+
+    /**
+     * Update the position of a pointer, sent on next flush.
+     */
+    void move(int id, int x, int y, int pressure, int major, int minor) {
+        if (id < 0 || id > MAX_POINTER_ID) {
+            TouchEncoder.writeContact(buffer(), TouchEncoder.MOVE, id, x, y, pressure, major, minor);
+            TouchEncoder.writeCommit(mBuf);
+            return;
+        }
+
+        mX[id] = x;
+        mY[id] = y;
+        mPressure[id] = pressure;
+        mMajor[id] = major;
+        mMinor[id] = minor;
+        mPendingMask |= 1 << id;
+    }
+
+    void up(int id) {
+        writePending();
+        TouchEncoder.writeUp(buffer(), id);
+        TouchEncoder.writeCommit(mBuf);
+        flush();
+    }
+
+    /**
+     * @return true if there are commands waiting for flush
+     */
+    boolean hasPending() {
+        return mPendingMask != 0 || mBuf != null;
+    }
+
+    /**
+     * Send pending commands in one message.
+     */
+    void flush() {
+        writePending();
+        if (mBuf != null) {
+            ByteBuf buf = mBuf;
+            mBuf = null;
+            mMessageCount.incrementAndGet();
+            if (mTracker != null && mInputTime >= 0) {
+                mTracker.onTouchSent(mInputTime);
+            }
+            mListener.onTouchInfo(buf);
+        }
+        mInputTime = -1;
+    }
+
+    /**
+     * Drop pending commands.
+     */
+    void reset() {
+        mPendingMask = 0;
+        mInputTime = -1;
+        if (mBuf != null) {
+            mBuf.release();
+            mBuf = null;
+        }
+    }
+
+    /**
+     * @return input samples received
+     */
+    long getEventCount() {
+        return mEventCount.get();
+    }
+
+    /**
+     * @return messages sent
+     */
+    long getMessageCount() {
+        return mMessageCount.get();
+    }
+
+    private void writePending() {
+        if (mPendingMask == 0) {
+            return;
+        }
+
+        ByteBuf buf = buffer();
+        for (int id = 0; id <= MAX_POINTER_ID; id++) {
+            if ((mPendingMask & (1 << id)) != 0) {
+                TouchEncoder.writeContact(buf, TouchEncoder.MOVE, id,
+                        mX[id], mY[id], mPressure[id], mMajor[id], mMinor[id]);
+            }
+        }
+        TouchEncoder.writeCommit(buf);
+        mPendingMask = 0;
+    }
+
+    private ByteBuf buffer() {
+        if (mBuf == null) {
+            mBuf = mAllocator.buffer(INITIAL_CAPACITY);
+        }
+        return mBuf;
+    }
+}
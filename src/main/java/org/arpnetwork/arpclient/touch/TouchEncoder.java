@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.touch;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Writes touch commands in the text format of remote device,
+ * straight into a buffer without formatting strings:
+ * <pre>
+ * d|m id x y pressure major minor \n
+ * u id \n
+ * c\n
+ * </pre>
+ */
+final class TouchEncoder {
+    static final byte DOWN = 'd';
+    static final byte MOVE = 'm';
+    static final byte UP = 'u';
+    static final byte COMMIT = 'c';
+
+    private static final byte SPACE = ' ';
+    private static final byte NEW_LINE = '\n';
+    private static final byte[] MIN_INT = String.valueOf(Integer.MIN_VALUE).getBytes();
+
+    private TouchEncoder() {
+    }
+
+    /**
+     * Write a down or move command.
+     *
+     * @param type {@link #DOWN} or {@link #MOVE}
+     */
+    static void writeContact(ByteBuf buf, byte type, int id, int x, int y,
+            int pressure, int major, int minor) {
+        buf.writeByte(type);
+        writeField(buf, id);
+        writeField(buf, x);
+        writeField(buf, y);
+        writeField(buf, pressure);
+        writeField(buf, major);
+        writeField(buf, minor);
+        buf.writeByte(SPACE);
+        buf.writeByte(NEW_LINE);
+    }
+
+    static void writeUp(ByteBuf buf, int id) {
+        buf.writeByte(UP);
+        writeField(buf, id);
+        buf.writeByte(SPACE);
+        buf.writeByte(NEW_LINE);
+    }
+
+    static void writeCommit(ByteBuf buf) {
+        buf.writeByte(COMMIT);
+        buf.writeByte(NEW_LINE);
+    }
+
+    /**
+     * Write the decimal digits of value, same as {@link Integer#toString(int)}.
+     */
+    static void writeInt(ByteBuf buf, int value) {
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                buf.writeBytes(MIN_INT);
+                return;
+            }
+            buf.writeByte('-');
+            value = -value;
+        }
+
+        int digits = digitCount(value);
+        buf.ensureWritable(digits);
+        int end = buf.writerIndex() + digits;
+        for (int i = end - 1; i >= buf.writerIndex(); i--) {
+            buf.setByte(i, '0' + value % 10);
+            value /= 10;
+        }
+        buf.writerIndex(end);
+    }
+
+    private static void writeField(ByteBuf buf, int value) {
+        buf.writeByte(SPACE);
+        writeInt(buf, value);
+    }
+
+    private static int digitCount(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+}
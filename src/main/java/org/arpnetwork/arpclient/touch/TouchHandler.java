@@ -16,27 +16,36 @@
 
 package org.arpnetwork.arpclient.touch;
 
+import android.os.Handler;
 import android.view.MotionEvent;
 
 import org.arpnetwork.arpclient.data.TouchSetting;
 
-import java.util.Locale;
+import io.netty.buffer.ByteBuf;
 
 public class TouchHandler {
+    private static final int DEFAULT_FLUSH_DELAY = 4; // ms
+
     private boolean mLandscape;
 
     private TouchSetting mTouchSetting;
 
-    private OnTouchInfoListener mListener;
-
-    private StringBuilder mBuilder = new StringBuilder();
+    private TouchBatcher mBatcher;
+    private Handler mHandler = new Handler();
+    private int mFlushDelay = DEFAULT_FLUSH_DELAY;
+    private boolean mFlushPosted;
 
     public interface OnTouchInfoListener {
-        void onTouchInfo(String touchInfo);
+        /**
+         * Touch commands of one or more events.
+         *
+         * @param touchInfo ascii commands, to be released by the listener
+         */
+        void onTouchInfo(ByteBuf touchInfo);
     }
 
     public TouchHandler(OnTouchInfoListener listener) {
-        mListener = listener;
+        mBatcher = new TouchBatcher(listener);
     }
 
     /**
@@ -57,6 +66,48 @@ public class TouchHandler {
         mLandscape = landscape;
     }
 
+    /**
+     * Set how long moves may wait to be coalesced with later ones,
+     * downs and ups are always sent at once.
+     *
+     * @param delay delay in milliseconds, 0 to send every event at once
+     */
+    public void setFlushDelay(int delay) {
+        mFlushDelay = delay;
+    }
+
+    /**
+     * Set tracker to tag sent touch messages for latency measurement.
+     *
+     * @param tracker Input latency tracker
+     */
+    public void setInputLatencyTracker(InputLatencyTracker tracker) {
+        mBatcher.setInputLatencyTracker(tracker);
+    }
+
+    /**
+     * Drop commands not sent yet.
+     */
+    public void reset() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushPosted = false;
+        mBatcher.reset();
+    }
+
+    /**
+     * @return Touch samples received, including historical ones of batched moves
+     */
+    public long getEventCount() {
+        return mBatcher.getEventCount();
+    }
+
+    /**
+     * @return Touch messages sent to remote device
+     */
+    public long getMessageCount() {
+        return mBatcher.getMessageCount();
+    }
+
     /**
      * Transform touch event into commands for remote device.
      *
@@ -70,57 +121,81 @@ public class TouchHandler {
 
         final int action = ev.getActionMasked();
 
-        clearStringBuilder();
-
         switch (action) {
             case MotionEvent.ACTION_DOWN:
             case MotionEvent.ACTION_POINTER_DOWN:
-                appendTouchInfoString(ev.getActionIndex(), "d", ev);
+                mBatcher.addEvents(1, inputTime(ev.getEventTime()));
+                contact(ev.getActionIndex(), true, ev);
                 break;
 
             case MotionEvent.ACTION_MOVE:
+                // only the latest sample of each pointer is sent,
+                // the historical ones are coalesced into it
+                int historySize = ev.getHistorySize();
+                mBatcher.addEvents(historySize + 1, inputTime(historySize > 0
+                        ? ev.getHistoricalEventTime(0) : ev.getEventTime()));
                 for (int i = 0; i < ev.getPointerCount(); i++) {
-                    appendTouchInfoString(i, "m", ev);
+                    contact(i, false, ev);
                 }
                 break;
 
             case MotionEvent.ACTION_POINTER_UP:
-                appendUpString(ev.getPointerId(ev.getActionIndex()));
+                mBatcher.addEvents(1, inputTime(ev.getEventTime()));
+                mBatcher.up(ev.getPointerId(ev.getActionIndex()));
                 break;
 
             case MotionEvent.ACTION_UP:
             case MotionEvent.ACTION_CANCEL:
-                appendUpString(ev.getPointerId(0));
+                mBatcher.addEvents(1, inputTime(ev.getEventTime()));
+                mBatcher.up(ev.getPointerId(0));
                 break;
         }
-        if (mBuilder.length() > 0) {
-            mBuilder.append("c\n");
-            mListener.onTouchInfo(mBuilder.toString());
+
+        if (!mBatcher.hasPending()) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mFlushPosted = false;
+        } else if (mFlushDelay <= 0) {
+            mBatcher.flush();
+        } else if (!mFlushPosted) {
+            mHandler.postDelayed(mFlushRunnable, mFlushDelay);
+            mFlushPosted = true;
         }
         return true;
     }
 
-    private void clearStringBuilder() {
-        mBuilder.setLength(0);
+    /**
+     * Event time is in the uptime base, which is the monotonic clock
+     * also behind {@link System#nanoTime()}.
+     */
+    private static long inputTime(long eventTime) {
+        return eventTime * 1000;
     }
 
-    private void appendTouchInfoString(int index, String type, MotionEvent ev) {
+    private void contact(int index, boolean down, MotionEvent ev) {
         float x = ev.getX(index);
         float y = ev.getY(index);
         if (x < 0 || y < 0) {
             return;
         }
-        String touchString = String.format(Locale.US, "%s %d %d %d %d %d %d \n", type, ev.getPointerId(index),
-                mTouchSetting.getTransformedPoint(x, y, mLandscape).x,
-                mTouchSetting.getTransformedPoint(x, y, mLandscape).y,
-                mTouchSetting.getTransformedPressure(ev.getPressure(index)),
-                mTouchSetting.getTransformedTouchMajor(ev.getTouchMajor(index)),
-                mTouchSetting.getTransformedTouchMinor(ev.getTouchMinor(index)));
-
-        mBuilder.append(touchString);
-    }
 
-    private void appendUpString(int id) {
-        mBuilder.append(String.format(Locale.US, "u %d \n", id));
+        int id = ev.getPointerId(index);
+        int transformedX = mTouchSetting.getTransformedX(x, y, mLandscape);
+        int transformedY = mTouchSetting.getTransformedY(x, y, mLandscape);
+        int pressure = mTouchSetting.getTransformedPressure(ev.getPressure(index));
+        int major = mTouchSetting.getTransformedTouchMajor(ev.getTouchMajor(index));
+        int minor = mTouchSetting.getTransformedTouchMinor(ev.getTouchMinor(index));
+        if (down) {
+            mBatcher.down(id, transformedX, transformedY, pressure, major, minor);
+        } else {
+            mBatcher.move(id, transformedX, transformedY, pressure, major, minor);
+        }
     }
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFlushPosted = false;
+            mBatcher.flush();
+        }
+    };
 }
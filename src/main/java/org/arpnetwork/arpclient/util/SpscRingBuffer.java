@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.util;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+abstract class SpscRingBufferPad0 {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class SpscRingBufferProducer extends SpscRingBufferPad0 {
+    volatile long mTail;
+    long mHeadCache;
+}
+
+abstract class SpscRingBufferPad1 extends SpscRingBufferProducer {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class SpscRingBufferConsumer extends SpscRingBufferPad1 {
+    volatile long mHead;
+    long mTailCache;
+    volatile Thread mWaiter;
+}
+
+abstract class SpscRingBufferPad2 extends SpscRingBufferConsumer {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
+
+/**
+ * Bounded single-producer/single-consumer ring buffer.
+ * Producer and consumer indexes are padded to separate cache lines,
+ * an empty consumer parks in {@link #take()} until the producer offers an element.
+ *
+ * @param <E> element type
+ */
+public class SpscRingBuffer<E> extends SpscRingBufferPad2 {
+    private static final AtomicLongFieldUpdater<SpscRingBufferConsumer> HEAD =
+            AtomicLongFieldUpdater.newUpdater(SpscRingBufferConsumer.class, "mHead");
+
+    private final Object[] mBuffer;
+    private final int mMask;
+
+    /**
+     * @param capacity Minimum capacity, rounded up to a power of two
+     */
+    public SpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mBuffer = new Object[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * @return Buffer capacity
+     */
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * @return Count of elements, approximate when called concurrently
+     */
+    public int size() {
+        return (int) (mTail - mHead);
+    }
+
+    public boolean isEmpty() {
+        return mTail == mHead;
+    }
+
+    /**
+     * Add an element, called by the producer thread only.
+     *
+     * @param e Element
+     * @return false if the buffer is full
+     */
+    public boolean offer(E e) {
+        long tail = mTail;
+        if (tail - mHeadCache >= mBuffer.length) {
+            mHeadCache = mHead;
+            if (tail - mHeadCache >= mBuffer.length) {
+                return false;
+            }
+        }
+
+        mBuffer[(int) tail & mMask] = e;
+        // volatile store, so the waiter check below can not be reordered before it
+        mTail = tail + 1;
+
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
+    }
+
+    /**
+     * Remove an element, called by the consumer thread only.
+     *
+     * @return Element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long head = mHead;
+        if (head >= mTailCache) {
+            mTailCache = mTail;
+            if (head >= mTailCache) {
+                return null;
+            }
+        }
+
+        int index = (int) head & mMask;
+        E e = (E) mBuffer[index];
+        mBuffer[index] = null;
+        HEAD.lazySet(this, head + 1);
+        return e;
+    }
+
+    /**
+     * Get an element without removing it, called by the consumer thread only.
+     *
+     * @param index Index from the head of buffer
+     * @return Element, or null if index is out of range
+     */
+    @SuppressWarnings("unchecked")
+    public E peek(int index) {
+        long head = mHead;
+        if (index < 0 || head + index >= mTail) {
+            return null;
+        }
+        return (E) mBuffer[(int) (head + index) & mMask];
+    }
+
+    /**
+     * Remove an element, waiting until one is available.
+     * Called by the consumer thread only.
+     *
+     * @return Element
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public E take() throws InterruptedException {
+        E e = poll();
+        if (e != null) {
+            return e;
+        }
+
+        mWaiter = Thread.currentThread();
+        try {
+            while ((e = poll()) == null) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.park(this);
+            }
+        } finally {
+            mWaiter = null;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.util;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs blocking teardown tasks concurrently off the calling thread,
+ * and reports completion once all of them finished or the time limit passed.
+ * Tasks still running after the limit are left to finish on their own.
+ */
+public class Teardown {
+    private static final String TAG = Teardown.class.getSimpleName();
+
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "arp-teardown");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final List<Runnable> mTasks = new ArrayList<>();
+    // callbacks waiting for the end, null once ended
+    private List<Runnable> mCallbacks = new ArrayList<>();
+
+    /**
+     * @param task blocking task, run on a background thread
+     */
+    public void add(Runnable task) {
+        mTasks.add(task);
+    }
+
+    /**
+     * Start all tasks.
+     *
+     * @param timeout  time limit in milliseconds
+     * @param onDone   called when all tasks finished or the time is up, may be null
+     * @param executor executor to call onDone on
+     */
+    public void start(final long timeout, final Runnable onDone, final Executor executor) {
+        if (onDone != null) {
+            whenDone(onDone, executor);
+        }
+
+        final CountDownLatch latch = new CountDownLatch(mTasks.size());
+        for (final Runnable task : mTasks) {
+            sExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "teardown", e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        mTasks.clear();
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                        Log.w(TAG, "teardown timed out, " + latch.getCount() + " tasks still running");
+                    }
+                } catch (InterruptedException ignored) {
+                }
+                finish();
+            }
+        });
+    }
+
+    /**
+     * Call back once all tasks finished or the time limit passed,
+     * right away if that was the case already.
+     *
+     * @param callback called when done
+     * @param executor executor to call back on
+     */
+    public void whenDone(final Runnable callback, final Executor executor) {
+        Runnable dispatch = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(callback);
+            }
+        };
+        synchronized (this) {
+            if (mCallbacks != null) {
+                mCallbacks.add(dispatch);
+                return;
+            }
+        }
+        dispatch.run();
+    }
+
+    private void finish() {
+        List<Runnable> callbacks;
+        synchronized (this) {
+            callbacks = mCallbacks;
+            mCallbacks = null;
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+}
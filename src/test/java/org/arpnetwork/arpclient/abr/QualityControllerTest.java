@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.abr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QualityControllerTest {
+    private static final int LOW = 1;
+    private static final int HIGH = 2;
+    private static final long BYTES_PER_SAMPLE = 500000;
+
+    private long mBytes;
+    private long mDropped;
+
+    @Test
+    public void stepDownOnSustainedCongestion() {
+        QualityController controller = new QualityController(LOW, HIGH, HIGH);
+        clean(controller, 5);
+
+        assertEquals(HIGH, congested(controller, 1));
+        assertEquals(LOW, congested(controller, 1));
+        assertEquals(LOW, congested(controller, 5));
+    }
+
+    @Test
+    public void stepUpAfterCleanRun() {
+        QualityController controller = new QualityController(LOW, HIGH, LOW);
+        clean(controller, 10);
+        assertEquals(LOW, controller.getQuality());
+
+        clean(controller, 1);
+        assertEquals(HIGH, controller.getQuality());
+    }
+
+    @Test
+    public void throughputCollapse() {
+        QualityController controller = new QualityController(LOW, HIGH, HIGH);
+        clean(controller, 5);
+
+        // arrival slows down as the link backs up
+        controller.update(mBytes += BYTES_PER_SAMPLE / 10, mDropped, 0, 2, 20000);
+        assertEquals(LOW, controller.update(mBytes += BYTES_PER_SAMPLE / 10, mDropped, 0, 3, 30000));
+    }
+
+    @Test
+    public void stillScreenOnCleanLink() {
+        QualityController controller = new QualityController(LOW, HIGH, HIGH);
+        clean(controller, 5);
+
+        // no motion, tiny frames arrive on time
+        for (int i = 0; i < 20; i++) {
+            assertEquals(HIGH, controller.update(mBytes += BYTES_PER_SAMPLE / 50, mDropped, 0, 1, 10000));
+        }
+    }
+
+    @Test
+    public void backOffAfterFailedStepUp() {
+        QualityController controller = new QualityController(LOW, HIGH, LOW);
+        clean(controller, 11);
+        assertEquals(HIGH, controller.getQuality());
+
+        // congested right after stepping up, the next step up waits twice as long
+        congested(controller, 2);
+        assertEquals(LOW, controller.getQuality());
+        clean(controller, 19);
+        assertEquals(LOW, controller.getQuality());
+        clean(controller, 1);
+        assertEquals(HIGH, controller.getQuality());
+    }
+
+    @Test
+    public void countsRestart() {
+        QualityController controller = new QualityController(LOW, HIGH, HIGH);
+        clean(controller, 5);
+
+        // a new decoder thread starts its counts from zero
+        mBytes = 0;
+        mDropped = 0;
+        assertEquals(HIGH, controller.update(mBytes, mDropped, 0, 0, 0));
+        assertEquals(HIGH, congested(controller, 1));
+    }
+
+    private void clean(QualityController controller, int samples) {
+        for (int i = 0; i < samples; i++) {
+            controller.update(mBytes += BYTES_PER_SAMPLE, mDropped, 0, 1, 10000);
+        }
+    }
+
+    private int congested(QualityController controller, int samples) {
+        int quality = 0;
+        for (int i = 0; i < samples; i++) {
+            quality = controller.update(mBytes += BYTES_PER_SAMPLE, mDropped += 2, 0, 1, 10000);
+        }
+        return quality;
+    }
+}
@@ -0,0 +1,73 @@
+package org.arpnetwork.arpclient.data;
+
+import org.junit.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AVPacketPoolTest {
+
+    @Test
+    public void recycle() {
+        AVPacketPool pool = new AVPacketPool(2);
+        ByteBuf data = Unpooled.buffer(16).writeZero(16);
+
+        AVPacket packet = pool.acquire(1, data);
+        assertEquals(16, packet.size);
+        packet.release();
+        assertEquals(0, data.refCnt());
+        assertNull(packet.data);
+
+        AVPacket reused = pool.acquire(2, Unpooled.buffer(8).writeZero(8));
+        assertSame(packet, reused);
+        assertEquals(2, reused.pts);
+        assertEquals(8, reused.size);
+
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void overflow() {
+        AVPacketPool pool = new AVPacketPool(1);
+        AVPacket first = pool.acquire(0, Unpooled.buffer(1));
+        AVPacket second = pool.acquire(0, Unpooled.buffer(1));
+        first.release();
+        second.release();
+
+        assertEquals(2, pool.getMissCount());
+        assertEquals(1, pool.getOverflowCount());
+    }
+
+    @Test
+    public void releaseTwice() {
+        AVPacketPool pool = new AVPacketPool(2);
+        AVPacket packet = pool.acquire(0, Unpooled.buffer(1));
+        packet.release();
+        packet.release();
+
+        // recycled once, so the next two packets are not the same object
+        AVPacket first = pool.acquire(1, Unpooled.buffer(1));
+        AVPacket second = pool.acquire(2, Unpooled.buffer(1));
+        assertSame(packet, first);
+        assertNotSame(first, second);
+        assertEquals(1, pool.getHitCount());
+    }
+
+    @Test
+    public void steadyState() {
+        AVPacketPool pool = new AVPacketPool(4);
+        for (int i = 0; i < 1000; i++) {
+            pool.acquire(i, Unpooled.buffer(1)).release();
+        }
+
+        assertEquals(1, pool.getMissCount());
+        assertEquals(999, pool.getHitCount());
+        assertEquals(0, pool.getOverflowCount());
+    }
+}
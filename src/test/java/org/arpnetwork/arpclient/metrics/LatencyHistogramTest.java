@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void buckets() {
+        for (long value = 0; value < 100000; value += 7) {
+            long estimate = LatencyHistogram.valueOf(LatencyHistogram.bucketOf(value));
+            assertTrue(Math.abs(estimate - value) <= value / 16 + 1);
+        }
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.bucketOf(1L << 50));
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(-1, histogram.getPercentile(50));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100);
+        }
+        histogram.record(-1);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertNear(50000, histogram.getPercentile(50));
+        assertNear(95000, histogram.getPercentile(95));
+        assertNear(99000, histogram.getPercentile(99));
+        assertEquals(100000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected " + expected + " was " + actual, Math.abs(expected - actual) <= expected / 16);
+    }
+}
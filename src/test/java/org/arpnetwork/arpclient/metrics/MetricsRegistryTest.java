@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MetricsRegistryTest {
+    private static final int THREADS = 4;
+    private static final int INCREMENTS = 100000;
+
+    @Test
+    public void concurrentCounter() throws Exception {
+        final Counter counter = new MetricsRegistry().counter("test");
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < INCREMENTS; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(THREADS * INCREMENTS, counter.get());
+    }
+
+    @Test
+    public void snapshot() {
+        MetricsRegistry registry = new MetricsRegistry();
+        assertSame(registry.counter(Metrics.RECONNECTS), registry.counter(Metrics.RECONNECTS));
+        registry.counter(Metrics.RECONNECTS).add(3);
+        registry.gauge(Metrics.VIDEO_QUEUE_DEPTH, new Gauge() {
+            @Override
+            public long get() {
+                return 7;
+            }
+        });
+        registry.histogram(Metrics.RTT).record(20000);
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        registry.counter(Metrics.RECONNECTS).increment();
+
+        assertEquals(3, snapshot.getValue(Metrics.RECONNECTS));
+        assertEquals(7, snapshot.getValue(Metrics.VIDEO_QUEUE_DEPTH));
+        assertEquals(0, snapshot.getValue("unknown"));
+        assertEquals(1, snapshot.getHistogram(Metrics.RTT).count);
+        assertEquals(20000, snapshot.getHistogram(Metrics.RTT).max);
+    }
+}
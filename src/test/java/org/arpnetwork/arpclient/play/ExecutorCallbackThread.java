@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Callback thread for tests on the JVM, where Android handlers do not run.
+ * Backed by a single thread scheduled executor.
+ */
+class ExecutorCallbackThread implements CallbackThread {
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public CallbackThread create(String name) {
+            return new ExecutorCallbackThread();
+        }
+    };
+
+    private final ScheduledExecutorService mExecutor = new ScheduledThreadPoolExecutor(1);
+    private final Map<Runnable, List<Future<?>>> mPending = new IdentityHashMap<>();
+
+    @Override
+    public Handler getHandler() {
+        return null;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable task, long delayMillis) {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+
+        List<Future<?>> futures = mPending.get(task);
+        if (futures == null) {
+            futures = new ArrayList<>();
+            mPending.put(task, futures);
+        }
+        for (Iterator<Future<?>> it = futures.iterator(); it.hasNext(); ) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+        futures.add(mExecutor.schedule(task, delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public synchronized void removeCallbacks(Runnable task) {
+        List<Future<?>> futures = mPending.remove(task);
+        if (futures != null) {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    @Override
+    public void quit() {
+        synchronized (this) {
+            mExecutor.shutdownNow();
+            mPending.clear();
+        }
+        try {
+            mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Audio sink for tests on the JVM, plays everything written at once.
+ */
+class FakeAudioSink implements AudioSink {
+    private static final int BYTES_PER_FRAME = 4;
+
+    private volatile long mBytesWritten;
+    private volatile boolean mPlaying;
+    private volatile boolean mReleased;
+
+    Factory factory() {
+        return new Factory() {
+            @Override
+            public AudioSink create(int sampleRate, int channelCount) {
+                return FakeAudioSink.this;
+            }
+        };
+    }
+
+    long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    boolean isPlaying() {
+        return mPlaying;
+    }
+
+    boolean isReleased() {
+        return mReleased;
+    }
+
+    @Override
+    public void play() {
+        mPlaying = true;
+    }
+
+    @Override
+    public int write(ByteBuffer buffer) {
+        int size = buffer.remaining();
+        buffer.position(buffer.limit());
+        mBytesWritten += size;
+        return size;
+    }
+
+    @Override
+    public long getPlaybackHeadPosition() {
+        return mBytesWritten / BYTES_PER_FRAME;
+    }
+
+    @Override
+    public void setPlaybackRate(int sampleRate) {
+    }
+
+    @Override
+    public void release() {
+        mPlaying = false;
+        mReleased = true;
+    }
+}
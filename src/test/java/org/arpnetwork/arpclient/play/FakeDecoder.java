@@ -0,0 +1,428 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decoder for tests on the JVM, in sync mode or with callbacks.
+ * Output is a copy of input after the decode latency, optionally reordered,
+ * and output fails after a number of frames if asked to.
+ * With callbacks, buffer events are posted to the given {@link CallbackThread}.
+ */
+class FakeDecoder implements Decoder {
+    private static final int BUFFER_COUNT = 4;
+
+    private long mLatencyNanos;
+    private int mReorderInterval;
+    private int mFailAfter = -1;
+    private boolean mAdaptivePlayback;
+    private boolean mFormatChangePending;
+    private int mCreated;
+    private int mReleased;
+
+    private final ByteBuffer[] mInputBuffers = new ByteBuffer[BUFFER_COUNT];
+    private final ArrayDeque<Integer> mFreeInputs = new ArrayDeque<>();
+    private final ArrayDeque<Frame> mDecoding = new ArrayDeque<>();
+    private final ByteBuffer[] mOutputBuffers = new ByteBuffer[BUFFER_COUNT];
+    private final long[] mOutputPts = new long[BUFFER_COUNT];
+    private final ArrayDeque<Integer> mFreeOutputs = new ArrayDeque<>();
+    private Frame mHeld;
+    private int mQueued;
+    private int mOutputs;
+
+    private Callback mCallback;
+    private CallbackThread mCallbackThread;
+    private boolean mFailureReported;
+    private final Runnable mDeliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    private final List<Long> mRendered = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<Long> mDropped = Collections.synchronizedList(new ArrayList<Long>());
+
+    private boolean mStarted;
+
+    FakeDecoder() {
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mInputBuffers[i] = ByteBuffer.allocate(64 * 1024);
+        }
+        resetBuffers();
+    }
+
+    Factory factory() {
+        return new Factory() {
+            @Override
+            public Decoder create(String mimeType) {
+                synchronized (FakeDecoder.this) {
+                    mCreated++;
+                }
+                return FakeDecoder.this;
+            }
+
+            @Override
+            public boolean supportsCallback() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param millis Time from queueing input to the output being available
+     */
+    FakeDecoder setLatency(long millis) {
+        mLatencyNanos = millis * 1000000;
+        return this;
+    }
+
+    /**
+     * @param interval Swap every n-th frame with the next one in output order
+     */
+    FakeDecoder setReorderInterval(int interval) {
+        mReorderInterval = interval;
+        return this;
+    }
+
+    /**
+     * @param outputs Throw from dequeueOutputBuffer after so many outputs
+     */
+    FakeDecoder setFailAfter(int outputs) {
+        mFailAfter = outputs;
+        return this;
+    }
+
+    /**
+     * @param supported Report adaptive playback as supported
+     */
+    FakeDecoder setAdaptivePlayback(boolean supported) {
+        mAdaptivePlayback = supported;
+        return this;
+    }
+
+    /**
+     * Report an output format change before the next output, as on a new size in the stream.
+     */
+    synchronized void changeFormat() {
+        mFormatChangePending = true;
+    }
+
+    /**
+     * @return Times the factory was asked for a decoder
+     */
+    synchronized int getCreatedCount() {
+        return mCreated;
+    }
+
+    /**
+     * @return Decoders created and not released yet
+     */
+    synchronized int getLiveCount() {
+        return mCreated - mReleased;
+    }
+
+    /**
+     * @return true if switched to callbacks
+     */
+    synchronized boolean hasCallback() {
+        return mCallback != null;
+    }
+
+    /**
+     * @return Count of frames rendered or dropped at render time, without copying them
+     */
+    int getOutputCount() {
+        return mRendered.size() + mDropped.size();
+    }
+
+    List<Long> getRendered() {
+        synchronized (mRendered) {
+            return new ArrayList<>(mRendered);
+        }
+    }
+
+    List<Long> getDropped() {
+        synchronized (mDropped) {
+            return new ArrayList<>(mDropped);
+        }
+    }
+
+    @Override
+    public synchronized void setCallback(Callback callback, CallbackThread thread) {
+        mCallback = callback;
+        mCallbackThread = thread;
+    }
+
+    @Override
+    public void configure(MediaFormat format, Surface surface) {
+    }
+
+    @Override
+    public synchronized void start() {
+        resetBuffers();
+        mFailureReported = false;
+        mStarted = true;
+        if (mCallback != null) {
+            mCallbackThread.post(mDeliverRunnable);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        mStarted = false;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void release() {
+        mReleased++;
+    }
+
+    @Override
+    public synchronized int dequeueInputBuffer(long timeoutUs) {
+        long deadline = timeoutUs < 0 ? Long.MAX_VALUE : System.nanoTime() + timeoutUs * 1000;
+        while (mFreeInputs.isEmpty()) {
+            checkStarted();
+            if (!await(deadline)) {
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+        }
+        return mFreeInputs.poll();
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mInputBuffers[index];
+    }
+
+    @Override
+    public synchronized void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        checkStarted();
+        Frame frame = new Frame(index, presentationTimeUs, size, System.nanoTime() + mLatencyNanos);
+        mQueued++;
+
+        if (mHeld != null) {
+            mDecoding.add(frame);
+            frame = mHeld;
+            frame.mReadyTime = System.nanoTime() + mLatencyNanos;
+            mHeld = null;
+        } else if (mReorderInterval > 0 && mQueued % mReorderInterval == 0) {
+            mHeld = frame;
+            return;
+        }
+        mDecoding.add(frame);
+        notifyAll();
+        if (mCallback != null) {
+            mCallbackThread.post(mDeliverRunnable);
+        }
+    }
+
+    @Override
+    public synchronized int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs) {
+        checkStarted();
+        if (mFailAfter >= 0 && mOutputs >= mFailAfter) {
+            throw new IllegalStateException("injected failure");
+        }
+        if (mFormatChangePending) {
+            mFormatChangePending = false;
+            return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+        }
+
+        long deadline = System.nanoTime() + timeoutUs * 1000;
+        while (true) {
+            Frame frame = mDecoding.peek();
+            long now = System.nanoTime();
+            if (frame != null && frame.mReadyTime <= now && !mFreeOutputs.isEmpty()) {
+                return takeOutput(info);
+            }
+
+            if (now >= deadline) {
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+            await(frame != null ? Math.min(deadline, frame.mReadyTime) : deadline);
+        }
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return mOutputBuffers[index];
+    }
+
+    @Override
+    public synchronized void releaseOutputBuffer(int index, boolean render) {
+        if (render) {
+            mRendered.add(mOutputPts[index]);
+        } else {
+            mDropped.add(mOutputPts[index]);
+        }
+        freeOutput(index);
+    }
+
+    @Override
+    public synchronized void releaseOutputBuffer(int index, long renderTimestampNs) {
+        mRendered.add(mOutputPts[index]);
+        freeOutput(index);
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return new MediaFormat();
+    }
+
+    @Override
+    public boolean supportsAdaptivePlayback(int maxWidth, int maxHeight) {
+        return mAdaptivePlayback;
+    }
+
+    private void resetBuffers() {
+        mFreeInputs.clear();
+        mFreeOutputs.clear();
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            mFreeInputs.add(i);
+            mFreeOutputs.add(i);
+        }
+        mDecoding.clear();
+        mHeld = null;
+    }
+
+    /**
+     * Move the next decoded frame to a free output buffer.
+     *
+     * @return Output buffer index
+     */
+    private int takeOutput(MediaCodec.BufferInfo info) {
+        Frame frame = mDecoding.poll();
+        mFreeInputs.add(frame.mInputIndex);
+        notifyAll();
+
+        int index = mFreeOutputs.poll();
+        mOutputs++;
+        mOutputBuffers[index] = ByteBuffer.allocate(frame.mSize);
+        mOutputPts[index] = frame.mPts;
+        info.offset = 0;
+        info.size = frame.mSize;
+        info.presentationTimeUs = frame.mPts;
+        info.flags = 0;
+        return index;
+    }
+
+    private void freeOutput(int index) {
+        mFreeOutputs.add(index);
+        notifyAll();
+        if (mCallback != null) {
+            mCallbackThread.post(mDeliverRunnable);
+        }
+    }
+
+    /**
+     * Hand free input buffers and decoded frames to the callback, on the callback thread.
+     * Callbacks are made without holding the decoder lock, like MediaCodec does.
+     */
+    private void deliver() {
+        while (true) {
+            int input = -1;
+            int output = -1;
+            boolean formatChanged = false;
+            boolean failed = false;
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+            synchronized (this) {
+                if (!mStarted || mFailureReported) {
+                    return;
+                }
+
+                Frame frame = mDecoding.peek();
+                long wait = frame != null ? frame.mReadyTime - System.nanoTime() : 0;
+                if (!mFreeInputs.isEmpty()) {
+                    input = mFreeInputs.poll();
+                } else if (mFailAfter >= 0 && mOutputs >= mFailAfter) {
+                    mFailureReported = true;
+                    failed = true;
+                } else if (mFormatChangePending) {
+                    mFormatChangePending = false;
+                    formatChanged = true;
+                } else if (frame == null || mFreeOutputs.isEmpty()) {
+                    return;
+                } else if (wait > 0) {
+                    mCallbackThread.removeCallbacks(mDeliverRunnable);
+                    mCallbackThread.postDelayed(mDeliverRunnable, (wait + 999999) / 1000000);
+                    return;
+                } else {
+                    output = takeOutput(info);
+                }
+            }
+
+            if (input >= 0) {
+                mCallback.onInputBufferAvailable(input);
+            } else if (failed) {
+                mCallback.onError(new IllegalStateException("injected failure"));
+            } else if (formatChanged) {
+                mCallback.onOutputFormatChanged(getOutputFormat());
+            } else {
+                mCallback.onOutputBufferAvailable(output, info);
+            }
+        }
+    }
+
+    private void checkStarted() {
+        if (!mStarted) {
+            throw new IllegalStateException("not started");
+        }
+    }
+
+    /**
+     * @return false if the deadline passed
+     */
+    private boolean await(long deadline) {
+        long wait = deadline - System.nanoTime();
+        if (wait <= 0) {
+            return false;
+        }
+        try {
+            long millis = wait / 1000000;
+            wait(millis, (int) (wait % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted");
+        }
+        return true;
+    }
+
+    private static class Frame {
+        final int mInputIndex;
+        final long mPts;
+        final int mSize;
+        long mReadyTime;
+
+        Frame(int inputIndex, long pts, int size, long readyTime) {
+            mInputIndex = inputIndex;
+            mPts = pts;
+            mSize = size;
+            mReadyTime = readyTime;
+        }
+    }
+}
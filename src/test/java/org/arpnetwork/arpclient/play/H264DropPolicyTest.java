@@ -0,0 +1,143 @@
+package org.arpnetwork.arpclient.play;
+
+import org.arpnetwork.arpclient.data.AVPacket;
+import org.arpnetwork.arpclient.util.SpscRingBuffer;
+import org.junit.Test;
+
+import io.netty.buffer.Unpooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class H264DropPolicyTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, 0x43};
+    private static final byte[] IDR = {0, 0, 0, 1, 0x65, (byte) 0x88};
+    private static final byte[] P_FRAME = {0, 0, 0, 1, 0x41, (byte) 0x9a};
+    private static final byte[] B_FRAME = {0, 0, 1, 0x01, (byte) 0x9e};
+    private static final byte[] SEI = {0, 0, 0, 1, 0x06, 0x05};
+
+    @Test
+    public void frameType() {
+        assertEquals(NalUnit.FRAME_KEY, NalUnit.getFrameType(Unpooled.wrappedBuffer(SPS, PPS, IDR)));
+        assertEquals(NalUnit.FRAME_CONFIG, NalUnit.getFrameType(Unpooled.wrappedBuffer(SPS, PPS)));
+        assertEquals(NalUnit.FRAME_REFERENCE, NalUnit.getFrameType(Unpooled.wrappedBuffer(SEI, P_FRAME)));
+        assertEquals(NalUnit.FRAME_NON_REFERENCE, NalUnit.getFrameType(Unpooled.wrappedBuffer(B_FRAME)));
+        assertEquals(NalUnit.FRAME_UNKNOWN, NalUnit.getFrameType(Unpooled.wrappedBuffer(new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    public void keepWithinBudget() {
+        H264DropPolicy policy = new H264DropPolicy(2);
+        SpscRingBuffer<AVPacket> backlog = backlog(P_FRAME, P_FRAME);
+
+        assertFalse(policy.shouldDrop(packet(B_FRAME), backlog));
+        assertFalse(policy.shouldDrop(packet(P_FRAME), backlog));
+        assertEquals(0, policy.getDroppedCount());
+    }
+
+    @Test
+    public void skipToKeyFrame() {
+        H264DropPolicy policy = new H264DropPolicy(2);
+        SpscRingBuffer<AVPacket> backlog = backlog(P_FRAME, SPS, IDR, P_FRAME);
+
+        assertTrue(policy.shouldDrop(packet(P_FRAME), backlog));
+        assertTrue(policy.shouldDrop(backlog.poll(), backlog));
+        assertFalse(policy.shouldDrop(backlog.poll(), backlog));
+        assertFalse(policy.shouldDrop(backlog.poll(), backlog));
+        assertFalse(policy.shouldDrop(backlog.poll(), backlog));
+
+        assertEquals(2, policy.getDroppedCount(PacketDropPolicy.REASON_SKIP_TO_KEY_FRAME));
+    }
+
+    @Test
+    public void resumeAtKeyFrame() {
+        H264DropPolicy policy = new H264DropPolicy(4);
+        SpscRingBuffer<AVPacket> backlog = backlog();
+
+        policy.requestKeyFrame();
+        assertTrue(policy.shouldDrop(packet(P_FRAME), backlog));
+        assertFalse(policy.shouldDrop(packet(SPS), backlog));
+        assertFalse(policy.shouldDrop(packet(IDR), backlog));
+        assertFalse(policy.shouldDrop(packet(P_FRAME), backlog));
+
+        assertEquals(1, policy.getDroppedCount(PacketDropPolicy.REASON_SKIP_TO_KEY_FRAME));
+    }
+
+    @Test
+    public void dropNonReferenceOnly() {
+        H264DropPolicy policy = new H264DropPolicy(1);
+        SpscRingBuffer<AVPacket> backlog = backlog(P_FRAME, B_FRAME, P_FRAME);
+
+        assertTrue(policy.shouldDrop(packet(B_FRAME), backlog));
+        assertFalse(policy.shouldDrop(packet(P_FRAME), backlog));
+
+        assertEquals(1, policy.getDroppedCount(PacketDropPolicy.REASON_NON_REFERENCE));
+        assertEquals(1, policy.getDroppedCount());
+    }
+
+    @Test
+    public void decodeKeyFramesOnly() {
+        H264DropPolicy policy = new H264DropPolicy(4);
+        SpscRingBuffer<AVPacket> backlog = backlog();
+
+        policy.setPriority(DecodePriority.KEY_FRAMES);
+        assertTrue(policy.shouldDrop(packet(P_FRAME), backlog));
+        assertTrue(policy.shouldDrop(packet(B_FRAME), backlog));
+        assertFalse(policy.shouldDrop(packet(SPS), backlog));
+        assertFalse(policy.shouldDrop(packet(IDR), backlog));
+
+        assertEquals(2, policy.getDroppedCount(PacketDropPolicy.REASON_PRIORITY));
+        // dropped by choice, not counted as congestion
+        assertEquals(0, policy.getDroppedCount());
+    }
+
+    @Test
+    public void reducedDropsNonReference() {
+        H264DropPolicy policy = new H264DropPolicy(4);
+        SpscRingBuffer<AVPacket> backlog = backlog();
+
+        policy.setPriority(DecodePriority.REDUCED);
+        assertTrue(policy.shouldDrop(packet(B_FRAME), backlog));
+        assertFalse(policy.shouldDrop(packet(P_FRAME), backlog));
+        assertFalse(policy.shouldDrop(packet(IDR), backlog));
+
+        assertEquals(1, policy.getDroppedCount(PacketDropPolicy.REASON_PRIORITY));
+    }
+
+    @Test
+    public void restoreAtKeyFrame() {
+        H264DropPolicy policy = new H264DropPolicy(4);
+        SpscRingBuffer<AVPacket> backlog = backlog();
+
+        policy.setPriority(DecodePriority.KEY_FRAMES);
+        assertTrue(policy.shouldDrop(packet(P_FRAME), backlog));
+        policy.setPriority(DecodePriority.FULL);
+        assertTrue(policy.shouldDrop(packet(P_FRAME), backlog));
+        assertFalse(policy.shouldDrop(packet(IDR), backlog));
+        assertFalse(policy.shouldDrop(packet(P_FRAME), backlog));
+        assertFalse(policy.shouldDrop(packet(B_FRAME), backlog));
+    }
+
+    @Test
+    public void dropOldestOfUnknownStream() {
+        H264DropPolicy policy = new H264DropPolicy(1);
+        byte[] unknown = {1, 2, 3};
+
+        assertTrue(policy.shouldDrop(packet(unknown), backlog(unknown, unknown)));
+        assertEquals(1, policy.getDroppedCount(PacketDropPolicy.REASON_BACKLOG));
+    }
+
+    private static AVPacket packet(byte[] data) {
+        return new AVPacket(0, Unpooled.wrappedBuffer(data));
+    }
+
+    private static SpscRingBuffer<AVPacket> backlog(byte[]... frames) {
+        SpscRingBuffer<AVPacket> backlog = new SpscRingBuffer<>(16);
+        for (byte[] frame : frames) {
+            backlog.offer(packet(frame));
+        }
+        return backlog;
+    }
+}
@@ -0,0 +1,97 @@
+package org.arpnetwork.arpclient.play;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JitterBufferTest {
+    private static final long FRAME_INTERVAL = 33333;
+    private static final long BASE_DELAY = 50000;
+    private static final long CLOCK_OFFSET = 123456789;
+
+    @Test
+    public void notStarted() {
+        JitterBuffer jitterBuffer = new JitterBuffer();
+        assertEquals(-1, jitterBuffer.getRenderTime(0));
+        assertFalse(jitterBuffer.isStarted());
+    }
+
+    @Test
+    public void noJitter() {
+        JitterBuffer jitterBuffer = new JitterBuffer();
+        for (int i = 0; i < 100; i++) {
+            long pts = i * FRAME_INTERVAL + CLOCK_OFFSET;
+            long arrival = i * FRAME_INTERVAL + BASE_DELAY;
+            jitterBuffer.onPacketArrived(pts, arrival);
+            assertEquals(arrival, jitterBuffer.getRenderTime(pts));
+        }
+        assertEquals(0, jitterBuffer.getTargetDelay());
+        assertEquals(FRAME_INTERVAL, jitterBuffer.getFrameInterval(), 100);
+    }
+
+    @Test
+    public void absorbJitter() {
+        Trace trace = new Trace(new JitterBuffer(), 20000);
+        trace.run(200);
+        trace.reset();
+        trace.run(600);
+
+        JitterBuffer jitterBuffer = trace.mJitterBuffer;
+        assertTrue(jitterBuffer.getTargetDelay() > 0);
+        assertTrue(jitterBuffer.getTargetDelay() <= 2 * FRAME_INTERVAL + 1000);
+        // most frames are ready before their render time
+        assertTrue("late " + trace.mLate, trace.mLate < 600 / 10);
+    }
+
+    @Test
+    public void capTargetDelay() {
+        Trace trace = new Trace(new JitterBuffer(1), 200000);
+        trace.run(300);
+
+        assertTrue(trace.mJitterBuffer.getTargetDelay() <= FRAME_INTERVAL + 1000);
+    }
+
+    @Test
+    public void decayAfterJitter() {
+        Trace trace = new Trace(new JitterBuffer(), 20000);
+        trace.run(300);
+        long jitterDelay = trace.mJitterBuffer.getTargetDelay();
+
+        trace.mMaxJitter = 0;
+        trace.run(600);
+        assertTrue(trace.mJitterBuffer.getTargetDelay() < jitterDelay / 4);
+    }
+
+    private static class Trace {
+        private JitterBuffer mJitterBuffer;
+        private Random mRandom = new Random(42);
+        private long mMaxJitter;
+        private int mFrame;
+        private int mLate;
+
+        Trace(JitterBuffer jitterBuffer, long maxJitter) {
+            mJitterBuffer = jitterBuffer;
+            mMaxJitter = maxJitter;
+        }
+
+        void run(int frames) {
+            for (int i = 0; i < frames; i++, mFrame++) {
+                long pts = mFrame * FRAME_INTERVAL + CLOCK_OFFSET;
+                long jitter = mMaxJitter > 0 ? (long) (mRandom.nextDouble() * mMaxJitter) : 0;
+                long arrival = mFrame * FRAME_INTERVAL + BASE_DELAY + jitter;
+                mJitterBuffer.onPacketArrived(pts, arrival);
+                if (mJitterBuffer.getRenderTime(pts) < arrival) {
+                    mLate++;
+                }
+            }
+        }
+
+        void reset() {
+            mLate = 0;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.arpnetwork.arpclient.play;
+
+import org.arpnetwork.arpclient.data.AVPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.Unpooled;
+
+/**
+ * Time from a video packet put by the socket thread to its frame rendered,
+ * through {@link VideoCodecThread} with a {@link FakeDecoder} of no decode latency,
+ * in sync mode with codec and render threads and in async mode with decoder callbacks.
+ * <p>
+ * Run with the test classpath: {@code java org.arpnetwork.arpclient.play.MediaPipelineBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MediaPipelineBenchmark {
+    private static final byte[] IDR = {0, 0, 0, 1, 0x65, (byte) 0x88, 0, 0};
+    private static final byte[] P_FRAME = {0, 0, 0, 1, 0x41, (byte) 0x9a, 0, 0};
+    private static final int GOP = 30;
+
+    @Param({"SYNC", "ASYNC"})
+    public String mode;
+
+    private FakeDecoder mDecoder;
+    private VideoCodecThread mThread;
+    private int mFrames;
+
+    // a new pipeline per iteration keeps the frames recorded by the fake decoder few
+    @Setup(Level.Iteration)
+    public void setUp() {
+        mDecoder = new FakeDecoder();
+        mThread = new VideoCodecThread();
+        mThread.setDecoderFactory(mDecoder.factory());
+        mThread.setCallbackThreadFactory(ExecutorCallbackThread.FACTORY);
+        mThread.setDecodeMode("ASYNC".equals(mode) ? DecodeMode.ASYNC : DecodeMode.SYNC);
+        mThread.start(null);
+        mFrames = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        mThread.stop();
+    }
+
+    @Benchmark
+    public int packetToRender() {
+        byte[] data = mFrames % GOP == 0 ? IDR : P_FRAME;
+        mThread.putPacket(new AVPacket(mFrames, Unpooled.wrappedBuffer(data)));
+        mFrames++;
+        while (mDecoder.getOutputCount() < mFrames) {
+            Thread.yield();
+        }
+        return mFrames;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MediaPipelineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
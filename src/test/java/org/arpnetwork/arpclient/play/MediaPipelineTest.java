@@ -0,0 +1,326 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import org.arpnetwork.arpclient.data.AVPacket;
+import org.arpnetwork.arpclient.metrics.LatencyHistogram;
+import org.arpnetwork.arpclient.protocol.ClockSync;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.Unpooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(Parameterized.class)
+public class MediaPipelineTest {
+    private static final byte[] IDR = {0, 0, 0, 1, 0x65, (byte) 0x88, 0, 0};
+    private static final byte[] P_FRAME = {0, 0, 0, 1, 0x41, (byte) 0x9a, 0, 0};
+    private static final int GOP = 10;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> decodeModes() {
+        return Arrays.asList(new Object[][]{
+                {"SYNC", DecodeMode.SYNC},
+                {"ASYNC", DecodeMode.ASYNC},
+        });
+    }
+
+    private final int mDecodeMode;
+
+    public MediaPipelineTest(String name, int decodeMode) {
+        mDecodeMode = decodeMode;
+    }
+
+    @Test(timeout = 10000)
+    public void renderAllFrames() throws Exception {
+        FakeDecoder decoder = new FakeDecoder().setLatency(1);
+        LatencyHistogram decodeLatency = new LatencyHistogram();
+        VideoCodecThread thread = new VideoCodecThread();
+        setDecoder(thread, decoder);
+        thread.setDecodeLatencyHistogram(decodeLatency);
+        thread.start(null);
+        assertEquals(mDecodeMode == DecodeMode.ASYNC, decoder.hasCallback());
+
+        feed(thread, 60, 3);
+        List<Long> rendered = awaitRendered(decoder, 60);
+        thread.stop();
+
+        for (int i = 0; i < 60; i++) {
+            assertEquals(Long.valueOf(i), rendered.get(i));
+        }
+        assertEquals(0, thread.getDroppedCount());
+        assertEquals(60, decodeLatency.getCount());
+        assertTrue(decodeLatency.getPercentile(50) >= 900);
+    }
+
+    @Test(timeout = 10000)
+    public void reorderedOutput() throws Exception {
+        FakeDecoder decoder = new FakeDecoder().setLatency(1).setReorderInterval(3);
+        VideoCodecThread thread = startVideo(decoder, new Listener());
+
+        feed(thread, 31, 3);
+        List<Long> rendered = awaitRendered(decoder, 30);
+        thread.stop();
+
+        assertEquals(Long.valueOf(3), rendered.get(2));
+        assertEquals(Long.valueOf(2), rendered.get(3));
+    }
+
+    @Test(timeout = 20000)
+    public void slowDecoderKeepsReferenceChain() throws Exception {
+        FakeDecoder decoder = new FakeDecoder().setLatency(30);
+        VideoCodecThread thread = startVideo(decoder, new Listener());
+
+        feed(thread, 200, 2);
+        Thread.sleep(1500);
+        thread.stop();
+
+        List<Long> rendered = decoder.getRendered();
+        assertTrue(thread.getDroppedCount() > 0);
+        assertEquals(thread.getDroppedCount(),
+                thread.getDroppedCount(PacketDropPolicy.REASON_SKIP_TO_KEY_FRAME));
+
+        // a frame is decoded only after every earlier frame of its GOP
+        for (int i = 1; i < rendered.size(); i++) {
+            long pts = rendered.get(i);
+            if (pts % GOP != 0) {
+                assertEquals(pts - 1, rendered.get(i - 1).longValue());
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void resyncAfterFullQueue() throws Exception {
+        FakeDecoder decoder = new FakeDecoder().setLatency(30);
+        VideoCodecThread thread = startVideo(decoder, new Listener());
+
+        // no key frame queued, so the policy keeps every frame until the queue overflows
+        thread.putPacket(new AVPacket(0, Unpooled.wrappedBuffer(IDR)));
+        for (int i = 1; i < 100; i++) {
+            thread.putPacket(new AVPacket(i, Unpooled.wrappedBuffer(P_FRAME)));
+        }
+        Thread.sleep(100);
+        for (int i = 100; i < 110; i++) {
+            thread.putPacket(new AVPacket(i, Unpooled.wrappedBuffer(P_FRAME)));
+        }
+        thread.putPacket(new AVPacket(110, Unpooled.wrappedBuffer(IDR)));
+        thread.putPacket(new AVPacket(111, Unpooled.wrappedBuffer(P_FRAME)));
+        List<Long> rendered = awaitPts(decoder, 111);
+        thread.stop();
+
+        assertTrue(thread.getDroppedCount(PacketDropPolicy.REASON_QUEUE_FULL) > 0);
+        assertTrue(thread.getDroppedCount() >= thread.getDroppedCount(PacketDropPolicy.REASON_QUEUE_FULL));
+        // frames after the lost ones are skipped up to the next key frame
+        for (int i = 1; i < rendered.size(); i++) {
+            long pts = rendered.get(i);
+            if (pts != 110) {
+                assertEquals(pts - 1, rendered.get(i - 1).longValue());
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void decoderFailure() throws Exception {
+        FakeDecoder decoder = new FakeDecoder().setLatency(1).setFailAfter(5);
+        Listener listener = new Listener();
+        VideoCodecThread thread = startVideo(decoder, listener);
+
+        feed(thread, 10, 3);
+        assertTrue(listener.mError.await(5, TimeUnit.SECONDS));
+        assertTrue(listener.mFirstFrame.await(0, TimeUnit.SECONDS));
+        thread.stop();
+
+        assertEquals(5, decoder.getRendered().size());
+    }
+
+    @Test(timeout = 10000)
+    public void switchSizeInPlace() throws Exception {
+        FakeDecoder decoder = new FakeDecoder().setLatency(1).setAdaptivePlayback(true);
+        LatencyHistogram switchTime = new LatencyHistogram();
+        LatencyHistogram switchGap = new LatencyHistogram();
+        VideoCodecThread thread = startVideo(decoder, new Listener());
+        thread.setSwitchHistograms(switchTime, switchGap);
+
+        feed(thread, 10, 3);
+        awaitRendered(decoder, 10);
+        assertTrue(thread.setVideoSize(1080, 1920));
+        decoder.changeFormat();
+        feed(thread, 10, 3);
+        awaitRendered(decoder, 20);
+        thread.stop();
+
+        assertEquals(1080, thread.getWidth());
+        assertEquals(1, decoder.getCreatedCount());
+        assertEquals(1, switchTime.getCount());
+        assertEquals(1, switchGap.getCount());
+    }
+
+    @Test
+    public void switchSizeNeedsNewDecoder() {
+        VideoCodecThread thread = startVideo(new FakeDecoder(), new Listener());
+        assertFalse(thread.setVideoSize(1080, 1920));
+        thread.stop();
+
+        thread = startVideo(new FakeDecoder().setAdaptivePlayback(true), new Listener());
+        assertFalse(thread.setVideoSize(2160, 3840));
+        thread.stop();
+
+        // not started yet, configured with the new size on start
+        thread = new VideoCodecThread();
+        assertTrue(thread.setVideoSize(2160, 3840));
+    }
+
+    @Test
+    public void startPreparedDecoder() {
+        FakeDecoder decoder = new FakeDecoder();
+        VideoCodecThread thread = new VideoCodecThread();
+        setDecoder(thread, decoder);
+
+        thread.prepare();
+        assertEquals(1, decoder.getCreatedCount());
+        thread.start(null);
+        thread.stop();
+        assertEquals(1, decoder.getCreatedCount());
+
+        // not prepared once stopped
+        thread.prepare();
+        assertEquals(1, decoder.getCreatedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void holdPacketsUntilStart() throws Exception {
+        FakeDecoder decoder = new FakeDecoder().setLatency(1);
+        VideoCodecThread thread = new VideoCodecThread();
+        setDecoder(thread, decoder);
+
+        // switched in while the previous thread still lets go of the surface
+        thread.holdPackets();
+        feed(thread, 5, 0);
+        thread.start(null);
+        feed(thread, 5, 3);
+        List<Long> rendered = awaitRendered(decoder, 10);
+        thread.stop();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Long.valueOf(i), rendered.get(i));
+        }
+        assertEquals(0, thread.getDroppedCount());
+    }
+
+    @Test
+    public void releaseHeldPacketsWithoutStart() throws Exception {
+        VideoCodecThread thread = new VideoCodecThread();
+        setDecoder(thread, new FakeDecoder());
+        AVPacket packet = new AVPacket(0, Unpooled.wrappedBuffer(IDR));
+
+        thread.holdPackets();
+        thread.putPacket(packet);
+        assertEquals(1, thread.getQueueDepth());
+        thread.stop();
+
+        assertEquals(0, thread.getQueueDepth());
+        assertNull(packet.data);
+    }
+
+    @Test(timeout = 10000)
+    public void audio() throws Exception {
+        FakeDecoder decoder = new FakeDecoder();
+        FakeAudioSink sink = new FakeAudioSink();
+        PlaybackClock clock = new PlaybackClock();
+
+        AudioCodecThread thread = new AudioCodecThread();
+        setDecoder(thread, decoder);
+        thread.setAudioSinkFactory(sink.factory());
+        thread.setPlaybackClock(clock);
+        thread.start();
+        assertTrue(sink.isPlaying());
+
+        for (int i = 0; i < 10; i++) {
+            thread.putPacket(new AVPacket(i * 1000, Unpooled.wrappedBuffer(new byte[400])));
+            Thread.sleep(3);
+        }
+        while (sink.getBytesWritten() < 4000) {
+            Thread.sleep(1);
+        }
+        thread.stop();
+
+        assertTrue(sink.isReleased());
+        assertTrue(clock.getAudioPosition(ClockSync.now()) >= 0);
+    }
+
+    private VideoCodecThread startVideo(FakeDecoder decoder, Listener listener) {
+        VideoCodecThread thread = new VideoCodecThread();
+        setDecoder(thread, decoder);
+        thread.setListener(listener);
+        thread.start(null);
+        return thread;
+    }
+
+    private void setDecoder(MediaCodecThread thread, FakeDecoder decoder) {
+        thread.setDecoderFactory(decoder.factory());
+        thread.setCallbackThreadFactory(ExecutorCallbackThread.FACTORY);
+        thread.setDecodeMode(mDecodeMode);
+    }
+
+    private static void feed(VideoCodecThread thread, int frames, long intervalMillis)
+            throws InterruptedException {
+        for (int i = 0; i < frames; i++) {
+            byte[] data = i % GOP == 0 ? IDR : P_FRAME;
+            thread.putPacket(new AVPacket(i, Unpooled.wrappedBuffer(data)));
+            Thread.sleep(intervalMillis);
+        }
+    }
+
+    private static List<Long> awaitPts(FakeDecoder decoder, long pts) throws InterruptedException {
+        while (!decoder.getRendered().contains(pts)) {
+            Thread.sleep(1);
+        }
+        return decoder.getRendered();
+    }
+
+    private static List<Long> awaitRendered(FakeDecoder decoder, int count) throws InterruptedException {
+        while (decoder.getRendered().size() < count) {
+            Thread.sleep(1);
+        }
+        return decoder.getRendered();
+    }
+
+    private static class Listener implements MediaPlayer.MediaPlayerListener {
+        private CountDownLatch mFirstFrame = new CountDownLatch(1);
+        private CountDownLatch mError = new CountDownLatch(1);
+
+        @Override
+        public void onFirstFrameShow() {
+            mFirstFrame.countDown();
+        }
+
+        @Override
+        public void onError(int code, String msg) {
+            mError.countDown();
+        }
+    }
+}
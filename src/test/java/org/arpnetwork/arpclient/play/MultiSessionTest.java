@@ -0,0 +1,208 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.play;
+
+import org.arpnetwork.arpclient.data.AVPacket;
+import org.arpnetwork.arpclient.data.Quality;
+import org.arpnetwork.arpclient.protocol.DeviceProtocol;
+import org.arpnetwork.arpclient.session.ManagedSession;
+import org.arpnetwork.arpclient.session.SessionManager;
+import org.arpnetwork.arpclient.socket.FakeDeviceServer;
+import org.arpnetwork.arpclient.socket.SyntheticSource;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MultiSessionTest {
+    private static final int FPS = 30;
+    private static final int GOP = 30;
+    // small enough for key frames to fit the input buffers of the fake decoder
+    private static final int BITRATE = 1000000;
+    private static final int DECODER_BUDGET = 2;
+    private static final int CODEC_BUDGET = 3;
+    private static final int DURATION = 1500;
+
+    @Test(timeout = 60000)
+    public void scaleSessions() throws Exception {
+        for (int count : new int[]{1, 4, 8}) {
+            measure(count);
+        }
+    }
+
+    private static void measure(int count) throws Exception {
+        SessionManager manager = new SessionManager(DECODER_BUDGET, CODEC_BUDGET);
+        List<Session> sessions = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                Session session = new Session();
+                sessions.add(session);
+                manager.add(session);
+                session.open();
+            }
+            for (Session session : sessions) {
+                assertTrue(session.mFirstPacket.await(5, TimeUnit.SECONDS));
+                session.mark();
+            }
+            Thread.sleep(DURATION);
+
+            Session focus = sessions.get(0);
+            assertTrue(focus.getRenderedFps() > FPS * 0.7);
+            for (int i = 1; i < count; i++) {
+                double maxFps;
+                if (i < DECODER_BUDGET) {
+                    maxFps = DecodePriority.REDUCED_FPS;
+                } else if (i < CODEC_BUDGET) {
+                    maxFps = FPS / GOP;
+                } else {
+                    maxFps = 0;
+                }
+                assertTrue(sessions.get(i).getRenderedFps() <= maxFps * 1.5 + 1);
+            }
+            assertEquals(Math.min(count, CODEC_BUDGET), countLiveDecoders(sessions));
+
+            if (count > CODEC_BUDGET) {
+                // the promoted session gets a decoder back from the one focused longest ago
+                Session last = sessions.get(count - 1);
+                manager.setFocus(last);
+                last.mark();
+                while (last.getRenderedFps() == 0) {
+                    Thread.sleep(10);
+                }
+                assertEquals(CODEC_BUDGET, countLiveDecoders(sessions));
+            }
+        } finally {
+            for (Session session : sessions) {
+                session.close();
+            }
+            manager.close();
+        }
+    }
+
+    private static int countLiveDecoders(List<Session> sessions) {
+        int count = 0;
+        for (Session session : sessions) {
+            count += session.mDecoder.getLiveCount();
+        }
+        return count;
+    }
+
+    /**
+     * Releases its decoder at {@link DecodePriority#NONE} as the media player does.
+     */
+    private static class Session implements ManagedSession, DeviceProtocol.OnProtocolListener {
+        private final FakeDeviceServer mServer = new FakeDeviceServer();
+        private final FakeDecoder mDecoder = new FakeDecoder().setLatency(1);
+        private final DeviceProtocol mProtocol = new DeviceProtocol(this);
+        private final CountDownLatch mFirstPacket = new CountDownLatch(1);
+        private volatile VideoCodecThread mThread;
+
+        private long mStart;
+        private int mRenderedAtStart;
+
+        void open() throws InterruptedException {
+            mServer.setFps(FPS)
+                    .setAudioEnabled(false)
+                    .setVideoSource(SyntheticSource.h264(BITRATE, FPS, GOP, 2));
+            mProtocol.open("127.0.0.1", mServer.start(), "test", "test");
+        }
+
+        void mark() {
+            mStart = System.nanoTime();
+            mRenderedAtStart = mDecoder.getRendered().size();
+        }
+
+        double getRenderedFps() {
+            return perSecond(mDecoder.getRendered().size() - mRenderedAtStart);
+        }
+
+        private double perSecond(long frames) {
+            return frames * 1e9 / (System.nanoTime() - mStart);
+        }
+
+        synchronized void close() {
+            mProtocol.close();
+            if (mThread != null) {
+                mThread.stop();
+                mThread = null;
+            }
+            mServer.stop();
+        }
+
+        @Override
+        public synchronized void setDecodePriority(int priority) {
+            VideoCodecThread thread = mThread;
+            if (priority == DecodePriority.NONE) {
+                mThread = null;
+                if (thread != null) {
+                    thread.stop();
+                }
+            } else if (thread == null) {
+                thread = new VideoCodecThread();
+                thread.setDecoderFactory(mDecoder.factory());
+                thread.setDecodePriority(priority);
+                thread.requestKeyFrame();
+                thread.start(null);
+                mThread = thread;
+            } else {
+                thread.setDecodePriority(priority);
+            }
+        }
+
+        @Override
+        public void onConnected() {
+            mProtocol.sendConnectReq(Quality.LOW);
+        }
+
+        @Override
+        public void onError(int code, String msg) {
+        }
+
+        @Override
+        public void onReconnecting(int attempt) {
+        }
+
+        @Override
+        public void onConnectionHealth(int health, long rtt, float lossRate) {
+        }
+
+        @Override
+        public void onAudioPacket(AVPacket packet) {
+            packet.release();
+        }
+
+        @Override
+        public void onVideoPacket(AVPacket packet) {
+            mFirstPacket.countDown();
+            VideoCodecThread thread = mThread;
+            if (thread != null) {
+                thread.putPacket(packet);
+            } else {
+                packet.release();
+            }
+        }
+
+        @Override
+        public void onClosed() {
+        }
+    }
+}
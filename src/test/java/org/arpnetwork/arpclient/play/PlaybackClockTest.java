@@ -0,0 +1,34 @@
+package org.arpnetwork.arpclient.play;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PlaybackClockTest {
+
+    @Test
+    public void noAudio() {
+        assertEquals(-1, new PlaybackClock().getAudioPosition(1000));
+    }
+
+    @Test
+    public void runBetweenUpdates() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.updateAudioPosition(5000000, 1000);
+
+        assertEquals(5000000, clock.getAudioPosition(1000));
+        assertEquals(5100000, clock.getAudioPosition(101000));
+    }
+
+    @Test
+    public void fallbackWhenAudioStops() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.updateAudioPosition(5000000, 1000);
+
+        assertEquals(-1, clock.getAudioPosition(1000 + 600000));
+
+        clock.updateAudioPosition(6000000, 1000000);
+        clock.reset();
+        assertEquals(-1, clock.getAudioPosition(1000000));
+    }
+}
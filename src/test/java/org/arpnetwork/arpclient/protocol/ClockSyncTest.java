@@ -0,0 +1,67 @@
+package org.arpnetwork.arpclient.protocol;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClockSyncTest {
+    private static final long OFFSET = 5000000;
+
+    @Test
+    public void notSynchronized() {
+        ClockSync clockSync = new ClockSync();
+        assertFalse(clockSync.isSynchronized());
+        assertEquals(-1, clockSync.getOneWayDelay());
+    }
+
+    @Test
+    public void symmetricDelay() {
+        ClockSync clockSync = new ClockSync();
+        exchange(clockSync, 1000, 10000, 10000);
+
+        assertTrue(clockSync.isSynchronized());
+        assertEquals(OFFSET, clockSync.getOffset());
+        assertEquals(20000, clockSync.getRoundTripTime());
+        assertEquals(10000, clockSync.getOneWayDelay());
+        assertEquals(1000, clockSync.toLocalTime(1000 + OFFSET));
+    }
+
+    @Test
+    public void filterQueuedSamples() {
+        ClockSync clockSync = new ClockSync();
+        exchange(clockSync, 0, 10000, 10000);
+        // delayed by queuing on the way back, the offset estimate would be off by 100 ms
+        exchange(clockSync, 100000, 10000, 210000);
+        exchange(clockSync, 200000, 80000, 10000);
+
+        assertEquals(OFFSET, clockSync.getOffset());
+        assertEquals(20000, clockSync.getRoundTripTime());
+    }
+
+    @Test
+    public void rejectNegativeRoundTrip() {
+        ClockSync clockSync = new ClockSync();
+        assertFalse(clockSync.addSample(100, 0, 50));
+        assertFalse(clockSync.isSynchronized());
+    }
+
+    @Test
+    public void window() {
+        ClockSync clockSync = new ClockSync();
+        exchange(clockSync, 0, 1000, 1000);
+        for (int i = 1; i <= 8; i++) {
+            exchange(clockSync, i * 100000, 5000, 5000);
+        }
+
+        // the best sample left the window
+        assertEquals(10000, clockSync.getRoundTripTime());
+        assertEquals(8, clockSync.getSampleCount());
+    }
+
+    private static void exchange(ClockSync clockSync, long sendTime, long upDelay, long downDelay) {
+        long remoteTime = sendTime + upDelay + OFFSET;
+        clockSync.addSample(sendTime, remoteTime, sendTime + upDelay + downDelay);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.protocol;
+
+import org.arpnetwork.arpclient.data.AVPacket;
+import org.arpnetwork.arpclient.data.ErrorInfo;
+import org.arpnetwork.arpclient.data.Quality;
+import org.arpnetwork.arpclient.data.VideoInfoPacket;
+import org.arpnetwork.arpclient.socket.FakeDeviceServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceProtocolTest {
+    private FakeDeviceServer mServer;
+    private DeviceProtocol mProtocol;
+    private LinkedBlockingQueue<Thread> mConnected = new LinkedBlockingQueue<>();
+    private LinkedBlockingQueue<VideoInfoPacket> mVideoInfo = new LinkedBlockingQueue<>();
+    private LinkedBlockingQueue<Boolean> mClosed = new LinkedBlockingQueue<>();
+    private LinkedBlockingQueue<Integer> mErrors = new LinkedBlockingQueue<>();
+    private LinkedBlockingQueue<Integer> mHealth = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        mServer = new FakeDeviceServer();
+        // created on a thread without a looper, nothing is posted to it
+        mProtocol = new DeviceProtocol(mListener);
+        mProtocol.getProtocolDispatcher().register(VideoInfoPacket.ID, VideoInfoPacket.class, -1,
+                new ProtocolDispatcher.PacketHandler<VideoInfoPacket>() {
+                    @Override
+                    public int onPacket(VideoInfoPacket packet) {
+                        mVideoInfo.add(packet);
+                        return 0;
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        mProtocol.close();
+        mServer.stop();
+    }
+
+    @Test(timeout = 10000)
+    public void handshakeOnEventLoop() throws Exception {
+        mProtocol.open("127.0.0.1", mServer.start(), "test", "test");
+
+        Thread socketThread = mConnected.take();
+        assertNotEquals(Thread.currentThread(), socketThread);
+
+        VideoInfoPacket videoInfo = mVideoInfo.poll(5, TimeUnit.SECONDS);
+        assertNotNull(videoInfo);
+        assertEquals(1280, videoInfo.data.width);
+
+        // first timestamp exchange is sent right away
+        while (mProtocol.getClockSync().getSampleCount() == 0) {
+            Thread.sleep(5);
+        }
+        assertTrue(mProtocol.getClockSync().getRoundTripTime() >= 0);
+
+        mProtocol.close();
+        assertTrue(mClosed.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 20000)
+    public void detectDeadLinkWhenDegraded() throws Exception {
+        // a slow link, the heartbeats speed up once probes are answered
+        mProtocol.open("127.0.0.1", mServer.setDelay(1000, 0).setAudioEnabled(false).start(), "test", "test");
+        mConnected.take();
+        while (mProtocol.getHeartbeatMonitor().getHealth() > HeartbeatMonitor.DEGRADED) {
+            Thread.sleep(10);
+        }
+        assertEquals(500, mProtocol.getHeartbeatMonitor().getInterval());
+
+        // messages already on their way keep arriving for the delay of one second
+        mServer.freeze();
+        long start = System.nanoTime();
+        assertEquals(ErrorInfo.ERROR_DISCONNECTED_BY_DEVICE, (int) mErrors.take());
+        long detectTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // the one second delay, then the degraded timeout of two seconds with some slack
+        assertTrue("detected in " + detectTime + " ms", detectTime < 1000 + 3000);
+        assertTrue(mHealth.size() > 0);
+    }
+
+    private final DeviceProtocol.OnProtocolListener mListener = new DeviceProtocol.OnProtocolListener() {
+        @Override
+        public void onConnected() {
+            mProtocol.sendConnectReq(Quality.LOW);
+            mProtocol.startClockSync();
+            mConnected.add(Thread.currentThread());
+        }
+
+        @Override
+        public void onError(int code, String msg) {
+            mErrors.add(code);
+        }
+
+        @Override
+        public void onReconnecting(int attempt) {
+        }
+
+        @Override
+        public void onConnectionHealth(int health, long rtt, float lossRate) {
+            mHealth.add(health);
+        }
+
+        @Override
+        public void onAudioPacket(AVPacket packet) {
+            packet.release();
+        }
+
+        @Override
+        public void onVideoPacket(AVPacket packet) {
+            packet.release();
+        }
+
+        @Override
+        public void onClosed() {
+            mClosed.add(true);
+        }
+    };
+}
@@ -0,0 +1,132 @@
+package org.arpnetwork.arpclient.protocol;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeartbeatMonitorTest {
+    private static final long MS = 1000;
+
+    private HeartbeatMonitor mMonitor;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mMonitor = new HeartbeatMonitor();
+        mNow = 1000 * MS;
+        mMonitor.reset(mNow);
+    }
+
+    @Test
+    public void healthyLink() {
+        for (int i = 0; i < 10; i++) {
+            probe(20 * MS);
+            mNow += 5000 * MS;
+        }
+
+        assertEquals(HeartbeatMonitor.MAX_HEALTH, mMonitor.getHealth());
+        assertEquals(20 * MS, mMonitor.getRoundTripTime());
+        assertEquals(0, mMonitor.getLossRate(), 0);
+        assertEquals(5000, mMonitor.getInterval());
+        assertEquals(15000, mMonitor.getTimeout());
+    }
+
+    @Test
+    public void smoothRoundTrip() {
+        probe(100 * MS);
+        probe(900 * MS);
+
+        assertEquals(200 * MS, mMonitor.getRoundTripTime());
+    }
+
+    @Test
+    public void uniqueTimestamps() {
+        assertNotEquals(mMonitor.onProbeSent(mNow), mMonitor.onProbeSent(mNow));
+    }
+
+    @Test
+    public void degradeOnLoss() {
+        mMonitor.onProbeSent(mNow);
+        mNow += 500 * MS;
+        mMonitor.onProbeSent(mNow);
+        mNow += 2000 * MS;
+        mMonitor.expire(mNow);
+
+        assertEquals(1, mMonitor.getLossRate(), 0);
+        assertTrue(mMonitor.getHealth() <= HeartbeatMonitor.DEGRADED);
+        assertEquals(500, mMonitor.getInterval());
+        assertEquals(2000, mMonitor.getTimeout());
+    }
+
+    @Test
+    public void degradeOnSlowLink() {
+        for (int i = 0; i < 10; i++) {
+            probe(1200 * MS);
+        }
+
+        assertTrue(mMonitor.getHealth() <= HeartbeatMonitor.DEGRADED);
+        assertEquals(500, mMonitor.getInterval());
+        // slow replies are not lost
+        assertEquals(0, mMonitor.getLossRate(), 0);
+    }
+
+    @Test
+    public void unansweredBeforeReplyLost() {
+        long first = mMonitor.onProbeSent(mNow);
+        long second = mMonitor.onProbeSent(mNow + 10 * MS);
+
+        assertTrue(mMonitor.onProbeReply(second, mNow + 30 * MS));
+        assertFalse(mMonitor.onProbeReply(first, mNow + 40 * MS));
+        assertEquals(0.5, mMonitor.getLossRate(), 0.001);
+    }
+
+    @Test
+    public void deadAfterSilence() {
+        mMonitor.onProbeSent(mNow);
+        mMonitor.onProbeSent(mNow);
+        mNow += 1500 * MS;
+        mMonitor.expire(mNow);
+        assertFalse(mMonitor.isDead(mNow));
+
+        mNow += 600 * MS;
+        assertTrue(mMonitor.isDead(mNow));
+    }
+
+    @Test
+    public void aliveWhileReceiving() {
+        mMonitor.onProbeSent(mNow);
+        mMonitor.onProbeSent(mNow);
+        for (int i = 0; i < 10; i++) {
+            mNow += 1000 * MS;
+            mMonitor.onReceived(mNow);
+            mMonitor.expire(mNow);
+        }
+
+        assertFalse(mMonitor.isDead(mNow));
+    }
+
+    @Test
+    public void recoverAfterLoss() {
+        mMonitor.onProbeSent(mNow);
+        mMonitor.onProbeSent(mNow);
+        mNow += 2000 * MS;
+        mMonitor.expire(mNow);
+
+        for (int i = 0; i < 16; i++) {
+            probe(20 * MS);
+        }
+
+        assertEquals(HeartbeatMonitor.MAX_HEALTH, mMonitor.getHealth());
+        assertEquals(5000, mMonitor.getInterval());
+    }
+
+    private void probe(long roundTrip) {
+        long sendTime = mMonitor.onProbeSent(mNow);
+        mNow += roundTrip;
+        assertTrue(mMonitor.onProbeReply(sendTime, mNow));
+    }
+}
@@ -0,0 +1,86 @@
+package org.arpnetwork.arpclient.protocol;
+
+import com.google.gson.Gson;
+
+import org.arpnetwork.arpclient.data.VideoInfoPacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Handling a video info packet, {@link ProtocolDispatcher} against the former
+ * handling that decoded a string per packet and parsed it twice.
+ * <p>
+ * Run with the test classpath: {@code java org.arpnetwork.arpclient.protocol.ProtocolDispatcherBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolDispatcherBenchmark {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String VIDEO_INFO = "{\"id\":101,\"data\":{\"width\":720,\"height\":1280,\"quality\":2}}";
+
+    private Gson mGson = new Gson();
+    private ProtocolDispatcher mDispatcher;
+    private ByteBuf mData;
+    private VideoInfoPacket mVideoInfo;
+
+    @Setup
+    public void setUp() {
+        mData = Unpooled.wrappedBuffer(VIDEO_INFO.getBytes(UTF_8));
+        mDispatcher = new ProtocolDispatcher(mGson);
+        mDispatcher.register(VideoInfoPacket.ID, VideoInfoPacket.class, -1,
+                new ProtocolDispatcher.PacketHandler<VideoInfoPacket>() {
+                    @Override
+                    public int onPacket(VideoInfoPacket packet) {
+                        mVideoInfo = packet;
+                        return 0;
+                    }
+                });
+    }
+
+    @Benchmark
+    public VideoInfoPacket dispatch() {
+        mDispatcher.dispatch(mData);
+        return mVideoInfo;
+    }
+
+    @Benchmark
+    public VideoInfoPacket doubleParse() {
+        String json = mData.toString(UTF_8).trim();
+        Id id = mGson.fromJson(json, Id.class);
+        if (id.id == VideoInfoPacket.ID) {
+            mVideoInfo = mGson.fromJson(json, VideoInfoPacket.class);
+        }
+        return mVideoInfo;
+    }
+
+    private static class Id {
+        int id;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ProtocolDispatcherBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
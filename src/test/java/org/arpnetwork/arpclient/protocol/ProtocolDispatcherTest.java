@@ -0,0 +1,98 @@
+package org.arpnetwork.arpclient.protocol;
+
+import com.google.gson.Gson;
+
+import org.arpnetwork.arpclient.data.ConnectResponsePacket;
+import org.arpnetwork.arpclient.data.VideoInfoPacket;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ProtocolDispatcherTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int PARSE_ERROR = -1;
+    private static final String VIDEO_INFO = "{\"id\":101,\"data\":{\"width\":720,\"height\":1280,\"quality\":2}}";
+
+    private Gson mGson = new Gson();
+    private ProtocolDispatcher mDispatcher;
+    private VideoInfoPacket mVideoInfo;
+
+    @Before
+    public void setUp() {
+        mDispatcher = new ProtocolDispatcher(mGson);
+        mDispatcher.register(VideoInfoPacket.ID, VideoInfoPacket.class, PARSE_ERROR,
+                new ProtocolDispatcher.PacketHandler<VideoInfoPacket>() {
+                    @Override
+                    public int onPacket(VideoInfoPacket packet) {
+                        mVideoInfo = packet;
+                        return 0;
+                    }
+                });
+    }
+
+    @Test
+    public void routeById() {
+        assertEquals(0, mDispatcher.dispatch(buffer(VIDEO_INFO)));
+        assertEquals(720, mVideoInfo.data.width);
+        assertEquals(1280, mVideoInfo.data.height);
+        assertEquals(2, mVideoInfo.data.quality);
+    }
+
+    @Test
+    public void idAfterData() {
+        assertEquals(0, mDispatcher.dispatch(buffer(" {\"data\":{\"width\":1,\"height\":2},\"id\":101}")));
+        assertEquals(1, mVideoInfo.data.width);
+        assertEquals(2, mVideoInfo.data.height);
+    }
+
+    @Test
+    public void ignoreUnknown() {
+        assertEquals(0, mDispatcher.dispatch(buffer("{\"id\":999,\"data\":{}}")));
+        assertEquals(0, mDispatcher.dispatch(buffer("{\"data\":{}}")));
+        assertEquals(0, mDispatcher.dispatch(buffer("")));
+        assertEquals(0, mDispatcher.dispatch(buffer("not json")));
+        assertNull(mVideoInfo);
+    }
+
+    @Test
+    public void parseError() {
+        assertEquals(PARSE_ERROR, mDispatcher.dispatch(buffer("{\"id\":101,\"data\":{\"width\":\"wide\"}}")));
+        assertEquals(PARSE_ERROR, mDispatcher.dispatch(buffer("{\"id\":101,\"data\":[1,2]}")));
+        assertNull(mVideoInfo);
+    }
+
+    @Test
+    public void registerType() {
+        final int[] result = {-1};
+        mDispatcher.register(ConnectResponsePacket.ID, ConnectResponsePacket.class, PARSE_ERROR,
+                new ProtocolDispatcher.PacketHandler<ConnectResponsePacket>() {
+                    @Override
+                    public int onPacket(ConnectResponsePacket packet) {
+                        result[0] = packet.result;
+                        return packet.result != 0 ? 2 : 0;
+                    }
+                });
+
+        String json = "{\"id\":" + ConnectResponsePacket.ID + ",\"result\":1}";
+        assertEquals(2, mDispatcher.dispatch(buffer(json)));
+        assertEquals(1, result[0]);
+    }
+
+    @Test
+    public void keepBufferUnread() {
+        ByteBuf data = buffer(VIDEO_INFO);
+        mDispatcher.dispatch(data);
+        assertEquals(VIDEO_INFO.length(), data.readableBytes());
+    }
+
+    private static ByteBuf buffer(String json) {
+        return Unpooled.wrappedBuffer(json.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.session;
+
+import org.arpnetwork.arpclient.play.DecodePriority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SessionManagerTest {
+    private SessionManager mManager;
+    private FakeSession mA = new FakeSession();
+    private FakeSession mB = new FakeSession();
+    private FakeSession mC = new FakeSession();
+
+    @Before
+    public void setUp() {
+        mManager = new SessionManager(2, 3);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.close();
+    }
+
+    @Test
+    public void focusFirstSession() {
+        mManager.add(mA);
+        mManager.add(mB);
+        mManager.add(mC);
+
+        assertSame(mA, mManager.getFocus());
+        assertEquals(DecodePriority.FULL, mA.mPriority);
+        assertEquals(DecodePriority.REDUCED, mB.mPriority);
+        assertEquals(DecodePriority.KEY_FRAMES, mC.mPriority);
+    }
+
+    @Test
+    public void keepBudgetByFocusRecency() {
+        mManager.add(mA);
+        mManager.add(mB);
+        mManager.add(mC);
+
+        mManager.setFocus(mC);
+        assertEquals(DecodePriority.FULL, mC.mPriority);
+        assertEquals(DecodePriority.REDUCED, mA.mPriority);
+        assertEquals(DecodePriority.KEY_FRAMES, mB.mPriority);
+
+        mManager.setFocus(mB);
+        assertEquals(DecodePriority.FULL, mB.mPriority);
+        assertEquals(DecodePriority.REDUCED, mC.mPriority);
+        assertEquals(DecodePriority.KEY_FRAMES, mA.mPriority);
+    }
+
+    @Test
+    public void refocusOnRemove() {
+        mManager.add(mA);
+        mManager.add(mB);
+        mManager.add(mC);
+        mManager.setFocus(mC);
+
+        mManager.remove(mC);
+        assertEquals(DecodePriority.FULL, mC.mPriority);
+        assertSame(mA, mManager.getFocus());
+        assertEquals(DecodePriority.FULL, mA.mPriority);
+        assertEquals(DecodePriority.REDUCED, mB.mPriority);
+        assertEquals(-1, mManager.getDecodePriority(mC));
+        assertEquals(2, mManager.size());
+    }
+
+    @Test
+    public void releaseCodecsBeyondBudget() {
+        SessionManager manager = new SessionManager(2);
+        try {
+            manager.add(mA);
+            manager.add(mB);
+            manager.add(mC);
+            assertEquals(DecodePriority.NONE, mC.mPriority);
+
+            // promoted sessions get a decoder back, the one focused longest ago gives it up
+            manager.setFocus(mC);
+            assertEquals(DecodePriority.FULL, mC.mPriority);
+            assertEquals(DecodePriority.REDUCED, mA.mPriority);
+            assertEquals(DecodePriority.NONE, mB.mPriority);
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void codecBudgetCoversDecoderBudget() {
+        new SessionManager(2, 1);
+    }
+
+    @Test
+    public void notifyChangesOnly() {
+        mManager.add(mA);
+        mManager.add(mB);
+        mManager.add(mA);
+        mManager.setFocus(mA);
+
+        assertEquals(1, mA.mChanges);
+        assertEquals(1, mB.mChanges);
+    }
+
+    @Test
+    public void clearOnClose() {
+        mManager.add(mA);
+        mManager.close();
+
+        assertNull(mManager.getFocus());
+    }
+
+    private static class FakeSession implements ManagedSession {
+        int mPriority = -1;
+        int mChanges;
+
+        @Override
+        public void setDecodePriority(int priority) {
+            mPriority = priority;
+            mChanges++;
+        }
+    }
+}
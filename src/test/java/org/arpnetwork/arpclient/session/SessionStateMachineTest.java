@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.session;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SessionStateMachineTest {
+    private SessionStateMachine mState = new SessionStateMachine();
+
+    @Test
+    public void lifecycle() {
+        assertEquals(SessionState.IDLE, mState.moveTo(SessionState.CONNECTING));
+        assertEquals(SessionState.CONNECTING, mState.moveTo(SessionState.CONNECTED));
+        assertEquals(SessionState.CONNECTED, mState.moveTo(SessionState.RECONNECTING));
+        assertEquals(SessionState.RECONNECTING, mState.moveTo(SessionState.CONNECTED));
+        assertEquals(SessionState.CONNECTED, mState.moveTo(SessionState.STOPPING));
+        assertEquals(SessionState.STOPPING, mState.moveTo(SessionState.CLOSED));
+        assertEquals(SessionState.CLOSED, mState.moveTo(SessionState.CONNECTING));
+    }
+
+    @Test
+    public void refuseInvalid() {
+        assertEquals(SessionStateMachine.INVALID, mState.moveTo(SessionState.CONNECTED));
+        assertEquals(SessionStateMachine.INVALID, mState.moveTo(SessionState.CLOSED));
+
+        mState.moveTo(SessionState.CONNECTING);
+        assertEquals(SessionStateMachine.INVALID, mState.moveTo(SessionState.CONNECTING));
+
+        mState.moveTo(SessionState.ERROR);
+        assertEquals(SessionStateMachine.INVALID, mState.moveTo(SessionState.ERROR));
+        assertEquals(SessionStateMachine.INVALID, mState.moveTo(SessionState.CONNECTED));
+        assertEquals(SessionState.ERROR, mState.get());
+    }
+
+    @Test
+    public void narrowSources() {
+        mState.moveTo(SessionState.CONNECTING);
+        mState.moveTo(SessionState.CONNECTED);
+
+        int suspended = SessionState.mask(SessionState.SUSPENDED);
+        assertEquals(SessionStateMachine.INVALID, mState.moveTo(SessionState.CLOSED, suspended));
+        assertEquals(SessionState.CONNECTED, mState.moveTo(SessionState.SUSPENDED));
+        assertEquals(SessionState.SUSPENDED, mState.moveTo(SessionState.CLOSED, suspended));
+        assertTrue(mState.isIn(SessionState.mask(SessionState.CLOSED) | SessionState.mask(SessionState.DISCONNECTED)));
+    }
+
+    @Test
+    public void transitionEvents() {
+        final List<String> events = new ArrayList<>();
+        mState.setOnStateChangedListener(new SessionStateMachine.OnStateChangedListener() {
+            @Override
+            public void onStateChanged(int from, int to, long time) {
+                events.add(SessionState.name(from) + ">" + SessionState.name(to));
+            }
+
+            @Override
+            public void onTransitionRejected(int state, int to) {
+                events.add(SessionState.name(state) + "!" + SessionState.name(to));
+            }
+        });
+
+        mState.moveTo(SessionState.CONNECTING);
+        mState.moveTo(SessionState.DISCONNECTED);
+        mState.moveTo(SessionState.DISCONNECTED);
+
+        assertEquals(3, events.size());
+        assertEquals("idle>connecting", events.get(0));
+        assertEquals("connecting>disconnected", events.get(1));
+        assertEquals("disconnected!disconnected", events.get(2));
+    }
+
+    @Test(timeout = 10000)
+    public void singleTeardownUnderRace() throws Exception {
+        final int threads = 8;
+        for (int round = 0; round < 200; round++) {
+            final SessionStateMachine state = new SessionStateMachine();
+            state.moveTo(SessionState.CONNECTING);
+            state.moveTo(SessionState.CONNECTED);
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(threads);
+            final AtomicInteger teardowns = new AtomicInteger();
+            for (int i = 0; i < threads; i++) {
+                // half disconnect, half stop, only one of them may tear down
+                final boolean disconnect = i % 2 == 0;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            if (disconnect) {
+                                if (state.moveTo(SessionState.DISCONNECTED) != SessionStateMachine.INVALID) {
+                                    teardowns.incrementAndGet();
+                                }
+                            } else if (state.moveTo(SessionState.STOPPING) != SessionStateMachine.INVALID
+                                    && state.moveTo(SessionState.CLOSED) != SessionStateMachine.INVALID) {
+                                teardowns.incrementAndGet();
+                            }
+                        } catch (InterruptedException ignored) {
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            start.countDown();
+            done.await();
+
+            assertEquals(1, teardowns.get());
+            assertTrue(state.isIn(SessionState.mask(SessionState.DISCONNECTED) | SessionState.mask(SessionState.CLOSED)));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.arpnetwork.arpclient.socket;
+
+import org.arpnetwork.arpclient.data.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * Time to connect to a local {@link FakeDeviceServer}, on the shared event loop
+ * against a new NioEventLoopGroup per connect as before. Closing is not measured.
+ * <p>
+ * Run with the test classpath: {@code java org.arpnetwork.arpclient.socket.ConnectBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectBenchmark {
+    private static final String HOST = "127.0.0.1";
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    @State(Scope.Thread)
+    public static class Server {
+        FakeDeviceServer server = new FakeDeviceServer();
+        int port;
+
+        @Setup(Level.Trial)
+        public void start() throws InterruptedException {
+            port = server.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            server.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Shared {
+        final LinkedBlockingQueue<Boolean> connected = new LinkedBlockingQueue<>();
+        NettyConnection connection;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            SharedEventLoopGroup.acquire();
+            connection = new NettyConnection(new NettyConnection.ConnectionListener() {
+                @Override
+                public void onConnected(NettyConnection conn) {
+                    connected.add(true);
+                }
+
+                @Override
+                public void onClosed(NettyConnection conn) {
+                }
+
+                @Override
+                public void onMessage(NettyConnection conn, Message msg) {
+                    msg.release();
+                }
+
+                @Override
+                public void onError(int code, String msg) {
+                    connected.add(false);
+                }
+
+                @Override
+                public void onReconnecting(NettyConnection conn, int attempt) {
+                }
+            });
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            connection.close().syncUninterruptibly();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SharedEventLoopGroup.release();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PerConnect {
+        EventLoopGroup group;
+        Channel channel;
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            channel.close().syncUninterruptibly();
+            group.shutdownGracefully(0, 2000, TimeUnit.MILLISECONDS).syncUninterruptibly();
+        }
+    }
+
+    @Benchmark
+    public boolean sharedEventLoop(Server server, Shared state) throws InterruptedException {
+        state.connection.connect(HOST, server.port);
+        return state.connected.take();
+    }
+
+    @Benchmark
+    public Channel groupPerConnect(Server server, PerConnect state) {
+        state.group = new NioEventLoopGroup();
+
+        Bootstrap b = new Bootstrap();
+        b.group(state.group);
+        b.channel(NioSocketChannel.class);
+        b.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT);
+        b.option(ChannelOption.SO_KEEPALIVE, true);
+        b.option(ChannelOption.TCP_NODELAY, true);
+        b.handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel ch) {
+                ch.pipeline()
+                        .addLast("frameDecoder", new NettyConnection.FrameDecoder())
+                        .addLast("decoder", new NettyConnection.MessageDecoder())
+                        .addLast("encoder", new NettyConnection.MessageEncoder());
+            }
+        });
+
+        state.channel = b.connect(HOST, server.port).syncUninterruptibly().channel();
+        return state.channel;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ConnectBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.socket;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import org.arpnetwork.arpclient.data.ConnectResponsePacket;
+import org.arpnetwork.arpclient.data.Message;
+import org.arpnetwork.arpclient.data.TouchSettingPacket;
+import org.arpnetwork.arpclient.data.VideoInfo;
+import org.arpnetwork.arpclient.data.VideoInfoPacket;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+/**
+ * Local stand-in for a remote device, speaking the {@link Message} framing.
+ * Answers the connect request, pushes video info and touch setting,
+ * then streams video and audio at the configured rates.
+ * Outgoing messages can be delayed with jitter, and media messages dropped.
+ * <p>
+ * Setters must be called before {@link #start()}.
+ */
+public class FakeDeviceServer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CONNECT_REQ_ID = 1;
+    private static final int CHANGE_QUALITY_REQ_ID = 3;
+    private static final int STOP_REQ_ID = 5;
+    private static final int AUDIO_SAMPLE_RATE = 44100;
+    private static final int AUDIO_FRAME_SAMPLES = 1024;
+
+    private int mWidth = 1280;
+    private int mHeight = 720;
+    private int mFps = 30;
+    private int mVideoBitrate = 4000000;
+    private int mAudioBitrate = 128000;
+    private boolean mAudioEnabled = true;
+    private MediaSource mVideoSource;
+    private MediaSource mAudioSource;
+
+    private long mClockOffset;
+    private double mLoss;
+    private int mDelay;
+    private int mJitter;
+    private int mConnectResult;
+
+    private EventLoopGroup mBossGroup;
+    private EventLoopGroup mWorkerGroup;
+    private Channel mServerChannel;
+    private final ChannelGroup mChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private final AtomicInteger mConnections = new AtomicInteger();
+    private final Gson mGson = new Gson();
+
+    private final AtomicLong mVideoFrames = new AtomicLong();
+    private final AtomicLong mAudioFrames = new AtomicLong();
+    private final AtomicLong mLostFrames = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final List<String> mTouchMessages = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Integer> mKeyEvents = Collections.synchronizedList(new ArrayList<Integer>());
+    private volatile boolean mStopRequested;
+    private volatile boolean mFrozen;
+    private volatile int mQuality;
+
+    public FakeDeviceServer setVideoSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        return this;
+    }
+
+    public FakeDeviceServer setFps(int fps) {
+        mFps = fps;
+        return this;
+    }
+
+    /**
+     * @param bitrate video bits per second, for the default synthetic source
+     */
+    public FakeDeviceServer setVideoBitrate(int bitrate) {
+        mVideoBitrate = bitrate;
+        return this;
+    }
+
+    public FakeDeviceServer setAudioEnabled(boolean enabled) {
+        mAudioEnabled = enabled;
+        return this;
+    }
+
+    public FakeDeviceServer setVideoSource(MediaSource source) {
+        mVideoSource = source;
+        return this;
+    }
+
+    public FakeDeviceServer setAudioSource(MediaSource source) {
+        mAudioSource = source;
+        return this;
+    }
+
+    /**
+     * @param offset device clock minus local clock in microseconds
+     */
+    public FakeDeviceServer setClockOffset(long offset) {
+        mClockOffset = offset;
+        return this;
+    }
+
+    /**
+     * @param loss probability of dropping a video or audio message.
+     *             TCP never loses data, this stands for frames the device fails to send.
+     */
+    public FakeDeviceServer setLoss(double loss) {
+        mLoss = loss;
+        return this;
+    }
+
+    /**
+     * @param delay  base delay of every outgoing message in milliseconds
+     * @param jitter extra random delay up to this many milliseconds,
+     *               messages still arrive in order as on a TCP stream
+     */
+    public FakeDeviceServer setDelay(int delay, int jitter) {
+        mDelay = delay;
+        mJitter = jitter;
+        return this;
+    }
+
+    /**
+     * @param result result of the connect response, non-zero to refuse
+     */
+    public FakeDeviceServer setConnectResult(int result) {
+        mConnectResult = result;
+        return this;
+    }
+
+    /**
+     * Bind to a free local port.
+     *
+     * @return the port
+     */
+    public int start() throws InterruptedException {
+        if (mVideoSource == null) {
+            mVideoSource = SyntheticSource.h264(mVideoBitrate, mFps, mFps, 0);
+        }
+        if (mAudioSource == null) {
+            mAudioSource = SyntheticSource.aac(mAudioBitrate, AUDIO_SAMPLE_RATE);
+        }
+
+        mBossGroup = new NioEventLoopGroup(1);
+        mWorkerGroup = new NioEventLoopGroup(1);
+
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(mBossGroup, mWorkerGroup);
+        b.channel(NioServerSocketChannel.class);
+        b.childOption(ChannelOption.TCP_NODELAY, true);
+        b.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        b.childHandler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            public void initChannel(SocketChannel ch) {
+                mChannels.add(ch);
+                mConnections.incrementAndGet();
+                ch.pipeline()
+                        .addLast("frameDecoder", new NettyConnection.FrameDecoder())
+                        .addLast("decoder", new NettyConnection.MessageDecoder())
+                        .addLast("encoder", new NettyConnection.MessageEncoder())
+                        .addLast("impairment", new ImpairmentHandler())
+                        .addLast(new DeviceHandler());
+            }
+        });
+
+        mServerChannel = b.bind("127.0.0.1", 0).sync().channel();
+        return ((InetSocketAddress) mServerChannel.localAddress()).getPort();
+    }
+
+    public void stop() {
+        if (mServerChannel != null) {
+            mServerChannel.close().syncUninterruptibly();
+            mBossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+            mWorkerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+            mServerChannel = null;
+        }
+    }
+
+    /**
+     * Drop all client connections as a network failure would, the server keeps accepting.
+     */
+    public void killConnections() {
+        mChannels.close().syncUninterruptibly();
+    }
+
+    /**
+     * Reset all client connections, as a device process dying or a NAT dropping the flow would.
+     * The client reads a connection reset instead of an orderly close.
+     */
+    public void resetConnections() {
+        for (Channel channel : mChannels) {
+            // closing with a zero linger time sends RST in place of FIN
+            channel.config().setOption(ChannelOption.SO_LINGER, 0);
+        }
+        mChannels.close().syncUninterruptibly();
+    }
+
+    /**
+     * Stop sending anything while keeping the connections open, as a link gone dead would.
+     */
+    public void freeze() {
+        mFrozen = true;
+    }
+
+    /**
+     * @return connections accepted since start
+     */
+    public int getConnectionCount() {
+        return mConnections.get();
+    }
+
+    /**
+     * @return device clock in microseconds
+     */
+    public long now() {
+        return System.nanoTime() / 1000 + mClockOffset;
+    }
+
+    public long getVideoFrameCount() {
+        return mVideoFrames.get();
+    }
+
+    public long getAudioFrameCount() {
+        return mAudioFrames.get();
+    }
+
+    /**
+     * @return media messages dropped by the configured loss
+     */
+    public long getLostFrameCount() {
+        return mLostFrames.get();
+    }
+
+    /**
+     * @return bytes written to the socket, after loss
+     */
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    /**
+     * @return touch commands received, in order
+     */
+    public List<String> getTouchMessages() {
+        synchronized (mTouchMessages) {
+            return new ArrayList<>(mTouchMessages);
+        }
+    }
+
+    public List<Integer> getKeyEvents() {
+        synchronized (mKeyEvents) {
+            return new ArrayList<>(mKeyEvents);
+        }
+    }
+
+    public boolean isStopRequested() {
+        return mStopRequested;
+    }
+
+    /**
+     * @return quality of the last connect or change quality request, 0 if none
+     */
+    public int getQuality() {
+        return mQuality;
+    }
+
+    private class DeviceHandler extends SimpleChannelInboundHandler<Message> {
+        private ScheduledFuture<?> mVideoFuture;
+        private ScheduledFuture<?> mAudioFuture;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Message msg) {
+            ByteBuf data = msg.content();
+            switch (msg.getType()) {
+                case Message.PROTOCOL:
+                    onProtocol(ctx, data.toString(UTF_8));
+                    break;
+
+                case Message.TIME:
+                    ByteBuf reply = ctx.alloc().buffer(16);
+                    reply.writeLong(data.readLong());
+                    reply.writeLong(now());
+                    ctx.writeAndFlush(new Message(Message.TIME, reply));
+                    break;
+
+                case Message.HEARTBEAT:
+                    ctx.writeAndFlush(new Message(Message.HEARTBEAT));
+                    break;
+
+                case Message.TOUCH:
+                    mTouchMessages.add(data.toString(UTF_8));
+                    break;
+
+                case Message.KEY:
+                    mKeyEvents.add(data.readInt());
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            stopStreaming();
+            super.channelInactive(ctx);
+        }
+
+        private void onProtocol(ChannelHandlerContext ctx, String json) {
+            JsonObject packet = mGson.fromJson(json, JsonObject.class);
+            int id = packet.get("id").getAsInt();
+            if (id == CONNECT_REQ_ID) {
+                int quality = packet.getAsJsonObject("data").get("quality").getAsInt();
+                mQuality = quality;
+                ConnectResponsePacket response = new ConnectResponsePacket();
+                response.result = mConnectResult;
+                sendProtocol(ctx, mGson.toJson(response));
+                if (mConnectResult == 0) {
+                    sendProtocol(ctx, mGson.toJson(createVideoInfoPacket(quality)));
+                    sendProtocol(ctx, mGson.toJson(createTouchSettingPacket()));
+                    startStreaming(ctx);
+                }
+            } else if (id == CHANGE_QUALITY_REQ_ID) {
+                mQuality = packet.get("data").getAsInt();
+                sendProtocol(ctx, mGson.toJson(createVideoInfoPacket(mQuality)));
+            } else if (id == STOP_REQ_ID) {
+                mStopRequested = true;
+                stopStreaming();
+                ctx.close();
+            }
+        }
+
+        private void startStreaming(final ChannelHandlerContext ctx) {
+            stopStreaming();
+            mVideoFuture = ctx.executor().scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    sendFrame(ctx, Message.VIDEO, mVideoSource);
+                    mVideoFrames.incrementAndGet();
+                }
+            }, 0, 1000000 / mFps, TimeUnit.MICROSECONDS);
+
+            if (mAudioEnabled) {
+                mAudioFuture = ctx.executor().scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        sendFrame(ctx, Message.AUDIO, mAudioSource);
+                        mAudioFrames.incrementAndGet();
+                    }
+                }, 0, 1000000L * AUDIO_FRAME_SAMPLES / AUDIO_SAMPLE_RATE, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        private void stopStreaming() {
+            if (mVideoFuture != null) {
+                mVideoFuture.cancel(false);
+                mVideoFuture = null;
+            }
+            if (mAudioFuture != null) {
+                mAudioFuture.cancel(false);
+                mAudioFuture = null;
+            }
+        }
+
+        private void sendFrame(ChannelHandlerContext ctx, int type, MediaSource source) {
+            ByteBuf data = ctx.alloc().buffer();
+            data.writeLong(now());
+            source.writeFrame(data);
+            ctx.writeAndFlush(new Message(type, data));
+        }
+
+        private void sendProtocol(ChannelHandlerContext ctx, String json) {
+            ctx.writeAndFlush(new Message(Message.PROTOCOL, json.getBytes(UTF_8)));
+        }
+    }
+
+    private VideoInfoPacket createVideoInfoPacket(int quality) {
+        VideoInfoPacket packet = new VideoInfoPacket();
+        packet.data = new VideoInfo();
+        packet.data.width = mWidth;
+        packet.data.height = mHeight;
+        packet.data.quality = quality;
+        return packet;
+    }
+
+    private JsonObject createTouchSettingPacket() {
+        JsonObject data = new JsonObject();
+        data.addProperty("contacts", 10);
+        data.addProperty("x", mWidth);
+        data.addProperty("y", mHeight);
+        data.addProperty("pressure", 255);
+        data.addProperty("major", 30);
+        data.addProperty("minor", 30);
+        data.addProperty("statusBarHeight", 0);
+
+        JsonObject packet = new JsonObject();
+        packet.addProperty("id", TouchSettingPacket.ID);
+        packet.add("data", data);
+        return packet;
+    }
+
+    /**
+     * Drops media messages and delays outgoing messages, keeping them in order.
+     */
+    private class ImpairmentHandler extends ChannelOutboundHandlerAdapter {
+        private final Random mRandom = new Random();
+        private long mLastSendTime;
+
+        @Override
+        public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+            Message message = (Message) msg;
+            int type = message.getType();
+            if (mFrozen) {
+                ReferenceCountUtil.release(msg);
+                promise.setSuccess();
+                return;
+            }
+            if ((type == Message.VIDEO || type == Message.AUDIO) && mRandom.nextDouble() < mLoss) {
+                mLostFrames.incrementAndGet();
+                ReferenceCountUtil.release(msg);
+                promise.setSuccess();
+                return;
+            }
+
+            mBytesSent.addAndGet(4 + (type == Message.HEARTBEAT ? 0 : 1 + message.content().readableBytes()));
+            if (mDelay == 0 && mJitter == 0) {
+                ctx.write(msg, promise);
+                return;
+            }
+
+            long now = System.nanoTime();
+            long delay = TimeUnit.MILLISECONDS.toNanos(mDelay)
+                    + (mJitter > 0 ? TimeUnit.MILLISECONDS.toNanos(mRandom.nextInt(mJitter + 1)) : 0);
+            // a TCP stream delivers in order whatever the delay of each message
+            long sendTime = Math.max(mLastSendTime, now + delay);
+            mLastSendTime = sendTime;
+            ctx.executor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ctx.writeAndFlush(msg, promise);
+                }
+            }, sendTime - now, TimeUnit.NANOSECONDS);
+        }
+    }
+}
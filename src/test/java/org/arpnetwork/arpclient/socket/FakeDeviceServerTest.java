@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.socket;
+
+import com.google.gson.Gson;
+
+import org.arpnetwork.arpclient.data.ChangeQualityReq;
+import org.arpnetwork.arpclient.data.Message;
+import org.arpnetwork.arpclient.data.Quality;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FakeDeviceServerTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CONNECT_REQ =
+            "{\"id\":1,\"data\":{\"session\":\"test\",\"packageName\":\"test\",\"quality\":1}}";
+
+    private FakeDeviceServer mServer;
+    private NettyConnection mConnection;
+    private LinkedBlockingQueue<Message> mMessages = new LinkedBlockingQueue<>();
+    private LinkedBlockingQueue<Boolean> mConnected = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        mServer = new FakeDeviceServer();
+    }
+
+    @After
+    public void tearDown() {
+        if (mConnection != null) {
+            mConnection.close();
+        }
+        mServer.stop();
+        Message msg;
+        while ((msg = mMessages.poll()) != null) {
+            msg.release();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void handshakeAndStream() throws Exception {
+        connect(mServer.setFps(50).setAudioEnabled(false));
+        mConnection.write(new Message(Message.PROTOCOL, CONNECT_REQ.getBytes(UTF_8)));
+
+        assertTrue(readProtocol().contains("\"id\":2"));
+        assertTrue(readProtocol().contains("\"width\":1280"));
+        assertTrue(readProtocol().contains("\"id\":100"));
+
+        long lastPts = 0;
+        for (int i = 0; i < 25; i++) {
+            Message msg = read(Message.VIDEO);
+            ByteBuf data = msg.content();
+            long pts = data.readLong();
+            assertTrue(pts > lastPts);
+            lastPts = pts;
+            if (i == 0) {
+                assertEquals(0x67, data.getByte(data.readerIndex() + 4)); // SPS first
+            }
+            msg.release();
+        }
+        assertEquals(0, mServer.getAudioFrameCount());
+    }
+
+    @Test(timeout = 10000)
+    public void changeQuality() throws Exception {
+        connect(mServer);
+        mConnection.write(new Message(Message.PROTOCOL, CONNECT_REQ.getBytes(UTF_8)));
+        for (int i = 0; i < 3; i++) {
+            readProtocol();
+        }
+
+        String request = new Gson().toJson(new ChangeQualityReq(Quality.HIGH));
+        mConnection.write(new Message(Message.PROTOCOL, request.getBytes(UTF_8)));
+        assertTrue(readProtocol().contains("\"quality\":2"));
+        assertEquals(Quality.HIGH, mServer.getQuality());
+    }
+
+    @Test(timeout = 10000)
+    public void timeReply() throws Exception {
+        connect(mServer.setClockOffset(1000000).setDelay(50, 0));
+
+        long sendTime = System.nanoTime() / 1000;
+        mConnection.write(new Message(Message.TIME, Unpooled.copyLong(sendTime)));
+        Message msg = read(Message.TIME);
+        long receiveTime = System.nanoTime() / 1000;
+
+        assertEquals(sendTime, msg.content().readLong());
+        long offset = msg.content().readLong() - receiveTime;
+        assertTrue(receiveTime - sendTime >= 50000);
+        assertTrue(offset > 900000 && offset <= 1000000);
+        msg.release();
+    }
+
+    @Test(timeout = 10000)
+    public void loss() throws Exception {
+        connect(mServer.setLoss(1));
+        mConnection.write(new Message(Message.PROTOCOL, CONNECT_REQ.getBytes(UTF_8)));
+        for (int i = 0; i < 3; i++) {
+            readProtocol();
+        }
+
+        while (mServer.getLostFrameCount() < 10) {
+            Thread.sleep(10);
+        }
+        assertNull(mMessages.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void readAnnexB() throws Exception {
+        byte[] stream = {
+                0, 0, 0, 1, 0x67, 1, 0, 0, 1, 0x68, 2, 0, 0, 0, 1, 0x65, 3, 3,
+                0, 0, 1, 0x41, 4, 0, 0, 0, 1, 0x01, 5
+        };
+        RecordedSource source = RecordedSource.readAnnexB(new ByteArrayInputStream(stream));
+
+        ByteBuf out = Unpooled.buffer();
+        source.writeFrame(out);
+        assertEquals(18, out.readableBytes());
+        out.clear();
+        source.writeFrame(out);
+        assertEquals(5, out.readableBytes());
+        out.clear();
+        source.writeFrame(out);
+        assertEquals(6, out.readableBytes());
+        out.clear();
+        source.writeFrame(out);
+        assertEquals(18, out.readableBytes());
+    }
+
+    private void connect(FakeDeviceServer server) throws Exception {
+        int port = server.start();
+        mConnection = new NettyConnection(new NettyConnection.ConnectionListener() {
+            @Override
+            public void onConnected(NettyConnection conn) {
+                mConnected.add(true);
+            }
+
+            @Override
+            public void onClosed(NettyConnection conn) {
+            }
+
+            @Override
+            public void onMessage(NettyConnection conn, Message msg) {
+                mMessages.add(msg);
+            }
+
+            @Override
+            public void onError(int code, String msg) {
+                mConnected.add(false);
+            }
+
+            @Override
+            public void onReconnecting(NettyConnection conn, int attempt) {
+            }
+        });
+        mConnection.connect("127.0.0.1", port);
+        assertTrue(mConnected.take());
+    }
+
+    private String readProtocol() throws InterruptedException {
+        Message msg = read(Message.PROTOCOL);
+        String json = msg.content().toString(UTF_8);
+        msg.release();
+        return json;
+    }
+
+    private Message read(int type) throws InterruptedException {
+        while (true) {
+            Message msg = mMessages.poll(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            if (msg.getType() == type) {
+                return msg;
+            }
+            msg.release();
+        }
+    }
+}
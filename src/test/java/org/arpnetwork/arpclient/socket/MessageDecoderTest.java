@@ -0,0 +1,120 @@
+package org.arpnetwork.arpclient.socket;
+
+import org.arpnetwork.arpclient.data.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageDecoderTest {
+    private static final int FRAME_SIZE = 64 * 1024;
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int FRAMES = 10000;
+
+    private EmbeddedChannel mChannel;
+    private PooledByteBufAllocator mAllocator = PooledByteBufAllocator.DEFAULT;
+
+    @Before
+    public void setUp() {
+        mChannel = new EmbeddedChannel(new NettyConnection.FrameDecoder(),
+                new NettyConnection.MessageDecoder());
+        mChannel.config().setAllocator(mAllocator);
+    }
+
+    @After
+    public void tearDown() {
+        mChannel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void decodeVideoFrame() {
+        mChannel.writeInbound(videoFrame(1234L, FRAME_SIZE));
+
+        Message msg = mChannel.readInbound();
+        assertEquals(Message.VIDEO, msg.getType());
+        assertEquals(1234L, msg.content().readLong());
+        assertEquals(FRAME_SIZE, msg.content().readableBytes());
+        assertTrue(msg.release());
+    }
+
+    @Test
+    public void decodeHeartbeat() {
+        ByteBuf buf = mAllocator.buffer(4);
+        buf.writeInt(0);
+        mChannel.writeInbound(buf);
+
+        Message msg = mChannel.readInbound();
+        assertEquals(Message.HEARTBEAT, msg.getType());
+        assertFalse(msg.content().isReadable());
+    }
+
+    @Test
+    public void decodePartialFrame() {
+        ByteBuf frame = videoFrame(1L, FRAME_SIZE);
+        ByteBuf head = frame.readRetainedSlice(100);
+
+        assertFalse(mChannel.writeInbound(head));
+        assertTrue(mChannel.writeInbound(frame));
+
+        Message msg = mChannel.readInbound();
+        assertEquals(Message.VIDEO, msg.getType());
+        assertEquals(8 + FRAME_SIZE, msg.content().readableBytes());
+        msg.release();
+    }
+
+    @Test
+    public void releaseFrameBuffer() {
+        ByteBuf frame = videoFrame(1L, FRAME_SIZE);
+        frame.retain();
+        mChannel.writeInbound(frame);
+        assertEquals(2, frame.refCnt());
+
+        Message msg = mChannel.readInbound();
+        msg.release();
+        assertEquals(1, frame.refCnt());
+        frame.release();
+    }
+
+    @Test
+    public void steadyStateAllocation() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        decodeFrames(WARMUP_FRAMES);
+
+        long before = bean.getThreadAllocatedBytes(threadId);
+        decodeFrames(FRAMES);
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        // only a few small objects per frame, never a copy of the frame data
+        long perFrame = allocated / FRAMES;
+        assertTrue("allocated " + perFrame + " bytes per frame", perFrame < 256);
+    }
+
+    private void decodeFrames(int count) {
+        for (int i = 0; i < count; i++) {
+            mChannel.writeInbound(videoFrame(i, FRAME_SIZE));
+            Message msg = mChannel.readInbound();
+            msg.release();
+        }
+    }
+
+    private ByteBuf videoFrame(long pts, int size) {
+        ByteBuf buf = mAllocator.buffer(4 + 1 + 8 + size);
+        buf.writeInt(1 + 8 + size);
+        buf.writeByte(Message.VIDEO);
+        buf.writeLong(pts);
+        buf.writerIndex(buf.writerIndex() + size);
+        return buf;
+    }
+}
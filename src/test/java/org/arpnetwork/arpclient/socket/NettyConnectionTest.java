@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.socket;
+
+import org.arpnetwork.arpclient.data.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoopGroup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NettyConnectionTest {
+    private static final int CONNECTS = 20;
+
+    private FakeDeviceServer mServer = new FakeDeviceServer();
+    private int mPort;
+    private LinkedBlockingQueue<Boolean> mConnected = new LinkedBlockingQueue<>();
+    private AtomicInteger mClosed = new AtomicInteger();
+    private AtomicInteger mReconnecting = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        mPort = mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop();
+    }
+
+    @Test(timeout = 20000)
+    public void connectOnSharedEventLoop() throws Exception {
+        SharedEventLoopGroup.acquire();
+        try {
+            NettyConnection conn = new NettyConnection(mListener);
+            // every connect runs on the one shared socket thread,
+            // time to connect is compared with a group per connect in ConnectBenchmark
+            for (int i = 0; i < CONNECTS; i++) {
+                connect(conn);
+                assertEquals(1, countThreads("arp-socket"));
+                conn.close();
+            }
+        } finally {
+            SharedEventLoopGroup.release();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void reconnectWhileClosing() throws Exception {
+        NettyConnection conn = new NettyConnection(mListener);
+        connect(conn);
+
+        ChannelFuture closeFuture = conn.close();
+        connect(conn);
+        closeFuture.await();
+
+        conn.close().await();
+        while (mClosed.get() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        // the first channel closed while the second was connecting, and was not reported
+        assertEquals(1, mClosed.get());
+    }
+
+    @Test(timeout = 10000)
+    public void reconnectAfterConnectionKilled() throws Exception {
+        NettyConnection conn = new NettyConnection(mListener);
+        conn.setReconnectPolicy(new ReconnectPolicy().setBackoff(50, 200, 2));
+        connect(conn);
+        // accepted on the server after the client saw it connected
+        while (mServer.getConnectionCount() == 0) {
+            Thread.sleep(1);
+        }
+
+        long start = System.nanoTime();
+        mServer.killConnections();
+        assertEquals(true, mConnected.poll(5, TimeUnit.SECONDS));
+        long recoverTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // one attempt after at most 60 ms, far inside the window the device keeps the session
+        assertEquals(1, mReconnecting.get());
+        assertTrue("recovered in " + recoverTime + " ms", recoverTime < 1000);
+        conn.close().await();
+    }
+
+    @Test(timeout = 10000)
+    public void reconnectAfterConnectionReset() throws Exception {
+        NettyConnection conn = new NettyConnection(mListener);
+        conn.setReconnectPolicy(new ReconnectPolicy().setBackoff(50, 200, 2));
+        connect(conn);
+        while (mServer.getConnectionCount() == 0) {
+            Thread.sleep(1);
+        }
+
+        // the device streams right away, so the reset is read as an IOException
+        mServer.resetConnections();
+        assertEquals(true, mConnected.poll(5, TimeUnit.SECONDS));
+
+        assertEquals(1, mReconnecting.get());
+        assertEquals(0, mClosed.get());
+        assertEquals(2, mServer.getConnectionCount());
+        conn.close().await();
+    }
+
+    @Test(timeout = 10000)
+    public void lookUpAgainAfterFailedConnect() throws Exception {
+        NettyConnection conn = new NettyConnection(mListener);
+        conn.connect("localhost", mPort);
+        assertEquals(true, mConnected.poll(5, TimeUnit.SECONDS));
+        assertNotNull(conn.getResolvedAddress());
+        conn.close().await();
+
+        // the host may have moved, the address of the last connect is not dialed again
+        mServer.stop();
+        conn.connect("localhost", mPort);
+        assertEquals(false, mConnected.poll(5, TimeUnit.SECONDS));
+        assertNull(conn.getResolvedAddress());
+    }
+
+    @Test(timeout = 10000)
+    public void unknownHost() throws Exception {
+        NettyConnection conn = new NettyConnection(mListener);
+        conn.connect("unknown.invalid", mPort);
+        assertEquals(false, mConnected.poll(5, TimeUnit.SECONDS));
+        assertNull(conn.getResolvedAddress());
+    }
+
+    @Test(timeout = 10000)
+    public void giveUpWithinWindow() throws Exception {
+        NettyConnection conn = new NettyConnection(mListener);
+        conn.setReconnectPolicy(new ReconnectPolicy().setBackoff(50, 200, 2).setWindow(1000));
+        connect(conn);
+
+        long start = System.nanoTime();
+        mServer.stop();
+        assertEquals(false, mConnected.poll(5, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(mReconnecting.get() > 1);
+        assertTrue(elapsed < 1500);
+    }
+
+    @Test(timeout = 10000)
+    public void dropWritesWhileReconnecting() throws Exception {
+        NettyConnection conn = new NettyConnection(mListener);
+        Message beforeConnect = new Message(Message.TIME, new byte[8]);
+        assertFalse(conn.write(beforeConnect));
+        assertEquals(0, beforeConnect.refCnt());
+
+        conn.setReconnectPolicy(new ReconnectPolicy().setBackoff(50, 200, 2).setWindow(5000));
+        connect(conn);
+        mServer.stop();
+        while (mReconnecting.get() == 0) {
+            Thread.sleep(1);
+        }
+
+        // as a touch flush from the main thread, which must not throw
+        Message reconnecting = new Message(Message.TIME, new byte[8]);
+        assertFalse(conn.write(reconnecting));
+        assertEquals(0, reconnecting.refCnt());
+        conn.close().await();
+    }
+
+    @Test
+    public void releaseShutsDownLastReference() {
+        SharedEventLoopGroup.acquire();
+        SharedEventLoopGroup.acquire();
+        EventLoopGroup group = SharedEventLoopGroup.get();
+
+        SharedEventLoopGroup.release();
+        assertSame(group, SharedEventLoopGroup.get());
+
+        SharedEventLoopGroup.release();
+        assertTrue(group.isShuttingDown());
+        assertNotSame(group, SharedEventLoopGroup.get());
+    }
+
+    private static int countThreads(String prefix) {
+        // tests with a timeout run in their own thread group, so look at all threads
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void connect(NettyConnection conn) throws InterruptedException {
+        conn.connect("127.0.0.1", mPort);
+        assertEquals(true, mConnected.poll(5, TimeUnit.SECONDS));
+    }
+
+    private NettyConnection.ConnectionListener mListener = new NettyConnection.ConnectionListener() {
+        @Override
+        public void onConnected(NettyConnection conn) {
+            mConnected.add(true);
+        }
+
+        @Override
+        public void onClosed(NettyConnection conn) {
+            mClosed.incrementAndGet();
+        }
+
+        @Override
+        public void onMessage(NettyConnection conn, Message msg) {
+            msg.release();
+        }
+
+        @Override
+        public void onError(int code, String msg) {
+            mConnected.add(false);
+        }
+
+        @Override
+        public void onReconnecting(NettyConnection conn, int attempt) {
+            mReconnecting.incrementAndGet();
+        }
+    };
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.socket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void exponentialBackoff() {
+        ReconnectPolicy policy = new ReconnectPolicy().setBackoff(100, 1000, 2).setJitter(0);
+
+        assertEquals(100, policy.getDelay(1, 0.3));
+        assertEquals(200, policy.getDelay(2, 0.3));
+        assertEquals(800, policy.getDelay(4, 0.3));
+        assertEquals(1000, policy.getDelay(5, 0.3));
+        assertEquals(1000, policy.getDelay(30, 0.3));
+    }
+
+    @Test
+    public void jitterBothWays() {
+        ReconnectPolicy policy = new ReconnectPolicy().setBackoff(1000, 1000, 2).setJitter(0.2);
+
+        assertEquals(800, policy.getDelay(1, 0));
+        assertEquals(1000, policy.getDelay(1, 0.5));
+        assertEquals(1200, policy.getDelay(1, 1));
+    }
+
+    @Test
+    public void stayWithinWindow() {
+        ReconnectPolicy policy = new ReconnectPolicy().setMaxAttempts(3).setWindow(5000);
+
+        assertTrue(policy.shouldRetry(1, 100));
+        assertTrue(policy.shouldRetry(3, 4999));
+        assertFalse(policy.shouldRetry(4, 1000));
+        assertFalse(policy.shouldRetry(2, 5000));
+    }
+}
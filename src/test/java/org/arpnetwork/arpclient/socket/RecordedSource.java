@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.socket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Loops over recorded frames.
+ */
+public class RecordedSource implements MediaSource {
+    private static final int NAL_TYPE_MASK = 0x1f;
+    private static final int NAL_SLICE = 1;
+    private static final int NAL_IDR = 5;
+
+    private final List<byte[]> mFrames;
+    private int mIndex;
+
+    public RecordedSource(List<byte[]> frames) {
+        if (frames.isEmpty()) {
+            throw new IllegalArgumentException("no frames");
+        }
+        mFrames = frames;
+    }
+
+    /**
+     * Split an H.264 Annex B stream into access units, each one ending
+     * with a slice and carrying the parameter sets or SEI before it.
+     *
+     * @param in raw H.264 stream, as dumped from the device encoder
+     */
+    public static RecordedSource readAnnexB(InputStream in) throws IOException {
+        byte[] stream = readAll(in);
+        List<byte[]> frames = new ArrayList<>();
+
+        int frameStart = -1;
+        int nal = nextStartCode(stream, 0);
+        while (nal >= 0) {
+            if (frameStart < 0) {
+                frameStart = nal;
+            }
+            int header = nal + startCodeLength(stream, nal);
+            int next = nextStartCode(stream, header);
+            int type = header < stream.length ? stream[header] & NAL_TYPE_MASK : 0;
+            if (type >= NAL_SLICE && type <= NAL_IDR) {
+                int end = next < 0 ? stream.length : next;
+                frames.add(copyOf(stream, frameStart, end));
+                frameStart = -1;
+            }
+            nal = next;
+        }
+        return new RecordedSource(frames);
+    }
+
+    @Override
+    public void writeFrame(ByteBuf out) {
+        out.writeBytes(mFrames.get(mIndex));
+        mIndex = (mIndex + 1) % mFrames.size();
+    }
+
+    private static int nextStartCode(byte[] stream, int from) {
+        for (int i = from; i + 2 < stream.length; i++) {
+            if (stream[i] == 0 && stream[i + 1] == 0 && stream[i + 2] == 1) {
+                return i > from && stream[i - 1] == 0 ? i - 1 : i;
+            }
+        }
+        return -1;
+    }
+
+    private static int startCodeLength(byte[] stream, int index) {
+        return stream[index + 2] == 1 ? 3 : 4;
+    }
+
+    private static byte[] copyOf(byte[] stream, int start, int end) {
+        byte[] frame = new byte[end - start];
+        System.arraycopy(stream, start, frame, 0, frame.length);
+        return frame;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.socket;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Frames of a given size with valid H.264 NAL headers and filler payload,
+ * for exercising the network and the drop policies rather than a real decoder.
+ */
+public class SyntheticSource implements MediaSource {
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xc0, 0x1f};
+    private static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final int NAL_IDR = 0x65;
+    private static final int NAL_SLICE = 0x41;
+    private static final int NAL_SLICE_NON_REF = 0x01;
+    private static final int KEY_FRAME_SCALE = 4;
+    private static final byte FILLER = (byte) 0xa5;
+
+    private final int mFrameSize;
+    private final int mGopSize;
+    private final int mNonRefInterval;
+    private final boolean mH264;
+
+    private int mIndex;
+
+    /**
+     * @param bitrate        bits per second
+     * @param fps            frames per second
+     * @param gopSize        frames between IDR frames
+     * @param nonRefInterval every n-th frame is a non-reference one, 0 for none
+     */
+    public static SyntheticSource h264(int bitrate, int fps, int gopSize, int nonRefInterval) {
+        return new SyntheticSource(bitrate / 8 / fps, gopSize, nonRefInterval, true);
+    }
+
+    /**
+     * Raw AAC frames of 1024 samples, with filler payload.
+     *
+     * @param bitrate    bits per second
+     * @param sampleRate samples per second
+     */
+    public static SyntheticSource aac(int bitrate, int sampleRate) {
+        return new SyntheticSource((int) ((long) bitrate * 1024 / 8 / sampleRate), 1, 0, false);
+    }
+
+    private SyntheticSource(int frameSize, int gopSize, int nonRefInterval, boolean h264) {
+        mFrameSize = Math.max(frameSize, 16);
+        mGopSize = gopSize;
+        mNonRefInterval = nonRefInterval;
+        mH264 = h264;
+    }
+
+    @Override
+    public void writeFrame(ByteBuf out) {
+        int index = mIndex++;
+        if (!mH264) {
+            writeFiller(out, mFrameSize);
+            return;
+        }
+
+        int start = out.writerIndex();
+        int size = mFrameSize;
+        int position = index % mGopSize;
+        if (position == 0) {
+            out.writeBytes(START_CODE).writeBytes(SPS);
+            out.writeBytes(START_CODE).writeBytes(PPS);
+            out.writeBytes(START_CODE).writeByte(NAL_IDR);
+            size *= KEY_FRAME_SCALE;
+        } else if (mNonRefInterval > 0 && position % mNonRefInterval == 0) {
+            out.writeBytes(START_CODE).writeByte(NAL_SLICE_NON_REF);
+        } else {
+            out.writeBytes(START_CODE).writeByte(NAL_SLICE);
+        }
+        writeFiller(out, size - (out.writerIndex() - start));
+    }
+
+    private static void writeFiller(ByteBuf out, int size) {
+        for (int i = 0; i < size; i++) {
+            out.writeByte(FILLER);
+        }
+    }
+}
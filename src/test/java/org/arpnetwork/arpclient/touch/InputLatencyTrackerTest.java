@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.touch;
+
+import org.arpnetwork.arpclient.protocol.ClockSync;
+import org.arpnetwork.arpclient.metrics.LatencyHistogram;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InputLatencyTrackerTest {
+    private static final long OFFSET = 5000000; // remote clock ahead by 5 s
+
+    private ClockSync mClockSync = new ClockSync();
+    private InputLatencyTracker mTracker;
+
+    @Before
+    public void setUp() {
+        // 20 ms round trip
+        mClockSync.addSample(0, OFFSET + 10000, 20000);
+        mTracker = new InputLatencyTracker(mClockSync);
+    }
+
+    @Test
+    public void matchFrameCapturedAfterArrival() {
+        assertEquals(0, mTracker.onTouchSent(100000));
+
+        // captured before the touch reached remote device
+        mTracker.onFrameRendered(OFFSET + 105000, 150000);
+        assertEquals(0, mTracker.getHistogram().getCount());
+
+        mTracker.onFrameRendered(OFFSET + 115000, 160000);
+        LatencyHistogram histogram = mTracker.getHistogram();
+        assertEquals(1, histogram.getCount());
+        assertNear(60000, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void oneFrameMatchesSeveralTouches() {
+        mTracker.onTouchSent(100000);
+        mTracker.onTouchSent(104000);
+        assertEquals(2, mTracker.onTouchSent(108000));
+
+        mTracker.onFrameRendered(OFFSET + 120000, 170000);
+        assertEquals(3, mTracker.getHistogram().getCount());
+        assertNear(70000, mTracker.getHistogram().getMax());
+    }
+
+    @Test
+    public void dropStaleTouches() {
+        mTracker.onTouchSent(100000);
+        mTracker.onFrameRendered(OFFSET + 90000, 2000000);
+        assertEquals(0, mTracker.getHistogram().getCount());
+
+        for (int i = 0; i < 64; i++) {
+            assertTrue(mTracker.onTouchSent(3000000 + i) >= 0);
+        }
+        assertEquals(-1, mTracker.onTouchSent(3000100));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected " + expected + " was " + actual, Math.abs(expected - actual) <= expected / 16);
+    }
+}
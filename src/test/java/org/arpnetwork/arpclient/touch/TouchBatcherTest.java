@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.touch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TouchBatcherTest {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private List<String> mMessages = new ArrayList<>();
+    private TouchBatcher mBatcher;
+
+    @Before
+    public void setUp() {
+        mBatcher = new TouchBatcher(new TouchHandler.OnTouchInfoListener() {
+            @Override
+            public void onTouchInfo(ByteBuf touchInfo) {
+                mMessages.add(touchInfo.toString(US_ASCII));
+                touchInfo.release();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mBatcher.reset();
+    }
+
+    @Test
+    public void downIsSentAtOnce() {
+        mBatcher.down(0, 10, 20, 50, 5, 5);
+
+        assertEquals(1, mMessages.size());
+        assertEquals("d 0 10 20 50 5 5 \nc\n", mMessages.get(0));
+        assertFalse(mBatcher.hasPending());
+    }
+
+    @Test
+    public void movesAreCoalesced() {
+        mBatcher.down(0, 10, 20, 50, 5, 5);
+        mBatcher.down(1, 100, 200, 50, 5, 5);
+        for (int i = 0; i < 10; i++) {
+            mBatcher.move(0, 11 + i, 20, 50, 5, 5);
+            mBatcher.move(1, 101 + i, 200, 50, 5, 5);
+        }
+        assertEquals(2, mMessages.size());
+        assertTrue(mBatcher.hasPending());
+
+        mBatcher.flush();
+        assertEquals(3, mMessages.size());
+        assertEquals("m 0 20 20 50 5 5 \nm 1 110 200 50 5 5 \nc\n", mMessages.get(2));
+        assertEquals(3, mBatcher.getMessageCount());
+    }
+
+    @Test
+    public void upSendsPendingMovesFirst() {
+        mBatcher.down(0, 10, 20, 50, 5, 5);
+        mBatcher.move(0, 15, 25, 50, 5, 5);
+        mBatcher.up(0);
+
+        assertEquals(2, mMessages.size());
+        assertEquals("m 0 15 25 50 5 5 \nc\nu 0 \nc\n", mMessages.get(1));
+        assertFalse(mBatcher.hasPending());
+    }
+
+    @Test
+    public void resetDropsPending() {
+        mBatcher.move(0, 15, 25, 50, 5, 5);
+        mBatcher.reset();
+        mBatcher.flush();
+
+        assertTrue(mMessages.isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+package org.arpnetwork.arpclient.touch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Encoding a two finger move, {@link TouchEncoder} against the String.format encoder it replaced.
+ * Both end with the command bytes in a buffer. Run with the GC profiler for allocations per event.
+ * <p>
+ * Run with the test classpath: {@code java org.arpnetwork.arpclient.touch.TouchEncoderBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TouchEncoderBenchmark {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final StringBuilder mBuilder = new StringBuilder();
+    private ByteBuf mBuf;
+    private int mX;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mBuf = PooledByteBufAllocator.DEFAULT.buffer(256);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mBuf.release();
+    }
+
+    @Benchmark
+    public ByteBuf encoder() {
+        int x = nextX();
+        mBuf.clear();
+        TouchEncoder.writeContact(mBuf, TouchEncoder.MOVE, 0, x, 1201, 50, 5, 5);
+        TouchEncoder.writeContact(mBuf, TouchEncoder.MOVE, 1, 1079 - x, 600, 50, 5, 5);
+        TouchEncoder.writeCommit(mBuf);
+        return mBuf;
+    }
+
+    @Benchmark
+    public ByteBuf formatted() {
+        int x = nextX();
+        mBuilder.setLength(0);
+        mBuilder.append(String.format(Locale.US, "%s %d %d %d %d %d %d \n", "m", 0, x, 1201, 50, 5, 5));
+        mBuilder.append(String.format(Locale.US, "%s %d %d %d %d %d %d \n", "m", 1, 1079 - x, 600, 50, 5, 5));
+        mBuilder.append("c\n");
+        mBuf.clear();
+        mBuf.writeBytes(mBuilder.toString().getBytes(US_ASCII));
+        return mBuf;
+    }
+
+    private int nextX() {
+        mX = (mX + 1) % 1080;
+        return mX;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TouchEncoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.touch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TouchEncoderTest {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int WARMUP_EVENTS = 100000;
+    private static final int EVENTS = 100000;
+
+    private ByteBuf mBuf = PooledByteBufAllocator.DEFAULT.buffer(16);
+
+    @After
+    public void tearDown() {
+        mBuf.release();
+    }
+
+    @Test
+    public void writeInt() {
+        int[] values = {0, 7, 10, 99, 100, 1079, -1, -2048, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) {
+            mBuf.clear();
+            TouchEncoder.writeInt(mBuf, value);
+            assertEquals(String.valueOf(value), mBuf.toString(US_ASCII));
+        }
+    }
+
+    @Test
+    public void sameAsFormattedCommands() {
+        TouchEncoder.writeContact(mBuf, TouchEncoder.DOWN, 0, 540, 1201, 50, 5, 5);
+        TouchEncoder.writeContact(mBuf, TouchEncoder.MOVE, 1, 1079, 0, 0, 30, 0);
+        TouchEncoder.writeUp(mBuf, 1);
+        TouchEncoder.writeCommit(mBuf);
+
+        String expected = String.format(Locale.US, "%s %d %d %d %d %d %d \n", "d", 0, 540, 1201, 50, 5, 5)
+                + String.format(Locale.US, "%s %d %d %d %d %d %d \n", "m", 1, 1079, 0, 0, 30, 0)
+                + String.format(Locale.US, "u %d \n", 1)
+                + "c\n";
+        assertEquals(expected, mBuf.toString(US_ASCII));
+    }
+
+    @Test
+    public void steadyStateAllocation() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        mBuf.ensureWritable(256);
+
+        encodeEvents(WARMUP_EVENTS);
+
+        long before = bean.getThreadAllocatedBytes(threadId);
+        encodeEvents(EVENTS);
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        // a formatted two finger move allocated about 3 KB, the encoder nothing once warm
+        long perEvent = allocated / EVENTS;
+        assertTrue("allocated " + perEvent + " bytes per event", perEvent < 1);
+    }
+
+    private void encodeEvents(int count) {
+        for (int i = 0; i < count; i++) {
+            mBuf.clear();
+            TouchEncoder.writeContact(mBuf, TouchEncoder.MOVE, 0, i % 1080, i % 1920, 50, 5, 5);
+            TouchEncoder.writeContact(mBuf, TouchEncoder.MOVE, 1, 1079 - i % 1080, 1919 - i % 1920, 50, 5, 5);
+            TouchEncoder.writeCommit(mBuf);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.arpnetwork.arpclient.util;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packet handoff from the socket thread to a codec thread, {@link SpscRingBuffer}
+ * against the LinkedBlockingQueue it replaced. One producer and one consumer per group,
+ * both sized like the video packet queue. Calls on a full or empty queue are not counted,
+ * {@code offered} and {@code polled} are the packets actually handed over.
+ * <p>
+ * Run with the test classpath: {@code java org.arpnetwork.arpclient.util.SpscRingBufferBenchmark}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpscRingBufferBenchmark {
+    private static final int CAPACITY = 32;
+    private static final Object PACKET = new Object();
+
+    @State(Scope.Group)
+    public static class Ring {
+        final SpscRingBuffer<Object> ring = new SpscRingBuffer<>(CAPACITY);
+    }
+
+    @State(Scope.Group)
+    public static class Queue {
+        final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>(CAPACITY);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long offered;
+        public long polled;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            offered = 0;
+            polled = 0;
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public void ringOffer(Ring state, Counters counters) {
+        if (state.ring.offer(PACKET)) {
+            counters.offered++;
+        }
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public void ringPoll(Ring state, Counters counters) {
+        if (state.ring.poll() != null) {
+            counters.polled++;
+        }
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void queueOffer(Queue state, Counters counters) {
+        if (state.queue.offer(PACKET)) {
+            counters.offered++;
+        }
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public void queuePoll(Queue state, Counters counters) {
+        if (state.queue.poll() != null) {
+            counters.polled++;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SpscRingBufferBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,83 @@
+package org.arpnetwork.arpclient.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpscRingBufferTest {
+
+    @Test
+    public void capacityRoundedUp() {
+        assertEquals(16, new SpscRingBuffer<Integer>(15).capacity());
+        assertEquals(16, new SpscRingBuffer<Integer>(16).capacity());
+        assertEquals(1, new SpscRingBuffer<Integer>(1).capacity());
+    }
+
+    @Test
+    public void bounded() {
+        SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        assertEquals(Integer.valueOf(0), ring.poll());
+        assertTrue(ring.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void producerConsumer() throws Exception {
+        final int count = 1000000;
+        final SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(32);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    Integer value = i;
+                    while (!ring.offer(value)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, ring.take().intValue());
+        }
+        producer.join();
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void takeInterrupted() throws Exception {
+        final SpscRingBuffer<Integer> ring = new SpscRingBuffer<>(4);
+        final boolean[] interrupted = new boolean[1];
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ring.take();
+                } catch (InterruptedException e) {
+                    interrupted[0] = true;
+                }
+            }
+        });
+        consumer.start();
+        consumer.interrupt();
+        consumer.join();
+
+        assertTrue(interrupted[0]);
+    }
+}
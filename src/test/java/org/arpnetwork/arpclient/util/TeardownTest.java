@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 ARP Network
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.arpnetwork.arpclient.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TeardownTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test(timeout = 5000)
+    public void concurrentTasks() throws Exception {
+        Teardown teardown = new Teardown();
+        teardown.add(sleep(300));
+        teardown.add(sleep(300));
+        teardown.add(sleep(300));
+
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        teardown.start(2000, countDown(done), DIRECT);
+
+        done.await();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsed + " ms", elapsed >= 300 && elapsed < 800);
+    }
+
+    @Test(timeout = 5000)
+    public void boundedByTimeout() throws Exception {
+        final CountDownLatch hang = new CountDownLatch(1);
+        Teardown teardown = new Teardown();
+        teardown.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    hang.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+
+        CountDownLatch done = new CountDownLatch(1);
+        teardown.start(200, countDown(done), DIRECT);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        hang.countDown();
+    }
+
+    @Test(timeout = 5000)
+    public void whenDoneWaitsForRunningTeardown() throws Exception {
+        Teardown teardown = new Teardown();
+        teardown.add(sleep(300));
+        teardown.start(2000, null, DIRECT);
+
+        // as a surface released by a second disconnect while the first is stopping decoders
+        CountDownLatch chained = new CountDownLatch(1);
+        long start = System.nanoTime();
+        teardown.whenDone(countDown(chained), DIRECT);
+        chained.await();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsed + " ms", elapsed >= 250);
+
+        CountDownLatch after = new CountDownLatch(1);
+        teardown.whenDone(countDown(after), DIRECT);
+        assertEquals(0, after.getCount());
+    }
+
+    private static Runnable sleep(final long millis) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+}